@@ -0,0 +1,58 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the Base64 encoding of small and large BINARY values, both into a new
+ * <code>char[]</code> and streamed into the output buffer of the {@link XMLWriter}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark
+{
+
+    @Param({ "48", "1048576" })
+    public int size;
+
+    protected XMLWriter out;
+
+    protected byte[] data;
+
+    @Setup
+    public void setup()
+    {
+        out = ValueSerializationBenchmark.createDiscardingWriter();
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+    }
+
+    @Benchmark
+    public char[] encode()
+    {
+        return Base64Coder.encode(data);
+    }
+
+    @Benchmark
+    public void writeBase64() throws Exception
+    {
+        out.writeBase64(data);
+    }
+
+}
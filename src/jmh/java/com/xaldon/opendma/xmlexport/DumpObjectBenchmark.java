@@ -0,0 +1,134 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opendma.api.OdmaClass;
+import org.opendma.api.OdmaObject;
+import org.opendma.api.OdmaPropertyInfo;
+import org.opendma.api.OdmaType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end throughput of {@link XMLExporter#dumpObject} for documents with a property of
+ * each data type, references to other documents and to non-retrievable objects, in each
+ * export format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DumpObjectBenchmark
+{
+
+    static final int OBJECTS = 1024;
+
+    @Param({ "xml", "binary" })
+    public String format;
+
+    protected XMLExporter exporter;
+
+    protected ExportSerializer out;
+
+    protected OdmaObject[] documents;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        exporter = ValueSerializationBenchmark.createExporter();
+        out = ValueSerializationBenchmark.createDiscardingSerializer(format);
+        documents = createDocuments(new SyntheticObjects(), OBJECTS, new Random(42));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OBJECTS)
+    public void dumpObject() throws Exception
+    {
+        // every object can only be exported once. The new set is part of the measurement, but
+        // its cost is negligible compared to the objects.
+        exporter.exportedObjects = new IdSet(OBJECTS);
+        for(int i = 0; i < OBJECTS; i++)
+        {
+            exporter.dumpObject(out, documents[i]);
+        }
+    }
+
+    /**
+     * Create documents with typical metadata: strings, numbers, timestamps, a small binary,
+     * references and a dependent non-retrievable object for every fourth document.
+     */
+    static OdmaObject[] createDocuments(SyntheticObjects factory, int count, Random random)
+    {
+        OdmaPropertyInfo id = factory.createPropertyInfo("opendma", "Id", OdmaType.ID, false);
+        OdmaClass root = factory.createClass("opendma", "Object", null, true, Arrays.asList(id));
+        OdmaPropertyInfo note = factory.createPropertyInfo("benchmark", "Note", OdmaType.STRING, false);
+        OdmaClass dependentClass = factory.createClass("benchmark", "Annotation", root, false, Arrays.asList(note));
+        OdmaPropertyInfo title = factory.createPropertyInfo("benchmark", "Title", OdmaType.STRING, false);
+        OdmaPropertyInfo pages = factory.createPropertyInfo("benchmark", "Pages", OdmaType.INTEGER, false);
+        OdmaPropertyInfo version = factory.createPropertyInfo("benchmark", "Version", OdmaType.SHORT, false);
+        OdmaPropertyInfo size = factory.createPropertyInfo("benchmark", "Size", OdmaType.LONG, false);
+        OdmaPropertyInfo score = factory.createPropertyInfo("benchmark", "Score", OdmaType.FLOAT, false);
+        OdmaPropertyInfo amount = factory.createPropertyInfo("benchmark", "Amount", OdmaType.DOUBLE, false);
+        OdmaPropertyInfo archived = factory.createPropertyInfo("benchmark", "Archived", OdmaType.BOOLEAN, false);
+        OdmaPropertyInfo created = factory.createPropertyInfo("benchmark", "Created", OdmaType.DATETIME, false);
+        OdmaPropertyInfo modified = factory.createPropertyInfo("benchmark", "Modified", OdmaType.DATETIME, false);
+        OdmaPropertyInfo checksum = factory.createPropertyInfo("benchmark", "Checksum", OdmaType.BINARY, false);
+        OdmaPropertyInfo parent = factory.createPropertyInfo("benchmark", "Parent", OdmaType.REFERENCE, false);
+        OdmaPropertyInfo related = factory.createPropertyInfo("benchmark", "Related", OdmaType.REFERENCE, true);
+        OdmaPropertyInfo keywords = factory.createPropertyInfo("benchmark", "Keywords", OdmaType.STRING, true);
+        OdmaPropertyInfo annotation = factory.createPropertyInfo("benchmark", "Annotation", OdmaType.REFERENCE, false);
+        OdmaClass documentClass = factory.createClass("benchmark", "Document", root, true, Arrays.asList(title, pages, version, size, score, amount, archived, created, modified, checksum, parent, related, keywords, annotation));
+        OdmaObject[] result = new OdmaObject[count];
+        for(int i = 0; i < count; i++)
+        {
+            result[i] = factory.createObject("doc-"+i, documentClass);
+        }
+        for(int i = 0; i < count; i++)
+        {
+            OdmaObject doc = result[i];
+            SyntheticObjects.setValue(doc, title, ValueSerializationBenchmark.createValues(OdmaType.STRING, 1, random)[0]);
+            SyntheticObjects.setValue(doc, pages, ValueSerializationBenchmark.createValues(OdmaType.INTEGER, 1, random)[0]);
+            SyntheticObjects.setValue(doc, version, ValueSerializationBenchmark.createValues(OdmaType.SHORT, 1, random)[0]);
+            SyntheticObjects.setValue(doc, size, ValueSerializationBenchmark.createValues(OdmaType.LONG, 1, random)[0]);
+            SyntheticObjects.setValue(doc, score, ValueSerializationBenchmark.createValues(OdmaType.FLOAT, 1, random)[0]);
+            SyntheticObjects.setValue(doc, amount, ValueSerializationBenchmark.createValues(OdmaType.DOUBLE, 1, random)[0]);
+            SyntheticObjects.setValue(doc, archived, ValueSerializationBenchmark.createValues(OdmaType.BOOLEAN, 1, random)[0]);
+            SyntheticObjects.setValue(doc, created, ValueSerializationBenchmark.createValues(OdmaType.DATETIME, 1, random)[0]);
+            SyntheticObjects.setValue(doc, modified, ValueSerializationBenchmark.createValues(OdmaType.DATETIME, 1, random)[0]);
+            SyntheticObjects.setValue(doc, checksum, ValueSerializationBenchmark.createValues(OdmaType.BINARY, 1, random)[0]);
+            SyntheticObjects.setValue(doc, parent, result[random.nextInt(count)]);
+            List<OdmaObject> relatedDocuments = new ArrayList<OdmaObject>();
+            for(int j = random.nextInt(4); j > 0; j--)
+            {
+                relatedDocuments.add(result[random.nextInt(count)]);
+            }
+            SyntheticObjects.setValue(doc, related, relatedDocuments);
+            SyntheticObjects.setValue(doc, keywords, Arrays.asList("invoice", "2024", "k"+random.nextInt(100)));
+            OdmaObject dependent = null;
+            if(i % 4 == 0)
+            {
+                dependent = factory.createObject("annotation-"+i, dependentClass);
+                SyntheticObjects.setValue(dependent, note, "Reviewed & approved");
+            }
+            SyntheticObjects.setValue(doc, annotation, dependent);
+        }
+        return result;
+    }
+
+}
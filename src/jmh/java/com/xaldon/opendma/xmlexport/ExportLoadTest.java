@@ -0,0 +1,67 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Runs a complete export of a {@link SyntheticRepository} and reports throughput and memory.
+ *
+ * <p>The properties file contains the usual exporter configuration and the
+ * <code>Synthetic.*</code> properties of the repository. <code>AdaptorSystemId</code> is not
+ * required. Peak heap usage is taken from the memory pools, so run with a fixed
+ * <code>-Xmx</code> to see whether an export of a given size fits into it.</p>
+ */
+public class ExportLoadTest
+{
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length != 1)
+        {
+            System.out.println("Usage:");
+            System.out.println("java -cp target/benchmarks.jar "+ExportLoadTest.class.getName()+" <config-file>");
+            System.out.println("The config file contains the exporter configuration and the Synthetic.* properties described in SyntheticRepository.");
+            System.exit(1);
+        }
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(args[0]);
+        try
+        {
+            props.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+        if(props.getProperty("AdaptorSystemId") == null)
+        {
+            props.setProperty("AdaptorSystemId", "synthetic");
+        }
+        SyntheticRepository repository = new SyntheticRepository(props);
+        XMLExporter exporter = new XMLExporter(props);
+        System.out.println("Exporting "+repository.getObjectCount()+" synthetic objects...");
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            pool.resetPeakUsage();
+        }
+        long start = System.nanoTime();
+        exporter.runExport(repository.createSession());
+        double seconds = (System.nanoTime() - start) / 1000000000.0;
+        long peakHeap = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if(pool.getType() == MemoryType.HEAP)
+            {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "Exported in %.1f s: %.1f objects/s, %d getObject calls, peak heap %.1f MB",
+                seconds, repository.getObjectCount() / seconds, repository.getObjectCalls(), peakHeap / 1048576.0));
+    }
+
+}
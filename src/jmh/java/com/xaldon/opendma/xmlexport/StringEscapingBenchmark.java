@@ -0,0 +1,85 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link XMLExporter#dumpXMLString} for strings with different shares of
+ * characters that need escaping.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringEscapingBenchmark
+{
+
+    static final int STRINGS = 64;
+
+    /** characters leaving the fast path: markup, non-ASCII, a control character and an unpaired surrogate */
+    static final String SPECIAL_CHARACTERS = "<>&\"'\u00e4\u20ac\u0001\udc00";
+
+    /** share of characters in the strings that need escaping */
+    @Param({ "0", "0.01", "0.1", "0.5" })
+    public double escapeDensity;
+
+    @Param({ "16", "1024" })
+    public int length;
+
+    protected XMLExporter exporter;
+
+    protected XMLWriter out;
+
+    protected String[] strings;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        exporter = ValueSerializationBenchmark.createExporter();
+        out = ValueSerializationBenchmark.createDiscardingWriter();
+        Random random = new Random(42);
+        strings = new String[STRINGS];
+        for(int i = 0; i < STRINGS; i++)
+        {
+            StringBuilder sb = new StringBuilder(length);
+            for(int j = 0; j < length; j++)
+            {
+                if(random.nextDouble() < escapeDensity)
+                {
+                    sb.append(SPECIAL_CHARACTERS.charAt(random.nextInt(SPECIAL_CHARACTERS.length())));
+                }
+                else
+                {
+                    sb.append((char)('a' + random.nextInt(26)));
+                }
+            }
+            strings[i] = sb.toString();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STRINGS)
+    public void dumpXMLString() throws Exception
+    {
+        for(int i = 0; i < STRINGS; i++)
+        {
+            exporter.dumpXMLString(out, strings[i]);
+        }
+    }
+
+}
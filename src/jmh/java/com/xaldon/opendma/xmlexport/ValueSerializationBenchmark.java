@@ -0,0 +1,168 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opendma.api.OdmaId;
+import org.opendma.api.OdmaObject;
+import org.opendma.api.OdmaQName;
+import org.opendma.api.OdmaType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of writing single property values of each data type with
+ * {@link XMLExporter#dumpPropertyValueObject} in each export format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueSerializationBenchmark
+{
+
+    /** number of different values written round-robin, to avoid measuring a single cached value */
+    static final int VALUES = 1024;
+
+    @Param({ "STRING", "INTEGER", "SHORT", "LONG", "FLOAT", "DOUBLE", "BOOLEAN", "DATETIME", "BINARY", "ID" })
+    public String type;
+
+    @Param({ "xml", "binary" })
+    public String format;
+
+    protected XMLExporter exporter;
+
+    protected ExportSerializer out;
+
+    protected OdmaType odmaType;
+
+    protected Object[] values;
+
+    protected OdmaQName propertyName = new OdmaQName("benchmark", "Value");
+
+    protected LinkedHashMap<String,OdmaObject> nonRetrievableObjects = new LinkedHashMap<String,OdmaObject>();
+
+    @Setup
+    public void setup() throws Exception
+    {
+        exporter = createExporter();
+        out = createDiscardingSerializer(format);
+        odmaType = OdmaType.valueOf(type);
+        values = createValues(odmaType, VALUES, new Random(42));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void dumpPropertyValueObject() throws Exception
+    {
+        for(int i = 0; i < VALUES; i++)
+        {
+            exporter.dumpPropertyValueObject(out, values[i], odmaType, propertyName, nonRetrievableObjects);
+        }
+    }
+
+    /**
+     * Create an exporter for the benchmarks. It is never connected to a repository.
+     */
+    static XMLExporter createExporter() throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("AdaptorSystemId", "benchmark");
+        return new XMLExporter(props);
+    }
+
+    /**
+     * Create an XMLWriter dropping everything written to it.
+     */
+    static XMLWriter createDiscardingWriter()
+    {
+        return new XMLWriter(new OutputStream()
+        {
+            public void write(int b)
+            {
+            }
+            public void write(byte[] b, int off, int len)
+            {
+            }
+        });
+    }
+
+    /**
+     * Create a serializer of the given format dropping everything written to it.
+     */
+    static ExportSerializer createDiscardingSerializer(String format)
+    {
+        if(format.equals("binary"))
+        {
+            return new BinaryExportSerializer(createDiscardingWriter());
+        }
+        return new XmlExportSerializer(createDiscardingWriter());
+    }
+
+    /**
+     * Create random values of the given data type, similar to those in typical document metadata.
+     */
+    static Object[] createValues(OdmaType type, int count, Random random)
+    {
+        Object[] result = new Object[count];
+        for(int i = 0; i < count; i++)
+        {
+            switch(type)
+            {
+            case STRING:
+                result[i] = "Document title "+random.nextInt(1000000)+" of project "+Long.toHexString(random.nextLong());
+                break;
+            case INTEGER:
+                result[i] = Integer.valueOf(random.nextInt());
+                break;
+            case SHORT:
+                result[i] = Short.valueOf((short)random.nextInt());
+                break;
+            case LONG:
+                result[i] = Long.valueOf(random.nextLong());
+                break;
+            case FLOAT:
+                result[i] = Float.valueOf(random.nextFloat() * 1000);
+                break;
+            case DOUBLE:
+                result[i] = Double.valueOf(random.nextDouble() * 1000000);
+                break;
+            case BOOLEAN:
+                result[i] = Boolean.valueOf(random.nextBoolean());
+                break;
+            case DATETIME:
+                // 2000-01-01 plus up to 30 years
+                result[i] = new Date(946684800000L + (long)(random.nextDouble() * 30 * 365 * 86400000L));
+                break;
+            case BINARY:
+                byte[] data = new byte[16 + random.nextInt(48)];
+                random.nextBytes(data);
+                result[i] = data;
+                break;
+            case ID:
+                result[i] = new OdmaId("{"+Long.toHexString(random.nextLong())+"-"+Long.toHexString(random.nextLong())+"}");
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported type "+type);
+            }
+        }
+        return result;
+    }
+
+}
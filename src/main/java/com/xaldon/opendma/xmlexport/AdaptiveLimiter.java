@@ -0,0 +1,201 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrent requests to the repository and the rate at which they
+ * are started.
+ *
+ * <p>In adaptive mode, the concurrency limit follows the latency and errors of the
+ * requests with additive increase and multiplicative decrease. Completed requests are
+ * observed in windows of at least as many requests as the current limit. At the end of a
+ * window, the limit is halved if a request has failed, and reduced by a fifth if the
+ * average latency exceeds the baseline by more than the tolerance factor. Otherwise, if the
+ * limit has been reached during the window, it is raised by one. Until the first reduction,
+ * the limit is doubled instead, so the right concurrency is found quickly. The baseline is
+ * the lowest average latency of a window. It rises by 1% per window, so that it follows a
+ * repository that has become slower for good, e.g. during office hours.</p>
+ *
+ * <p>Without adaptation, the limit is fixed at the maximum. With a rate limit, the starts
+ * of the requests are spaced evenly.</p>
+ *
+ * <p>All methods can be called from any thread.</p>
+ */
+public class AdaptiveLimiter
+{
+
+    /** the minimum number of requests observed before the limit is changed */
+    private static final int MIN_WINDOW = 8;
+
+    private static final double BASELINE_DRIFT = 1.01;
+
+    private static final double ERROR_BACKOFF = 0.5;
+
+    private static final double LATENCY_BACKOFF = 0.8;
+
+    protected final int maxLimit;
+
+    protected final boolean adaptive;
+
+    protected final double latencyTolerance;
+
+    /** the minimum time between the starts of two requests, 0 if not limited */
+    protected final long intervalNanos;
+
+    protected int limit;
+
+    protected int inFlight = 0;
+
+    protected boolean slowStart = true;
+
+    /** 0 until the first window has been completed */
+    protected double baselineNanos = 0;
+
+    protected int windowCount = 0;
+
+    protected long windowLatencyNanos = 0;
+
+    protected int windowErrors = 0;
+
+    protected boolean windowSaturated = false;
+
+    protected long nextStartNanos = System.nanoTime();
+
+    /**
+     * Create a new AdaptiveLimiter.
+     *
+     * @param maxLimit the maximum number of concurrent requests
+     * @param adaptive adapt the limit between 1 and the maximum to the latency and errors of the requests
+     * @param latencyTolerance the factor by which the latency may exceed the baseline before the limit is reduced
+     * @param maxRate the maximum number of requests started per second. 0 for no limit.
+     *
+     * @throws IllegalArgumentException if one of the arguments is out of range
+     */
+    public AdaptiveLimiter(int maxLimit, boolean adaptive, double latencyTolerance, double maxRate)
+    {
+        if(maxLimit < 1)
+        {
+            throw new IllegalArgumentException("maxLimit must be at least 1");
+        }
+        if(latencyTolerance <= 1)
+        {
+            throw new IllegalArgumentException("latencyTolerance must be greater than 1");
+        }
+        if(maxRate < 0)
+        {
+            throw new IllegalArgumentException("maxRate must not be negative");
+        }
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+        this.latencyTolerance = latencyTolerance;
+        this.intervalNanos = maxRate > 0 ? (long)(1000000000.0 / maxRate) : 0;
+        this.limit = adaptive ? 1 : maxLimit;
+    }
+
+    /**
+     * Wait until another request may be started. Every successful call has to be followed
+     * by a call to {@link #release(long, boolean)}.
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException
+    {
+        long delay = 0;
+        synchronized(this)
+        {
+            while(inFlight >= limit)
+            {
+                wait();
+            }
+            inFlight++;
+            if(inFlight >= limit)
+            {
+                windowSaturated = true;
+            }
+            if(intervalNanos > 0)
+            {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextStartNanos);
+                nextStartNanos = start + intervalNanos;
+                delay = start - now;
+            }
+        }
+        if(delay > 0)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+            catch(InterruptedException ie)
+            {
+                synchronized(this)
+                {
+                    inFlight--;
+                    notifyAll();
+                }
+                throw ie;
+            }
+        }
+    }
+
+    /**
+     * Report the completion of a request started after {@link #acquire()}.
+     *
+     * @param latencyNanos the duration of the request in nanoseconds
+     * @param failed true if the request failed in a way that might be caused by an overloaded repository
+     */
+    public synchronized void release(long latencyNanos, boolean failed)
+    {
+        inFlight--;
+        if(adaptive)
+        {
+            windowCount++;
+            windowLatencyNanos += latencyNanos;
+            if(failed)
+            {
+                windowErrors++;
+            }
+            if(windowCount >= Math.max(limit, MIN_WINDOW))
+            {
+                adapt();
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return the current number of concurrent requests allowed
+     */
+    public synchronized int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Change the limit according to the completed window and start the next one.
+     */
+    protected void adapt()
+    {
+        double average = (double)windowLatencyNanos / windowCount;
+        if(windowErrors > 0)
+        {
+            limit = Math.max(1, (int)(limit * ERROR_BACKOFF));
+            slowStart = false;
+        }
+        else if(baselineNanos > 0 && average > baselineNanos * latencyTolerance)
+        {
+            limit = Math.max(1, (int)(limit * LATENCY_BACKOFF));
+            slowStart = false;
+        }
+        else if(windowSaturated)
+        {
+            limit = Math.min(maxLimit, slowStart ? limit * 2 : limit + 1);
+        }
+        baselineNanos = baselineNanos > 0 ? Math.min(average, baselineNanos * BASELINE_DRIFT) : average;
+        windowCount = 0;
+        windowLatencyNanos = 0;
+        windowErrors = 0;
+        windowSaturated = inFlight >= limit;
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Writes log lines to a stream on a background thread.
+ *
+ * <p>The calling thread only enqueues the line. It blocks only if more than
+ * {@link #CAPACITY} lines are waiting to be written. Lines are written in the order they
+ * have been logged, also if logged by different threads.</p>
+ */
+public class AsyncLog
+{
+
+    /** Maximum number of lines waiting to be written */
+    public static final int CAPACITY = 8192;
+
+    protected final PrintStream out;
+
+    protected final ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(CAPACITY);
+
+    protected Thread writer = null;
+
+    /**
+     * Create a new AsyncLog.
+     *
+     * @param out the stream to write the log lines to
+     */
+    public AsyncLog(PrintStream out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * Log a line.
+     *
+     * @param line the line to log
+     */
+    public void println(String line)
+    {
+        enqueue(line);
+    }
+
+    /**
+     * Log the stack trace of the given throwable.
+     *
+     * @param t the throwable to log
+     */
+    public void printStackTrace(Throwable t)
+    {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        t.printStackTrace(pw);
+        pw.flush();
+        String trace = sw.toString();
+        if(trace.endsWith(System.lineSeparator()))
+        {
+            trace = trace.substring(0, trace.length() - System.lineSeparator().length());
+        }
+        enqueue(trace);
+    }
+
+    /**
+     * Wait until all lines logged so far have been written.
+     */
+    public void flush()
+    {
+        synchronized(this)
+        {
+            if(writer == null)
+            {
+                return;
+            }
+        }
+        CountDownLatch written = new CountDownLatch(1);
+        enqueue(written);
+        try
+        {
+            written.await();
+        }
+        catch(InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void enqueue(Object element)
+    {
+        synchronized(this)
+        {
+            if(writer == null)
+            {
+                writer = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        writeLoop();
+                    }
+                }, "XMLExporter-log");
+                writer.setDaemon(true);
+                writer.start();
+            }
+        }
+        try
+        {
+            queue.put(element);
+        }
+        catch(InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            out.println(element);
+        }
+    }
+
+    protected void writeLoop()
+    {
+        ArrayList<Object> batch = new ArrayList<Object>();
+        StringBuilder sb = new StringBuilder();
+        String lineSeparator = System.lineSeparator();
+        while(true)
+        {
+            try
+            {
+                batch.add(queue.take());
+            }
+            catch(InterruptedException ie)
+            {
+                return;
+            }
+            queue.drainTo(batch);
+            for(Object element : batch)
+            {
+                if(element instanceof CountDownLatch)
+                {
+                    out.print(sb);
+                    out.flush();
+                    sb.setLength(0);
+                    ((CountDownLatch)element).countDown();
+                }
+                else
+                {
+                    sb.append(element).append(lineSeparator);
+                }
+            }
+            batch.clear();
+            out.print(sb);
+            out.flush();
+            sb.setLength(0);
+        }
+    }
+
+}
@@ -13,6 +13,10 @@ package com.xaldon.opendma.xmlexport;
 //Please contact the author if you need another license.
 //This module is provided "as is", without warranties of any kind.
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
 /**
 * A Base64 Encoder/Decoder.
 *
@@ -80,25 +84,125 @@ return encode(in,in.length); }
 * @return     A character array with the Base64 encoded data.
 */
 public static char[] encode (byte[] in, int iLen) {
-int oDataLen = (iLen*4+2)/3;       // output length without padding
-int oLen = ((iLen+2)/3)*4;         // output length including padding
-char[] out = new char[oLen];
-int ip = 0;
-int op = 0;
-while (ip < iLen) {
-   int i0 = in[ip++] & 0xff;
-   int i1 = ip < iLen ? in[ip++] & 0xff : 0;
-   int i2 = ip < iLen ? in[ip++] & 0xff : 0;
-   int o0 = i0 >>> 2;
-   int o1 = ((i0 &   3) << 4) | (i1 >>> 4);
-   int o2 = ((i1 & 0xf) << 2) | (i2 >>> 6);
-   int o3 = i2 & 0x3F;
-   out[op++] = map1[o0];
-   out[op++] = map1[o1];
-   out[op] = op < oDataLen ? map1[o2] : '='; op++;
-   out[op] = op < oDataLen ? map1[o3] : '='; op++; }
+char[] out = new char[((iLen+2)/3)*4];
+encode(in,0,iLen,out,0);
 return out; }
 
+/**
+* Encodes a part of a byte array into Base64 format, writing the characters into a
+* caller-supplied array.
+* No blanks or line breaks are inserted.
+* To encode data in several chunks, all chunks but the last must have a length that is
+* a multiple of 3, so that no padding is inserted.
+* @param in   an array containing the data bytes to be encoded.
+* @param iOff offset of the first byte in <code>in</code> to process.
+* @param iLen number of bytes to process in <code>in</code>.
+* @param out  the array receiving the Base64 characters. Must have room for ((iLen+2)/3)*4 characters.
+* @param oOff offset in <code>out</code> where the first character is stored.
+* @return     The number of characters written to <code>out</code>.
+*/
+public static int encode (byte[] in, int iOff, int iLen, char[] out, int oOff) {
+int ip = iOff;
+int iEnd = iOff + iLen;
+int op = oOff;
+while (iEnd - ip >= 3) {
+   int i0 = in[ip++] & 0xff;
+   int i1 = in[ip++] & 0xff;
+   int i2 = in[ip++] & 0xff;
+   out[op++] = map1[i0 >>> 2];
+   out[op++] = map1[((i0 &   3) << 4) | (i1 >>> 4)];
+   out[op++] = map1[((i1 & 0xf) << 2) | (i2 >>> 6)];
+   out[op++] = map1[i2 & 0x3F]; }
+if (ip < iEnd) {
+   int i0 = in[ip++] & 0xff;
+   int i1 = ip < iEnd ? in[ip++] & 0xff : -1;
+   out[op++] = map1[i0 >>> 2];
+   if (i1 < 0) {
+      out[op++] = map1[(i0 & 3) << 4];
+      out[op++] = '='; }
+   else {
+      out[op++] = map1[((i0 & 3) << 4) | (i1 >>> 4)];
+      out[op++] = map1[(i1 & 0xf) << 2]; }
+   out[op++] = '='; }
+return op - oOff; }
+
+/**
+* Encodes a part of a byte array into Base64 format, writing the characters as ASCII bytes
+* into a caller-supplied array.
+* No blanks or line breaks are inserted.
+* To encode data in several chunks, all chunks but the last must have a length that is
+* a multiple of 3, so that no padding is inserted.
+* @param in   an array containing the data bytes to be encoded.
+* @param iOff offset of the first byte in <code>in</code> to process.
+* @param iLen number of bytes to process in <code>in</code>.
+* @param out  the array receiving the Base64 characters. Must have room for ((iLen+2)/3)*4 bytes.
+* @param oOff offset in <code>out</code> where the first character is stored.
+* @return     The number of bytes written to <code>out</code>.
+*/
+public static int encode (byte[] in, int iOff, int iLen, byte[] out, int oOff) {
+int ip = iOff;
+int iEnd = iOff + iLen;
+int op = oOff;
+while (iEnd - ip >= 3) {
+   int i0 = in[ip++] & 0xff;
+   int i1 = in[ip++] & 0xff;
+   int i2 = in[ip++] & 0xff;
+   out[op++] = (byte)map1[i0 >>> 2];
+   out[op++] = (byte)map1[((i0 &   3) << 4) | (i1 >>> 4)];
+   out[op++] = (byte)map1[((i1 & 0xf) << 2) | (i2 >>> 6)];
+   out[op++] = (byte)map1[i2 & 0x3F]; }
+if (ip < iEnd) {
+   int i0 = in[ip++] & 0xff;
+   int i1 = ip < iEnd ? in[ip++] & 0xff : -1;
+   out[op++] = (byte)map1[i0 >>> 2];
+   if (i1 < 0) {
+      out[op++] = (byte)map1[(i0 & 3) << 4];
+      out[op++] = '='; }
+   else {
+      out[op++] = (byte)map1[((i0 & 3) << 4) | (i1 >>> 4)];
+      out[op++] = (byte)map1[(i1 & 0xf) << 2]; }
+   out[op++] = '='; }
+return op - oOff; }
+
+/**
+* Encodes a part of a byte array into Base64 format and writes it to a Writer.
+* No blanks or line breaks are inserted.
+* The data is encoded in chunks through a small working buffer, independent of the
+* size of the input.
+* @param in   an array containing the data bytes to be encoded.
+* @param iOff offset of the first byte in <code>in</code> to process.
+* @param iLen number of bytes to process in <code>in</code>.
+* @param out  the Writer receiving the Base64 characters.
+* @throws     IOException if writing to <code>out</code> fails.
+*/
+public static void encode (byte[] in, int iOff, int iLen, Writer out) throws IOException {
+char[] buf = new char[CHUNK_SIZE/3*4];
+int iEnd = iOff + iLen;
+for (int ip = iOff; ip < iEnd; ip += CHUNK_SIZE) {
+   int n = encode(in, ip, Math.min(CHUNK_SIZE, iEnd-ip), buf, 0);
+   out.write(buf, 0, n); }}
+
+/**
+* Encodes a part of a byte array into Base64 format and writes it as ASCII bytes to an OutputStream.
+* No blanks or line breaks are inserted.
+* The data is encoded in chunks through a small working buffer, independent of the
+* size of the input.
+* @param in   an array containing the data bytes to be encoded.
+* @param iOff offset of the first byte in <code>in</code> to process.
+* @param iLen number of bytes to process in <code>in</code>.
+* @param out  the OutputStream receiving the Base64 characters.
+* @throws     IOException if writing to <code>out</code> fails.
+*/
+public static void encode (byte[] in, int iOff, int iLen, OutputStream out) throws IOException {
+byte[] buf = new byte[CHUNK_SIZE/3*4];
+int iEnd = iOff + iLen;
+for (int ip = iOff; ip < iEnd; ip += CHUNK_SIZE) {
+   int n = encode(in, ip, Math.min(CHUNK_SIZE, iEnd-ip), buf, 0);
+   out.write(buf, 0, n); }}
+
+//Number of input bytes encoded at once by the streaming methods. Must be a multiple of 3.
+private static final int CHUNK_SIZE = 3*1024;
+
 /**
 * Decodes a string from Base64 format.
 * @param s  a Base64 String to be decoded.
@@ -0,0 +1,330 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.opendma.api.OdmaId;
+import org.opendma.api.OdmaQName;
+import org.opendma.api.OdmaType;
+
+/**
+ * Reads a document written by {@link BinaryExportSerializer} object by object.
+ *
+ * <p>Values are returned as <code>String</code>, <code>Integer</code>,
+ * <code>Short</code>, <code>Long</code>, <code>Float</code>, <code>Double</code>,
+ * <code>Boolean</code>, <code>Date</code> and <code>byte[]</code>. The values of reference
+ * and id properties are returned as {@link OdmaId}, those of content properties as the
+ * <code>String</code> name of the data file, relative to the content directory.</p>
+ *
+ * <p>Compressed documents must be decompressed by the given stream. In part mode, every
+ * part file is read with a reader of its own.</p>
+ */
+public class BinaryExportReader implements Closeable
+{
+
+    private static final OdmaType[] TYPES_BY_ID = new OdmaType[128];
+
+    static
+    {
+        for(OdmaType type : OdmaType.values())
+        {
+            if(type.getNumericId() < TYPES_BY_ID.length)
+            {
+                TYPES_BY_ID[type.getNumericId()] = type;
+            }
+        }
+    }
+
+    protected final DataInputStream in;
+
+    protected final String repositoryObjectId;
+
+    protected final ArrayList<String> strings = new ArrayList<String>();
+
+    protected final ArrayList<OdmaQName> qnames = new ArrayList<OdmaQName>();
+
+    protected byte[] stringBuffer = new byte[256];
+
+    protected boolean finished = false;
+
+    /**
+     * Create a new BinaryExportReader and read the start of the document.
+     *
+     * @param in the stream to read the document from
+     *
+     * @throws IOException if the stream does not contain a binary export document or reading fails
+     */
+    public BinaryExportReader(InputStream in) throws IOException
+    {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        byte[] magic = new byte[BinaryExportSerializer.MAGIC.length];
+        this.in.readFully(magic);
+        if(!Arrays.equals(magic, BinaryExportSerializer.MAGIC))
+        {
+            throw new IOException("Not a binary OpenDMA export document.");
+        }
+        int version = this.in.readUnsignedByte();
+        if(version != BinaryExportSerializer.VERSION)
+        {
+            throw new IOException("Unsupported version "+version+" of the binary OpenDMA export format.");
+        }
+        repositoryObjectId = readPlainString();
+    }
+
+    public String getRepositoryObjectId()
+    {
+        return repositoryObjectId;
+    }
+
+    /**
+     * Read the next object of the document.
+     *
+     * @return the next object or <code>null</code> at the end of the document
+     *
+     * @throws IOException if the document is corrupt or reading fails
+     */
+    public ExportedObject readObject() throws IOException
+    {
+        if(finished)
+        {
+            return null;
+        }
+        int tag = in.readUnsignedByte();
+        if(tag == BinaryExportSerializer.TAG_END)
+        {
+            finished = true;
+            return null;
+        }
+        expectTag(tag, BinaryExportSerializer.TAG_OBJECT);
+        ExportedObject obj = new ExportedObject(readQName());
+        while((tag = in.readUnsignedByte()) != BinaryExportSerializer.TAG_END)
+        {
+            expectTag(tag, BinaryExportSerializer.TAG_PROPERTY);
+            OdmaQName name = readQName();
+            int typeId = (int)readVarLong();
+            OdmaType type = typeId >= 0 && typeId < TYPES_BY_ID.length ? TYPES_BY_ID[typeId] : null;
+            if(type == null)
+            {
+                throw new IOException("Unknown data type "+typeId+" of property "+name+".");
+            }
+            ExportedProperty prop = new ExportedProperty(name, type, in.readUnsignedByte() != 0);
+            while((tag = in.readUnsignedByte()) != BinaryExportSerializer.TAG_END)
+            {
+                expectTag(tag, BinaryExportSerializer.TAG_VALUE);
+                prop.values.add(readValue(type));
+            }
+            obj.properties.add(prop);
+        }
+        return obj;
+    }
+
+    public void close() throws IOException
+    {
+        in.close();
+    }
+
+    protected Object readValue(OdmaType type) throws IOException
+    {
+        switch(type)
+        {
+        case STRING:
+            return readDictionaryString();
+        case INTEGER:
+            return Integer.valueOf((int)readSignedVarLong());
+        case SHORT:
+            return Short.valueOf((short)readSignedVarLong());
+        case LONG:
+            return Long.valueOf(readSignedVarLong());
+        case FLOAT:
+            return Float.valueOf(in.readFloat());
+        case DOUBLE:
+            return Double.valueOf(in.readDouble());
+        case BOOLEAN:
+            return Boolean.valueOf(in.readUnsignedByte() != 0);
+        case DATETIME:
+            return new Date(readSignedVarLong());
+        case BINARY:
+            byte[] data = new byte[readLength()];
+            in.readFully(data);
+            return data;
+        case REFERENCE:
+        case ID:
+            return new OdmaId(readPlainString());
+        case CONTENT:
+            return readPlainString();
+        default:
+            throw new IOException("Unsupported data type "+type+".");
+        }
+    }
+
+    protected OdmaQName readQName() throws IOException
+    {
+        long n = readVarLong();
+        if(n == 0)
+        {
+            OdmaQName qname = new OdmaQName(readDictionaryString(), readDictionaryString());
+            qnames.add(qname);
+            return qname;
+        }
+        if(n > qnames.size())
+        {
+            throw new IOException("Undefined qualified name "+(n - 1)+".");
+        }
+        return qnames.get((int)(n - 1));
+    }
+
+    protected String readDictionaryString() throws IOException
+    {
+        long n = readVarLong();
+        if(n == 0)
+        {
+            return readPlainString();
+        }
+        if(n == 1)
+        {
+            String s = readPlainString();
+            strings.add(s);
+            return s;
+        }
+        if(n - 2 >= strings.size())
+        {
+            throw new IOException("Undefined dictionary string "+(n - 2)+".");
+        }
+        return strings.get((int)(n - 2));
+    }
+
+    protected String readPlainString() throws IOException
+    {
+        int length = readLength();
+        if(stringBuffer.length < length)
+        {
+            stringBuffer = new byte[Math.max(length, stringBuffer.length * 2)];
+        }
+        in.readFully(stringBuffer, 0, length);
+        return new String(stringBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    protected int readLength() throws IOException
+    {
+        long length = readVarLong();
+        if(length < 0 || length > Integer.MAX_VALUE)
+        {
+            throw new IOException("Invalid length "+length+".");
+        }
+        return (int)length;
+    }
+
+    protected long readVarLong() throws IOException
+    {
+        long result = 0;
+        for(int shift = 0; shift < 64; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            result |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+            {
+                return result;
+            }
+        }
+        throw new IOException("Malformed variable length integer.");
+    }
+
+    protected long readSignedVarLong() throws IOException
+    {
+        long n = readVarLong();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void expectTag(int tag, int expected) throws IOException
+    {
+        if(tag != expected)
+        {
+            throw new IOException("Unexpected tag "+tag+", expected "+expected+".");
+        }
+    }
+
+    /**
+     * An object read from the document.
+     */
+    public static class ExportedObject
+    {
+
+        protected final OdmaQName classQName;
+
+        protected final List<ExportedProperty> properties = new ArrayList<ExportedProperty>();
+
+        protected ExportedObject(OdmaQName classQName)
+        {
+            this.classQName = classQName;
+        }
+
+        public OdmaQName getClassQName()
+        {
+            return classQName;
+        }
+
+        /**
+         * @return the properties of the object in the order of the document
+         */
+        public List<ExportedProperty> getProperties()
+        {
+            return properties;
+        }
+
+    }
+
+    /**
+     * A property of an {@link ExportedObject} with all its values.
+     */
+    public static class ExportedProperty
+    {
+
+        protected final OdmaQName name;
+
+        protected final OdmaType type;
+
+        protected final boolean multiValue;
+
+        protected final List<Object> values = new ArrayList<Object>();
+
+        protected ExportedProperty(OdmaQName name, OdmaType type, boolean multiValue)
+        {
+            this.name = name;
+            this.type = type;
+            this.multiValue = multiValue;
+        }
+
+        public OdmaQName getName()
+        {
+            return name;
+        }
+
+        public OdmaType getType()
+        {
+            return type;
+        }
+
+        public boolean isMultiValue()
+        {
+            return multiValue;
+        }
+
+        /**
+         * @return the values of the property, empty for null single values
+         */
+        public List<Object> getValues()
+        {
+            return values;
+        }
+
+    }
+
+}
@@ -0,0 +1,339 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+import org.opendma.api.OdmaId;
+import org.opendma.api.OdmaQName;
+
+/**
+ * Writes a compact binary format that is read back with {@link BinaryExportReader}.
+ *
+ * <p>A document consists of the magic bytes <code>ODMB</code>, the format
+ * {@link #VERSION}, the repository object ID and a sequence of tagged records:</p>
+ *
+ * <pre>
+ * document := "ODMB" version string(repositoryObjectId) object* END
+ * object   := OBJECT qname(class) property* END
+ * property := PROPERTY qname(property) varint(type) byte(multiValue) value* END
+ * value    := VALUE encoded value
+ * </pre>
+ *
+ * <p>Numbers are written as variable length integers with 7 bits per byte, signed values
+ * zig-zag encoded first. A <code>string</code> is its UTF-8 length followed by the UTF-8
+ * bytes, with unpaired surrogate characters written as <code>'?'</code>. Values are encoded depending on the data type of the property:</p>
+ *
+ * <ul>
+ * <li>string: a dictionary string, see below</li>
+ * <li>integer, short, long: signed varint</li>
+ * <li>float, double: the IEEE 754 bits, 4 or 8 bytes, big-endian</li>
+ * <li>boolean: one byte, 0 or 1</li>
+ * <li>datetime: the milliseconds since the epoch as signed varint</li>
+ * <li>blob: the length as varint followed by the bytes</li>
+ * <li>reference, content, id: a string with the ID of the referenced object, the name of the data file or the ID</li>
+ * </ul>
+ *
+ * <p>Names and short string values that repeat are only written once per document. A
+ * dictionary string starts with a varint: 0 is followed by a string not added to the
+ * dictionary, 1 by a string added as next entry, and <i>n</i> &gt;= 2 refers to the entry
+ * <i>n</i>-2. A qualified name starts with a varint: 0 is followed by the namespace and
+ * name as dictionary strings, added as next qualified name, and <i>n</i> &gt;= 1 refers to
+ * the qualified name <i>n</i>-1. Both dictionaries start empty with every document.</p>
+ */
+public class BinaryExportSerializer implements ExportSerializer
+{
+
+    public static final byte[] MAGIC = new byte[] { 'O', 'D', 'M', 'B' };
+
+    public static final int VERSION = 1;
+
+    public static final int TAG_END = 0;
+
+    public static final int TAG_OBJECT = 1;
+
+    public static final int TAG_PROPERTY = 2;
+
+    public static final int TAG_VALUE = 3;
+
+    /** the maximum number of entries of the string dictionary */
+    public static final int MAX_DICTIONARY_SIZE = 65536;
+
+    /** strings longer than this are never added to the dictionary */
+    public static final int MAX_DICTIONARY_STRING_LENGTH = 64;
+
+    protected final XMLWriter out;
+
+    /** writes the records into the buffer of {@link #out} */
+    protected final BinaryWriter binaryOut;
+
+    protected final HashMap<String,Integer> strings = new HashMap<String,Integer>();
+
+    /** the entries of the string dictionary in the order of their definition */
+    protected final ArrayList<String> stringList = new ArrayList<String>();
+
+    protected final HashMap<OdmaQName,Integer> qnames = new HashMap<OdmaQName,Integer>();
+
+    /** the entries of the qualified name dictionary in the order of their definition */
+    protected final ArrayList<OdmaQName> qnameList = new ArrayList<OdmaQName>();
+
+    /**
+     * Create a new BinaryExportSerializer.
+     *
+     * @param out the writer of the export
+     */
+    public BinaryExportSerializer(XMLWriter out)
+    {
+        this.out = out;
+        this.binaryOut = new BinaryWriter(out);
+    }
+
+    public void startDocument(String repositoryObjectId) throws IOException
+    {
+        strings.clear();
+        stringList.clear();
+        qnames.clear();
+        qnameList.clear();
+        binaryOut.writeBytes(MAGIC, 0, MAGIC.length);
+        binaryOut.writeByte(VERSION);
+        writePlainString(repositoryObjectId);
+    }
+
+    public void endDocument() throws IOException
+    {
+        binaryOut.writeByte(TAG_END);
+    }
+
+    public void startObject(ClassSerializationPlan plan) throws IOException
+    {
+        binaryOut.writeByte(TAG_OBJECT);
+        writeQName(plan.getClassQName());
+    }
+
+    public void endObject() throws IOException
+    {
+        binaryOut.writeByte(TAG_END);
+    }
+
+    public void startProperty(ClassSerializationPlan plan, int i) throws IOException
+    {
+        binaryOut.writeByte(TAG_PROPERTY);
+        writeQName(plan.getPropertyName(i));
+        binaryOut.writeVarLong(plan.getPropertyType(i).getNumericId());
+        binaryOut.writeByte(plan.isMultiValue(i) ? 1 : 0);
+    }
+
+    public void endProperty() throws IOException
+    {
+        binaryOut.writeByte(TAG_END);
+    }
+
+    public void writeString(String value) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        writeDictionaryString(value);
+    }
+
+    public void writeInteger(int value) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        writeSignedVarLong(value);
+    }
+
+    public void writeShort(short value) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        writeSignedVarLong(value);
+    }
+
+    public void writeLong(long value) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        writeSignedVarLong(value);
+    }
+
+    public void writeFloat(float value) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        writeFixed(Float.floatToIntBits(value), 4);
+    }
+
+    public void writeDouble(double value) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        writeFixed(Double.doubleToLongBits(value), 8);
+    }
+
+    public void writeBoolean(boolean value) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        binaryOut.writeByte(value ? 1 : 0);
+    }
+
+    public void writeDateTime(Date value) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        writeSignedVarLong(value.getTime());
+    }
+
+    public void writeBinary(byte[] value) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        binaryOut.writeVarLong(value.length);
+        binaryOut.writeBytes(value, 0, value.length);
+    }
+
+    public void writeReference(String referencedObjectId) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        writePlainString(referencedObjectId);
+    }
+
+    public void writeContent(String fileName) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        writePlainString(fileName);
+    }
+
+    public void writeId(OdmaId value) throws IOException
+    {
+        binaryOut.writeByte(TAG_VALUE);
+        writePlainString(value.toString());
+    }
+
+    public void writeState(DataOutputStream dos) throws IOException
+    {
+        dos.writeInt(stringList.size());
+        for(int i = 0; i < stringList.size(); i++)
+        {
+            writeStateString(dos, stringList.get(i));
+        }
+        dos.writeInt(qnameList.size());
+        for(int i = 0; i < qnameList.size(); i++)
+        {
+            writeStateString(dos, qnameList.get(i).getNamespace());
+            writeStateString(dos, qnameList.get(i).getName());
+        }
+    }
+
+    public void readState(DataInputStream dis) throws IOException
+    {
+        strings.clear();
+        stringList.clear();
+        qnames.clear();
+        qnameList.clear();
+        int stringCount = dis.readInt();
+        for(int i = 0; i < stringCount; i++)
+        {
+            String s = readStateString(dis);
+            strings.put(s, Integer.valueOf(i));
+            stringList.add(s);
+        }
+        int qnameCount = dis.readInt();
+        for(int i = 0; i < qnameCount; i++)
+        {
+            String namespace = readStateString(dis);
+            OdmaQName qname = new OdmaQName(namespace, readStateString(dis));
+            qnames.put(qname, Integer.valueOf(i));
+            qnameList.add(qname);
+        }
+    }
+
+    /**
+     * Write a string of the state as its UTF-8 length followed by the UTF-8 bytes. Unlike
+     * <code>writeUTF</code>, this is not limited to 64 KB.
+     */
+    protected static void writeStateString(DataOutputStream dos, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    protected static String readStateString(DataInputStream dis) throws IOException
+    {
+        byte[] bytes = new byte[dis.readInt()];
+        dis.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public long getPosition()
+    {
+        return out.getPosition();
+    }
+
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    public void close() throws IOException
+    {
+        out.close();
+    }
+
+    protected void writeQName(OdmaQName qname) throws IOException
+    {
+        Integer index = qnames.get(qname);
+        if(index != null)
+        {
+            binaryOut.writeVarLong(index.intValue() + 1);
+            return;
+        }
+        binaryOut.writeVarLong(0);
+        writeDictionaryString(qname.getNamespace());
+        writeDictionaryString(qname.getName());
+        qnames.put(qname, Integer.valueOf(qnameList.size()));
+        qnameList.add(qname);
+    }
+
+    /**
+     * Write the given string as reference to the dictionary. Strings not yet contained are
+     * written in full and added, unless they are too long or the dictionary is full.
+     */
+    protected void writeDictionaryString(String s) throws IOException
+    {
+        Integer index = strings.get(s);
+        if(index != null)
+        {
+            binaryOut.writeVarLong(index.intValue() + 2);
+            return;
+        }
+        if(s.length() <= MAX_DICTIONARY_STRING_LENGTH && stringList.size() < MAX_DICTIONARY_SIZE)
+        {
+            binaryOut.writeVarLong(1);
+            strings.put(s, Integer.valueOf(stringList.size()));
+            stringList.add(s);
+        }
+        else
+        {
+            binaryOut.writeVarLong(0);
+        }
+        writePlainString(s);
+    }
+
+    protected void writePlainString(String s) throws IOException
+    {
+        binaryOut.writeVarLong(BinaryWriter.getEncodedLength(s));
+        out.write(s);
+    }
+
+    protected void writeSignedVarLong(long value) throws IOException
+    {
+        // zig-zag encoding maps small negative numbers to small positive numbers
+        binaryOut.writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    protected void writeFixed(long bits, int length) throws IOException
+    {
+        for(int shift = (length - 1) * 8; shift >= 0; shift -= 8)
+        {
+            binaryOut.writeByte((int)(bits >>> shift));
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.IOException;
+
+/**
+ * Writes raw bytes and variable length integers for binary formats.
+ *
+ * <p>The bytes go directly into the buffer of an {@link XMLWriter}, so binary records and
+ * strings encoded by {@link XMLWriter#write(String)} can be mixed freely and the position
+ * of the writer covers both. Like the writer, instances must only be used by a single
+ * thread.</p>
+ */
+public class BinaryWriter
+{
+
+    protected final XMLWriter out;
+
+    /**
+     * Create a new BinaryWriter.
+     *
+     * @param out the writer whose buffer receives the bytes
+     */
+    public BinaryWriter(XMLWriter out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * Write a single raw byte.
+     *
+     * @param b the byte to write in the lower 8 bits
+     *
+     * @throws IOException if writing to the underlying stream fails
+     */
+    public void writeByte(int b) throws IOException
+    {
+        if(out.buffer.length - out.count < 2)
+        {
+            out.flushBuffer();
+        }
+        out.flushPendingSurrogate();
+        out.buffer[out.count++] = (byte)b;
+    }
+
+    /**
+     * Write raw bytes.
+     *
+     * @param data the array containing the bytes to write
+     * @param off the offset of the first byte to write
+     * @param len the number of bytes to write
+     *
+     * @throws IOException if writing to the underlying stream fails
+     */
+    public void writeBytes(byte[] data, int off, int len) throws IOException
+    {
+        if(out.buffer.length - out.count < 1)
+        {
+            out.flushBuffer();
+        }
+        out.flushPendingSurrogate();
+        while(len > 0)
+        {
+            if(out.count == out.buffer.length)
+            {
+                out.flushBuffer();
+            }
+            int chunk = Math.min(len, out.buffer.length - out.count);
+            System.arraycopy(data, off, out.buffer, out.count, chunk);
+            out.count += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Write the given value as unsigned variable length integer: 7 bits per byte, least
+     * significant group first, with the high bit set on all bytes but the last.
+     *
+     * @param value the value to write, interpreted as unsigned
+     *
+     * @throws IOException if writing to the underlying stream fails
+     */
+    public void writeVarLong(long value) throws IOException
+    {
+        if(out.buffer.length - out.count < 11)
+        {
+            out.flushBuffer();
+        }
+        out.flushPendingSurrogate();
+        byte[] buffer = out.buffer;
+        int count = out.count;
+        while((value & ~0x7FL) != 0)
+        {
+            buffer[count++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[count++] = (byte)value;
+        out.count = count;
+    }
+
+    /**
+     * Returns the number of bytes {@link XMLWriter#write(String)} produces for the given
+     * string, including the <code>'?'</code> of unpaired surrogates.
+     *
+     * @param s the string to measure
+     *
+     * @return the length of the UTF-8 encoding of the string
+     */
+    public static int getEncodedLength(String s)
+    {
+        int length = s.length();
+        int result = length;
+        for(int i = 0; i < length; i++)
+        {
+            char c = s.charAt(i);
+            if(c >= 0x80)
+            {
+                if(c < 0x800)
+                {
+                    result += 1;
+                }
+                else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1)))
+                {
+                    // 4 bytes for both characters
+                    result += 2;
+                    i++;
+                }
+                else if(!Character.isSurrogate(c))
+                {
+                    result += 2;
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.xaldon.opendma.xmlexport;
+
+import org.opendma.api.OdmaPropertyInfo;
+import org.opendma.api.OdmaQName;
+import org.opendma.api.OdmaType;
+
+/**
+ * Everything needed to serialize instances of one class, determined once per class.
+ *
+ * <p>Holds the qualified name of the class and, in the order of the class, the exported
+ * properties with their qualified names, data types and cardinality. This saves the walk
+ * over the property infos of the class for every object, which might even require server
+ * round-trips with adaptors loading metadata lazily. The plan does not depend on the
+ * format; serializers derive their own per class data from it.</p>
+ *
+ * <p>Instances are immutable and can be shared between threads.</p>
+ */
+public class ClassSerializationPlan
+{
+
+    protected final OdmaQName classQName;
+
+    protected final OdmaPropertyInfo[] properties;
+
+    protected final OdmaQName[] propertyNames;
+
+    protected final OdmaType[] propertyTypes;
+
+    protected final boolean[] multiValue;
+
+    /**
+     * Create a new ClassSerializationPlan. All arrays are indexed by the position of the
+     * property in the plan.
+     *
+     * @param classQName the qualified name of the class
+     * @param properties the property infos of the exported properties
+     * @param propertyNames the qualified names of the exported properties
+     * @param propertyTypes the data types of the properties or <code>null</code> for unknown types
+     * @param multiValue the cardinality of the properties
+     */
+    public ClassSerializationPlan(OdmaQName classQName, OdmaPropertyInfo[] properties, OdmaQName[] propertyNames, OdmaType[] propertyTypes, boolean[] multiValue)
+    {
+        this.classQName = classQName;
+        this.properties = properties;
+        this.propertyNames = propertyNames;
+        this.propertyTypes = propertyTypes;
+        this.multiValue = multiValue;
+    }
+
+    public OdmaQName getClassQName()
+    {
+        return classQName;
+    }
+
+    /**
+     * @return the number of exported properties
+     */
+    public int size()
+    {
+        return properties.length;
+    }
+
+    public OdmaPropertyInfo getProperty(int i)
+    {
+        return properties[i];
+    }
+
+    public OdmaQName getPropertyName(int i)
+    {
+        return propertyNames[i];
+    }
+
+    /**
+     * @return the qualified names of all exported properties. The array must not be modified.
+     */
+    public OdmaQName[] getPropertyNames()
+    {
+        return propertyNames;
+    }
+
+    /**
+     * @return the data type of the property or <code>null</code> if it is not supported
+     */
+    public OdmaType getPropertyType(int i)
+    {
+        return propertyTypes[i];
+    }
+
+    public boolean isMultiValue(int i)
+    {
+        return multiValue[i];
+    }
+
+}
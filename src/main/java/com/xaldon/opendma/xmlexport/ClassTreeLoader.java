@@ -0,0 +1,202 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opendma.api.OdmaClass;
+import org.opendma.api.OdmaPropertyInfo;
+
+/**
+ * Loads the declared properties and sub classes of classes ahead of the class tree export.
+ *
+ * <p>Each call of {@link #load(OdmaClass)} starts loading one class on the loader threads,
+ * so all sub classes of a class are loaded concurrently, while the export continues with
+ * the classes loaded before. The returned {@link Node}s are written by the caller in any
+ * order it likes, usually in the pre-order of the tree, which keeps the XML deterministic.</p>
+ *
+ * <p>With zero threads, a class is loaded by the calling thread in {@link #load(OdmaClass)}.</p>
+ *
+ * <p>The loader itself must only be used by a single thread. The adaptor session must
+ * support concurrent calls if loader threads are used.</p>
+ */
+public class ClassTreeLoader
+{
+
+    /** null if loading in the calling thread */
+    protected final ExecutorService executor;
+
+    /**
+     * Create a new ClassTreeLoader.
+     *
+     * @param threads the number of classes loaded concurrently, 0 to load in the calling thread
+     * @param virtualThreads use virtual threads instead of a pool of platform threads if the JVM supports them
+     */
+    public ClassTreeLoader(int threads, boolean virtualThreads)
+    {
+        if(threads > 0)
+        {
+            ExecutorService virtualExecutor = virtualThreads ? ObjectFetchPipeline.createVirtualThreadExecutor() : null;
+            executor = virtualExecutor != null ? virtualExecutor : Executors.newFixedThreadPool(threads, new LoaderThreadFactory());
+        }
+        else
+        {
+            executor = null;
+        }
+    }
+
+    /**
+     * Start loading the given class.
+     *
+     * @param cls the class to load
+     *
+     * @return the node receiving the declared properties and sub classes of the class
+     */
+    public Node load(OdmaClass cls)
+    {
+        Node node = new Node(cls);
+        if(executor != null)
+        {
+            node.loaded = executor.submit(node);
+        }
+        else
+        {
+            try
+            {
+                node.call();
+            }
+            catch(Exception e)
+            {
+                node.error = e;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Stop the loader threads. Classes still loading are abandoned.
+     */
+    public void close()
+    {
+        if(executor != null)
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A class of the class tree with its declared properties and sub classes.
+     */
+    public static class Node implements Callable<Void>
+    {
+
+        protected final OdmaClass odmaClass;
+
+        protected volatile List<OdmaPropertyInfo> declaredProperties;
+
+        protected volatile List<OdmaClass> subClasses;
+
+        protected Future<Void> loaded;
+
+        protected Exception error;
+
+        protected Node(OdmaClass odmaClass)
+        {
+            this.odmaClass = odmaClass;
+        }
+
+        public Void call() throws Exception
+        {
+            List<OdmaPropertyInfo> properties = new ArrayList<OdmaPropertyInfo>();
+            if(!odmaClass.getNamespace().equals("opendma"))
+            {
+                for(OdmaPropertyInfo pi : odmaClass.getDeclaredProperties())
+                {
+                    // the ID decides whether the property info has been exported already
+                    pi.getId();
+                    properties.add(pi);
+                }
+            }
+            List<OdmaClass> classes = new ArrayList<OdmaClass>();
+            for(OdmaClass subClass : odmaClass.getSubClasses())
+            {
+                classes.add(subClass);
+            }
+            declaredProperties = properties;
+            subClasses = classes;
+            return null;
+        }
+
+        /**
+         * Wait until this class has been loaded.
+         *
+         * @throws Exception the error that occurred while loading the class
+         */
+        public void await() throws Exception
+        {
+            if(loaded != null)
+            {
+                try
+                {
+                    loaded.get();
+                }
+                catch(ExecutionException ee)
+                {
+                    if(ee.getCause() instanceof Exception)
+                    {
+                        throw (Exception)ee.getCause();
+                    }
+                    throw ee;
+                }
+            }
+            else if(error != null)
+            {
+                throw error;
+            }
+        }
+
+        public OdmaClass getOdmaClass()
+        {
+            return odmaClass;
+        }
+
+        /**
+         * @return the declared properties of the class, empty for classes of the <code>opendma</code>
+         * namespace. Only available after {@link #await()}
+         */
+        public List<OdmaPropertyInfo> getDeclaredProperties()
+        {
+            return declaredProperties;
+        }
+
+        /**
+         * @return the sub classes of the class. Only available after {@link #await()}
+         */
+        public List<OdmaClass> getSubClasses()
+        {
+            return subClasses;
+        }
+
+    }
+
+    private static class LoaderThreadFactory implements ThreadFactory
+    {
+
+        private final AtomicInteger counter = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "XMLExporter-classes-"+counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output stream writing gzip compressed data to a file or another stream on a background thread.
+ *
+ * <p>Written data is copied and handed to a single compression thread, so the writer only
+ * blocks if the compressor falls behind by more than a few chunks. Errors of the compression
+ * thread are reported by the next call on this stream.</p>
+ *
+ * <p>{@link #sync()} completes the current gzip member. The data written afterwards goes
+ * into a new member of the same file. A file cut back to the length returned by
+ * {@link #sync()} is a valid gzip file, which allows to resume writing it.</p>
+ *
+ * <p>This stream must only be used by a single thread.</p>
+ */
+public class CompressingOutputStream extends OutputStream
+{
+
+    /** Maximum number of chunks waiting to be compressed */
+    private static final int MAX_PENDING_CHUNKS = 4;
+
+    /** the stream receiving the compressed data */
+    protected final OutputStream target;
+
+    /** the file receiving the compressed data. null if writing to another stream */
+    protected final FileOutputStream file;
+
+    protected final ExecutorService executor = Executors.newSingleThreadExecutor(new CompressThreadFactory());
+
+    protected final Semaphore pendingChunks = new Semaphore(MAX_PENDING_CHUNKS);
+
+    protected final ConcurrentLinkedQueue<byte[]> freeChunks = new ConcurrentLinkedQueue<byte[]>();
+
+    /** only used by the compression thread */
+    protected GZIPOutputStream gzip = null;
+
+    protected volatile Throwable error = null;
+
+    /**
+     * Create a new CompressingOutputStream.
+     *
+     * @param file the file to write the compressed data to
+     * @param append continue an existing gzip file instead of replacing it
+     *
+     * @throws IOException if the file can not be opened
+     */
+    public CompressingOutputStream(File file, boolean append) throws IOException
+    {
+        this.file = new FileOutputStream(file, append);
+        this.target = this.file;
+    }
+
+    /**
+     * Create a new CompressingOutputStream writing to another stream. The stream is only
+     * used by the compression thread and closed with this stream.
+     *
+     * @param target the stream to write the compressed data to
+     */
+    public CompressingOutputStream(OutputStream target)
+    {
+        this.file = null;
+        this.target = target;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        checkError();
+        if(len == 0)
+        {
+            return;
+        }
+        try
+        {
+            pendingChunks.acquire();
+        }
+        catch(InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        byte[] chunk = freeChunks.poll();
+        if(chunk == null || chunk.length < len)
+        {
+            chunk = new byte[len];
+        }
+        System.arraycopy(b, off, chunk, 0, len);
+        final byte[] data = chunk;
+        final int length = len;
+        executor.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    if(error == null)
+                    {
+                        if(gzip == null)
+                        {
+                            gzip = new GZIPOutputStream(target, 64 * 1024);
+                        }
+                        gzip.write(data, 0, length);
+                    }
+                }
+                catch(Throwable t)
+                {
+                    error = t;
+                }
+                finally
+                {
+                    freeChunks.offer(data);
+                    pendingChunks.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Does not complete the current gzip member, as this would degrade the compression.
+     * Use {@link #sync()} for this purpose.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        checkError();
+    }
+
+    /**
+     * Wait until all data written so far has been compressed and complete the current gzip member.
+     *
+     * @return the length of the compressed file or -1 if writing to another stream
+     *
+     * @throws IOException if compressing or writing fails
+     */
+    public long sync() throws IOException
+    {
+        Future<Long> result = executor.submit(new Callable<Long>()
+        {
+            public Long call() throws IOException
+            {
+                if(error == null && gzip != null)
+                {
+                    gzip.finish();
+                    gzip = null;
+                }
+                target.flush();
+                return Long.valueOf(file != null ? file.getChannel().position() : -1);
+            }
+        });
+        try
+        {
+            long length = result.get().longValue();
+            checkError();
+            return length;
+        }
+        catch(InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch(ExecutionException ee)
+        {
+            if(ee.getCause() instanceof IOException)
+            {
+                throw (IOException)ee.getCause();
+            }
+            throw new IOException("Error compressing output", ee.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            sync();
+        }
+        finally
+        {
+            executor.shutdown();
+            target.close();
+        }
+    }
+
+    protected void checkError() throws IOException
+    {
+        Throwable t = error;
+        if(t instanceof IOException)
+        {
+            throw (IOException)t;
+        }
+        if(t != null)
+        {
+            throw new IOException("Error compressing output", t);
+        }
+    }
+
+    private static class CompressThreadFactory implements ThreadFactory
+    {
+
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "XMLExporter-compress");
+            t.setDaemon(true);
+            return t;
+        }
+
+    }
+
+}
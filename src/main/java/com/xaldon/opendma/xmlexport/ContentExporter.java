@@ -0,0 +1,661 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.opendma.api.OdmaContent;
+
+/**
+ * Copies the content of <code>CONTENT</code> property values into data files.
+ *
+ * <p>The name of the data file is determined immediately, so it can be written to the
+ * XML export right away. With copy threads configured, the bytes are transferred on a
+ * bounded pool of worker threads while the export continues. If all workers are busy
+ * and the backlog is full, the exporting thread waits for a free worker.</p>
+ *
+ * <p>Data files can be spread over numbered sub directories of the content directory,
+ * so that no single directory has to hold millions of files.</p>
+ *
+ * <p>In deduplication mode, the SHA-256 digest of the content is calculated while it is
+ * copied, and each distinct content is stored only once in a data file named after its
+ * digest. As the file name is only known after all bytes have been read, content is always
+ * copied by the calling thread in this mode. The sub directories are nested and named after
+ * the leading hex digits of the digest, see {@link #getDigestDirectory(String)}.</p>
+ *
+ * <p>With compression, data files are gzip compressed and get the additional suffix
+ * <code>.gz</code>. The digest is always calculated over the uncompressed content.</p>
+ *
+ * <p>With an {@link ExportSink}, the data files are written to the streams of the sink
+ * instead of the file system. Deduplication is not possible in this mode.</p>
+ */
+public class ContentExporter
+{
+
+    /** Size of the copy buffer used by each thread */
+    public static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    /** Number of copies waiting for a free copy thread, per copy thread */
+    public static final int COPY_BACKLOG_PER_THREAD = 4;
+
+    /** The smallest number of files per directory in deduplication mode, one hex digit per level */
+    public static final int MIN_DIGEST_FILES_PER_DIRECTORY = 16;
+
+    private static final ThreadLocal<byte[]> COPY_BUFFER = new ThreadLocal<byte[]>() {
+        @Override protected byte[] initialValue() {
+            return new byte[COPY_BUFFER_SIZE];
+        }
+    };
+
+    protected final String contentDirectory;
+
+    protected final int filesPerDirectory;
+
+    protected final boolean deduplicate;
+
+    /** hex digits of the digest per directory level in deduplication mode */
+    protected final int digestLevelWidth;
+
+    /** number of nested directory levels in deduplication mode */
+    protected final int digestLevels;
+
+    protected final boolean compress;
+
+    protected final String suffix;
+
+    protected final ExportMetrics metrics;
+
+    protected final AdaptiveLimiter limiter;
+
+    /** receives the data files instead of the file system. <code>null</code> if not used */
+    protected final ExportSink sink;
+
+    /** receives the errors of the copy threads. <code>null</code> to print them to <code>System.out</code> */
+    protected final ExportListener listener;
+
+    protected final ThreadPoolExecutor executor;
+
+    /** limits the copies running or waiting for a copy thread. <code>null</code> without copy threads */
+    protected final Semaphore copySlots;
+
+    protected final HashSet<String> createdDirectories = new HashSet<String>();
+
+    protected final AtomicInteger pendingCopies = new AtomicInteger(0);
+
+    protected final AtomicInteger failedCopies = new AtomicInteger(0);
+
+    /** names of the data files the copy threads failed to write, not yet taken */
+    protected final ConcurrentLinkedQueue<String> failedFiles = new ConcurrentLinkedQueue<String>();
+
+    protected final HashSet<String> knownDigests = new HashSet<String>();
+
+    protected int duplicateCount = 0;
+
+    protected long duplicateBytes = 0;
+
+    /**
+     * Create a new ContentExporter.
+     *
+     * @param contentDirectory the directory part of the data file names
+     * @param filesPerDirectory the maximum number of data files per sub directory. 0 puts all files directly into the content directory.
+     * @param threads the number of copy threads. 0 copies the content in the calling thread.
+     * @param deduplicate store each distinct content only once, named after its digest. Not possible with a sink.
+     * @param compress write gzip compressed data files
+     * @param metrics the metrics to record the copied bytes in or <code>null</code>
+     * @param limiter the limiter every content copy has to pass or <code>null</code>
+     * @param sink the sink receiving the data files or <code>null</code> to write them to the file system
+     * @param listener the listener receiving the errors of the copy threads or <code>null</code> to print them to <code>System.out</code>
+     *
+     * @throws IllegalArgumentException if deduplication is requested with a sink
+     */
+    public ContentExporter(String contentDirectory, int filesPerDirectory, int threads, boolean deduplicate, boolean compress, ExportMetrics metrics, AdaptiveLimiter limiter, ExportSink sink, ExportListener listener)
+    {
+        if(deduplicate && sink != null)
+        {
+            throw new IllegalArgumentException("Content deduplication is not possible with an ExportSink");
+        }
+        if(deduplicate && filesPerDirectory > 0 && filesPerDirectory < MIN_DIGEST_FILES_PER_DIRECTORY)
+        {
+            throw new IllegalArgumentException("Content deduplication needs at least "+MIN_DIGEST_FILES_PER_DIRECTORY+" files per directory");
+        }
+        this.metrics = metrics;
+        this.limiter = limiter;
+        this.sink = sink;
+        this.listener = listener;
+        this.contentDirectory = contentDirectory;
+        this.filesPerDirectory = filesPerDirectory;
+        this.deduplicate = deduplicate;
+        this.compress = compress;
+        this.suffix = compress ? ".dat.gz" : ".dat";
+        // each level has at most filesPerDirectory sub directories. Add levels until the leaf
+        // directories stay within filesPerDirectory files for the largest possible export
+        int width = 1;
+        while(width < 8 && (1L << (4 * (width + 1))) <= filesPerDirectory)
+        {
+            width++;
+        }
+        int levels = 0;
+        if(deduplicate && filesPerDirectory > 0)
+        {
+            double capacity = filesPerDirectory;
+            while(capacity < Integer.MAX_VALUE)
+            {
+                capacity *= 1L << (4 * width);
+                levels++;
+            }
+        }
+        this.digestLevelWidth = width;
+        this.digestLevels = levels;
+        if(threads > 0 && !deduplicate)
+        {
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new CopyThreadFactory());
+            copySlots = new Semaphore(threads * (1 + COPY_BACKLOG_PER_THREAD));
+        }
+        else
+        {
+            executor = null;
+            copySlots = null;
+        }
+    }
+
+    /**
+     * Export the given content into a new data file.
+     *
+     * <p>Without copy threads, the content is completely written when this method returns
+     * and any error is thrown. Otherwise the returned name is already in the document when
+     * the copy fails. Such errors are reported to the listener and, with a sink, to the sink.
+     * They are counted, see {@link #finish()}, and the names of the missing data files are
+     * kept, see {@link #takeFailedFiles()}.</p>
+     *
+     * @param content the content to export
+     * @param contentId the unique number of this data file
+     *
+     * @return the name of the data file
+     *
+     * @throws RuntimeException if the data file can not be created or written
+     * @throws IllegalStateException if the copy threads have been shut down
+     */
+    public String exportContent(OdmaContent content, int contentId)
+    {
+        if(deduplicate)
+        {
+            return exportDeduplicatedContent(content, contentId);
+        }
+        String directory = contentDirectory;
+        if(filesPerDirectory > 0)
+        {
+            directory = contentDirectory + "/" + Integer.toString(contentId / filesPerDirectory);
+        }
+        ensureDirectory(directory);
+        String filename = directory+"/content"+Integer.toString(contentId)+suffix;
+        if(executor == null)
+        {
+            try
+            {
+                copyContent(content, filename, null);
+            }
+            catch (Exception e)
+            {
+                if(sink != null)
+                {
+                    sink.contentFailed(filename, e);
+                }
+                throw new RuntimeException("Error exporting content into data file.",e);
+            }
+            return filename;
+        }
+        if(executor.isShutdown())
+        {
+            throw new IllegalStateException("The copy threads of the content exporter have been shut down");
+        }
+        // wait while all copy threads are busy and the backlog is full
+        try
+        {
+            copySlots.acquire();
+        }
+        catch(InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a copy thread.", ie);
+        }
+        pendingCopies.incrementAndGet();
+        try
+        {
+            executor.execute(new CopyTask(content, filename));
+        }
+        catch(RejectedExecutionException ree)
+        {
+            copyCompleted();
+            throw new IllegalStateException("The copy threads of the content exporter have been shut down", ree);
+        }
+        return filename;
+    }
+
+    /**
+     * Copies one content value on a copy thread.
+     */
+    protected class CopyTask implements Runnable
+    {
+
+        protected final OdmaContent content;
+
+        protected final String filename;
+
+        protected CopyTask(OdmaContent content, String filename)
+        {
+            this.content = content;
+            this.filename = filename;
+        }
+
+        public void run()
+        {
+            try
+            {
+                copyContent(content, filename, null);
+            }
+            catch(Throwable t)
+            {
+                copyFailed(filename, t);
+                reportError("----> Error exporting content into data file "+filename, t);
+            }
+            finally
+            {
+                copyCompleted();
+            }
+        }
+
+        /**
+         * Record this copy as failed without running it.
+         */
+        protected void abandon()
+        {
+            try
+            {
+                copyFailed(filename, new InterruptedIOException("The content exporter has been shut down before copying the content."));
+            }
+            finally
+            {
+                copyCompleted();
+            }
+        }
+
+    }
+
+    protected void copyFailed(String filename, Throwable t)
+    {
+        failedCopies.incrementAndGet();
+        failedFiles.add(filename);
+        if(sink != null)
+        {
+            sink.contentFailed(filename, t);
+        }
+        else
+        {
+            new File(filename).delete();
+        }
+    }
+
+    /**
+     * Free the slot of a copy that has been completed, failed or abandoned.
+     */
+    protected void copyCompleted()
+    {
+        copySlots.release();
+        synchronized(pendingCopies)
+        {
+            if(pendingCopies.decrementAndGet() == 0)
+            {
+                pendingCopies.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Report an error of a copy thread. The message and the error are kept together, also if
+     * several copies fail at the same time.
+     */
+    protected void reportError(String message, Throwable t)
+    {
+        if(listener == null)
+        {
+            synchronized(System.out)
+            {
+                System.out.println(message);
+                t.printStackTrace(System.out);
+            }
+            return;
+        }
+        synchronized(listener)
+        {
+            listener.message(message);
+            listener.error(t);
+        }
+    }
+
+    /**
+     * Copy the content into a temporary file while calculating its digest. Then either rename
+     * the temporary file to its final name or discard it if this content is already known.
+     */
+    protected String exportDeduplicatedContent(OdmaContent content, int contentId)
+    {
+        ensureDirectory(contentDirectory);
+        String tempFilename = contentDirectory+"/content"+Integer.toString(contentId)+".tmp";
+        String digest;
+        long size;
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            size = copyContent(content, tempFilename, md);
+            digest = toHex(md.digest());
+        }
+        catch (Exception e)
+        {
+            new File(tempFilename).delete();
+            throw new RuntimeException("Error exporting content into data file.",e);
+        }
+        String directory = getDigestDirectory(digest);
+        String filename = directory+"/"+digest+suffix;
+        File tempFile = new File(tempFilename);
+        if(knownDigests.contains(digest) || new File(filename).exists())
+        {
+            tempFile.delete();
+            duplicateCount++;
+            duplicateBytes += size;
+        }
+        else
+        {
+            ensureDirectory(directory);
+            if(!tempFile.renameTo(new File(filename)))
+            {
+                tempFile.delete();
+                throw new RuntimeException("Error renaming content data file "+tempFilename+" to "+filename);
+            }
+        }
+        knownDigests.add(digest);
+        return filename;
+    }
+
+    /**
+     * Returns the directory of the data file with the given digest in deduplication mode. With
+     * 1000 files per directory, this is e.g. <code>3f/a2/07</code> below the content directory.
+     *
+     * @param digest the hex digest of the content
+     *
+     * @return the directory of the data file
+     */
+    protected String getDigestDirectory(String digest)
+    {
+        StringBuilder directory = new StringBuilder(contentDirectory);
+        for(int i = 0; i < digestLevels; i++)
+        {
+            directory.append('/').append(digest, i * digestLevelWidth, (i + 1) * digestLevelWidth);
+        }
+        return directory.toString();
+    }
+
+    /**
+     * @return the number of content values that have not been written again in deduplication mode
+     */
+    public int getDuplicateCount()
+    {
+        return duplicateCount;
+    }
+
+    /**
+     * @return the number of bytes that have not been written again in deduplication mode
+     */
+    public long getDuplicateBytes()
+    {
+        return duplicateBytes;
+    }
+
+    /**
+     * Wait until all pending copies have been completed.
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public void awaitPending() throws InterruptedException
+    {
+        synchronized(pendingCopies)
+        {
+            while(pendingCopies.get() > 0)
+            {
+                pendingCopies.wait();
+            }
+        }
+    }
+
+    /**
+     * Wait for all pending copies and release the copy threads.
+     *
+     * @return the number of data files that could not be written by the copy threads
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public int finish() throws InterruptedException
+    {
+        try
+        {
+            awaitPending();
+        }
+        finally
+        {
+            shutdown();
+        }
+        return failedCopies.get();
+    }
+
+    /**
+     * Take the names of the data files that could not be written by the copy threads since
+     * the last call. Call {@link #awaitPending()} before to include all copies started so far.
+     *
+     * @return the names of the data files as returned by {@link #exportContent(OdmaContent, int)}
+     */
+    public List<String> takeFailedFiles()
+    {
+        ArrayList<String> result = new ArrayList<String>();
+        String filename;
+        while((filename = failedFiles.poll()) != null)
+        {
+            result.add(filename);
+        }
+        return result;
+    }
+
+    /**
+     * Release the copy threads without waiting for pending copies. Copies that have not been
+     * started yet are counted as failed.
+     */
+    public void shutdown()
+    {
+        if(executor != null)
+        {
+            for(Runnable task : executor.shutdownNow())
+            {
+                ((CopyTask)task).abandon();
+            }
+        }
+    }
+
+    protected void ensureDirectory(String directory)
+    {
+        if(sink != null || createdDirectories.contains(directory))
+        {
+            return;
+        }
+        File dataDir = new File(directory);
+        if(!dataDir.exists())
+        {
+            if(!dataDir.mkdirs() && !dataDir.isDirectory())
+            {
+                throw new RuntimeException("Error creating directory for content data files.");
+            }
+        }
+        createdDirectories.add(directory);
+    }
+
+    /**
+     * Copy the content into the given file.
+     *
+     * @param content the content to copy
+     * @param filename the file to copy the content into
+     * @param digest the digest to update with the copied bytes or <code>null</code>
+     *
+     * @return the number of bytes copied
+     *
+     * @throws IOException if reading or writing fails
+     */
+    protected long copyContent(OdmaContent content, String filename, MessageDigest digest) throws IOException
+    {
+        if(limiter == null)
+        {
+            return copyStream(content.getStream(), filename, digest);
+        }
+        try
+        {
+            limiter.acquire();
+        }
+        catch(InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to read the content.");
+        }
+        // the time to open the stream tells how busy the repository is, the copy time mostly the size of the content
+        long start = System.nanoTime();
+        long latency = -1;
+        boolean failed = true;
+        try
+        {
+            InputStream inContent = content.getStream();
+            latency = System.nanoTime() - start;
+            long total = copyStream(inContent, filename, digest);
+            failed = false;
+            return total;
+        }
+        finally
+        {
+            limiter.release(latency >= 0 ? latency : System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Copy the stream into the given file or, with a sink, into the stream of the sink
+     * for this file, and close it.
+     *
+     * @param inContent the stream of the content to copy
+     * @param filename the file to copy the content into
+     * @param digest the digest to update with the copied bytes or <code>null</code>
+     *
+     * @return the number of bytes copied
+     *
+     * @throws IOException if reading or writing fails
+     */
+    protected long copyStream(InputStream inContent, String filename, MessageDigest digest) throws IOException
+    {
+        long total = 0;
+        try
+        {
+            OutputStream fileOut = sink != null ? sink.openContent(filename) : new FileOutputStream(filename);
+            OutputStream fos = fileOut;
+            try
+            {
+                if(compress)
+                {
+                    fos = new GZIPOutputStream(fileOut, 64 * 1024);
+                }
+                if(inContent instanceof FileInputStream && fileOut instanceof FileOutputStream && digest == null && !compress)
+                {
+                    // let the OS transfer the bytes between the files
+                    FileChannel source = ((FileInputStream)inContent).getChannel();
+                    FileChannel target = ((FileOutputStream)fileOut).getChannel();
+                    long position = source.position();
+                    long size = source.size();
+                    while(position < size)
+                    {
+                        long transferred = source.transferTo(position, size - position, target);
+                        if(transferred <= 0)
+                        {
+                            break;
+                        }
+                        position += transferred;
+                        total += transferred;
+                    }
+                }
+                else
+                {
+                    byte[] buffer = COPY_BUFFER.get();
+                    int num = 0;
+                    while((num = inContent.read(buffer)) > 0)
+                    {
+                        fos.write(buffer,0,num);
+                        if(digest != null)
+                        {
+                            digest.update(buffer,0,num);
+                        }
+                        total += num;
+                    }
+                }
+            }
+            finally
+            {
+                fos.close();
+            }
+        }
+        finally
+        {
+            inContent.close();
+        }
+        if(metrics != null)
+        {
+            metrics.recordContentBytes(total);
+        }
+        return total;
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    protected static String toHex(byte[] bytes)
+    {
+        char[] hex = new char[bytes.length * 2];
+        for(int i = 0; i < bytes.length; i++)
+        {
+            hex[2*i] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+            hex[2*i+1] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    private static class CopyThreadFactory implements ThreadFactory
+    {
+
+        private final AtomicInteger counter = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "XMLExporter-content-"+counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+
+    }
+
+}
@@ -0,0 +1,299 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Memory efficient map from object IDs to their last modification time.
+ *
+ * <p>The manifest of an export is kept for the next export, so that objects that have
+ * not been modified in the meantime can be recognised. The IDs are kept in the fingerprint
+ * table of {@link IdSet}, with the modification time in a parallel array, so each object
+ * costs 24 bytes.</p>
+ *
+ * <p>The fingerprints can not be turned back into IDs. To find the objects deleted since
+ * the previous export, the manifest file lists the IDs. It is written entry by entry during
+ * the export with {@link #writeHeader(DataOutputStream)}, {@link #writeEntry(DataOutputStream, String, long)}
+ * and {@link #writeEnd(DataOutputStream)}, and read with {@link #readManifest(DataInputStream, int)}.
+ * The compact form of {@link #writeTo(DataOutputStream)} only keeps the fingerprints and is
+ * used by checkpoints.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+public class DeltaManifest extends IdSet
+{
+
+    /** Returned by {@link #get(String)} for IDs not contained in this manifest */
+    public static final long NO_STAMP = Long.MIN_VALUE;
+
+    /** the manifest file, listing IDs and modification times entry by entry */
+    private static final int FORMAT = 0x4f584d02;
+
+    /** the modification time of the fingerprint in the same slot of the table */
+    protected long[] stamps;
+
+    /**
+     * Create a new, empty DeltaManifest that can hold the given number of IDs without growing.
+     *
+     * @param expectedSize the number of IDs expected to be added to this manifest
+     */
+    public DeltaManifest(int expectedSize)
+    {
+        super(expectedSize);
+        stamps = new long[table.length / 2];
+    }
+
+    /**
+     * Returns the modification time recorded for the given ID.
+     *
+     * @param id the ID to look up
+     *
+     * @return the recorded modification time or {@link #NO_STAMP} if the ID is not contained in this manifest
+     */
+    public long get(String id)
+    {
+        long h1 = hash1(id);
+        long h2 = hash2(id);
+        if(h1 == 0 && h2 == 0)
+        {
+            h2 = 1;
+        }
+        int slot = find(h1, h2);
+        return isFree(slot) ? NO_STAMP : stamps[slot];
+    }
+
+    /**
+     * Record the modification time of the given ID, replacing any previous value.
+     *
+     * @param id the ID of the object
+     * @param stamp the modification time of the object or {@link #NO_STAMP} if it is unknown
+     */
+    public void put(String id, long stamp)
+    {
+        long h1 = hash1(id);
+        long h2 = hash2(id);
+        if(h1 == 0 && h2 == 0)
+        {
+            h2 = 1;
+        }
+        put(h1, h2, stamp);
+    }
+
+    /**
+     * Add the given ID without a modification time.
+     */
+    @Override
+    public boolean add(String id)
+    {
+        if(contains(id))
+        {
+            return false;
+        }
+        put(id, NO_STAMP);
+        return true;
+    }
+
+    /**
+     * Count the IDs of this manifest that are not contained in the given manifest.
+     *
+     * @param other the manifest to compare with
+     *
+     * @return the number of IDs only contained in this manifest
+     */
+    public int countMissingIn(IdSet other)
+    {
+        int result = 0;
+        for(int i = 0; i < table.length; i += 2)
+        {
+            if((table[i] != 0 || table[i+1] != 0) && other.isFree(other.find(table[i], table[i+1])))
+            {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long getMemoryUsage()
+    {
+        return super.getMemoryUsage() + 8L * stamps.length;
+    }
+
+    /**
+     * Write the fingerprints and modification times of this manifest to the given stream.
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void writeTo(DataOutputStream out) throws IOException
+    {
+        out.writeInt(size);
+        for(int i = 0; i < table.length; i += 2)
+        {
+            if(table[i] != 0 || table[i+1] != 0)
+            {
+                out.writeLong(table[i]);
+                out.writeLong(table[i+1]);
+                out.writeLong(stamps[i/2]);
+            }
+        }
+    }
+
+    /**
+     * Read a manifest previously written with {@link #writeTo(DataOutputStream)}.
+     *
+     * @param in the stream to read from
+     * @param expectedSize the minimum number of IDs the new manifest can hold without growing
+     *
+     * @return the new manifest
+     *
+     * @throws IOException if reading fails
+     */
+    public static DeltaManifest readFrom(DataInputStream in, int expectedSize) throws IOException
+    {
+        int count = in.readInt();
+        DeltaManifest result = new DeltaManifest(Math.max(count, expectedSize));
+        for(int i = 0; i < count; i++)
+        {
+            long h1 = in.readLong();
+            long h2 = in.readLong();
+            result.put(h1, h2, in.readLong());
+        }
+        return result;
+    }
+
+    /**
+     * Read a manifest file written entry by entry.
+     *
+     * @param in the stream to read from
+     * @param expectedSize the minimum number of IDs the new manifest can hold without growing
+     *
+     * @return the new manifest
+     *
+     * @throws IOException if reading fails or the stream does not contain a manifest
+     */
+    public static DeltaManifest readManifest(DataInputStream in, int expectedSize) throws IOException
+    {
+        if(in.readInt() != FORMAT)
+        {
+            throw new IOException("Not a delta manifest");
+        }
+        DeltaManifest result = new DeltaManifest(expectedSize);
+        while(in.readBoolean())
+        {
+            String id = in.readUTF();
+            result.put(id, in.readLong());
+        }
+        return result;
+    }
+
+    /**
+     * Start a manifest file listing the IDs.
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    public static void writeHeader(DataOutputStream out) throws IOException
+    {
+        out.writeInt(FORMAT);
+    }
+
+    /**
+     * Append an object to a manifest file started with {@link #writeHeader(DataOutputStream)}.
+     *
+     * @param out the stream to write to
+     * @param id the ID of the object
+     * @param stamp the modification time of the object or {@link #NO_STAMP} if it is unknown
+     *
+     * @throws IOException if writing fails
+     */
+    public static void writeEntry(DataOutputStream out, String id, long stamp) throws IOException
+    {
+        out.writeBoolean(true);
+        out.writeUTF(id);
+        out.writeLong(stamp);
+    }
+
+    /**
+     * Complete a manifest file started with {@link #writeHeader(DataOutputStream)}.
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    public static void writeEnd(DataOutputStream out) throws IOException
+    {
+        out.writeBoolean(false);
+    }
+
+    /**
+     * Write the IDs of a manifest file that are not contained in the given set, one per line.
+     *
+     * @param in the manifest file to read from
+     * @param current the IDs to leave out
+     * @param out the writer receiving the missing IDs
+     *
+     * @return the number of IDs written
+     *
+     * @throws IOException if reading or writing fails or the stream does not contain a manifest
+     */
+    public static long writeMissingIds(DataInputStream in, IdSet current, XMLWriter out) throws IOException
+    {
+        if(in.readInt() != FORMAT)
+        {
+            throw new IOException("Not a delta manifest");
+        }
+        long count = 0;
+        while(in.readBoolean())
+        {
+            String id = in.readUTF();
+            in.readLong();
+            if(!current.contains(id))
+            {
+                out.write(id);
+                out.newLine();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Move the modification times along with their fingerprints.
+     */
+    @Override
+    protected void grow()
+    {
+        long[] oldTable = table;
+        long[] oldStamps = stamps;
+        super.grow();
+        stamps = new long[table.length / 2];
+        for(int i = 0; i < oldTable.length; i += 2)
+        {
+            if(oldTable[i] != 0 || oldTable[i+1] != 0)
+            {
+                stamps[find(oldTable[i], oldTable[i+1])] = oldStamps[i/2];
+            }
+        }
+    }
+
+    private void put(long h1, long h2, long stamp)
+    {
+        int slot = find(h1, h2);
+        stamps[slot] = stamp;
+        if(isFree(slot))
+        {
+            table[2*slot] = h1;
+            table[2*slot+1] = h2;
+            if(++size > threshold)
+            {
+                grow();
+            }
+        }
+    }
+
+}
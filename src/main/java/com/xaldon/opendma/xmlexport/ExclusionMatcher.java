@@ -0,0 +1,148 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+import org.opendma.api.OdmaClass;
+
+/**
+ * Decides whether referenced objects are excluded from the export.
+ *
+ * <p>Excluded IDs are kept in a hash set. The class name patterns are combined into one
+ * alternation, so a class name is matched in a single pass. Combining renumbers the
+ * capturing groups, so patterns with back references or named groups are matched on their
+ * own. As the verdict only depends on the class, it is remembered by class ID and the
+ * patterns run only once per class.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+public class ExclusionMatcher
+{
+
+    protected final HashSet<String> excludedIds;
+
+    /** the alternation of all patterns that can be combined. null if there are none */
+    protected final Pattern excludedClasses;
+
+    /** patterns depending on their group numbers or names */
+    protected final ArrayList<Pattern> separateClassPatterns = new ArrayList<Pattern>();
+
+    protected final HashMap<String,Boolean> classVerdicts = new HashMap<String,Boolean>();
+
+    /**
+     * Create a new ExclusionMatcher.
+     *
+     * @param excludedIds the IDs of the excluded objects
+     * @param excludedClasses the patterns matching the qualified names of the excluded classes
+     */
+    public ExclusionMatcher(Collection<String> excludedIds, Collection<Pattern> excludedClasses)
+    {
+        this.excludedIds = new HashSet<String>(excludedIds);
+        StringBuilder combined = new StringBuilder();
+        for(Pattern p : excludedClasses)
+        {
+            if(p.flags() != 0 || !canCombine(p.pattern()))
+            {
+                separateClassPatterns.add(p);
+                continue;
+            }
+            if(combined.length() > 0)
+            {
+                combined.append('|');
+            }
+            combined.append("(?:").append(p.pattern()).append(')');
+        }
+        this.excludedClasses = combined.length() > 0 ? Pattern.compile(combined.toString()) : null;
+    }
+
+    /**
+     * Returns whether the given regular expression matches the same inside a non-capturing
+     * group of an alternation. This is not the case if it refers to its groups by number or
+     * name, or if a quotation without end would also quote the closing parenthesis.
+     *
+     * @param regex the regular expression
+     *
+     * @return true if the expression can be combined with others
+     */
+    protected static boolean canCombine(String regex)
+    {
+        for(int i = 0; i < regex.length(); i++)
+        {
+            char c = regex.charAt(i);
+            if(c == '\\' && i + 1 < regex.length())
+            {
+                char next = regex.charAt(++i);
+                if((next >= '1' && next <= '9') || next == 'k' || next == 'Q')
+                {
+                    return false;
+                }
+            }
+            else if(c == '(' && regex.startsWith("?<", i + 1) && i + 3 < regex.length())
+            {
+                char next = regex.charAt(i + 3);
+                if(next != '=' && next != '!')
+                {
+                    // named group
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the object with the given ID and class is excluded from the export.
+     *
+     * @param id the ID of the object
+     * @param cls the class of the object
+     *
+     * @return true if the object is excluded
+     */
+    public boolean isExcluded(String id, OdmaClass cls)
+    {
+        return excludedIds.contains(id) || isClassExcluded(cls);
+    }
+
+    /**
+     * Returns whether objects of the given class are excluded from the export.
+     *
+     * @param cls the class of the objects
+     *
+     * @return true if the class is excluded
+     */
+    public boolean isClassExcluded(OdmaClass cls)
+    {
+        if(excludedClasses == null && separateClassPatterns.isEmpty())
+        {
+            return false;
+        }
+        String classId = cls.getId().toString();
+        Boolean verdict = classVerdicts.get(classId);
+        if(verdict == null)
+        {
+            verdict = Boolean.valueOf(matchesClassName(cls.getQName().toString()));
+            classVerdicts.put(classId, verdict);
+        }
+        return verdict.booleanValue();
+    }
+
+    protected boolean matchesClassName(String qname)
+    {
+        if(excludedClasses != null && excludedClasses.matcher(qname).matches())
+        {
+            return true;
+        }
+        for(int i = 0; i < separateClassPatterns.size(); i++)
+        {
+            if(separateClassPatterns.get(i).matcher(qname).matches())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.xaldon.opendma.xmlexport;
+
+/**
+ * Receives the progress of an export and the messages otherwise printed to
+ * <code>System.out</code>.
+ *
+ * <p>All methods must return quickly, as they are called while the export waits. Messages
+ * may also be reported by other threads than the export thread, e.g. the periodic metrics
+ * summary or the errors of the content copy threads, so implementations must be
+ * thread-safe.</p>
+ */
+public interface ExportListener
+{
+
+    /**
+     * Called by the export thread after each object taken from the export queue.
+     *
+     * @param metrics the metrics of the running export
+     */
+    public void progress(ExportMetrics metrics);
+
+    /**
+     * A progress or error message. The <code>Verbose</code> level decides which
+     * messages are reported.
+     *
+     * @param message the message
+     */
+    public void message(String message);
+
+    /**
+     * An error that did not stop the export, e.g. an object that could not be read or a
+     * content data file that could not be copied. It follows the message describing the
+     * context of the error.
+     *
+     * @param error the error
+     */
+    public void error(Throwable error);
+
+}
@@ -0,0 +1,283 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histogram of a running export.
+ *
+ * <p>Recording is cheap enough for the hot path: counters are <code>LongAdder</code>s,
+ * gauges are plain volatile fields and fetch latencies are counted in 40 buckets of
+ * powers of two microseconds. Percentiles are therefore reported as the upper bound of
+ * their bucket. All methods can be called from any thread.</p>
+ */
+public class ExportMetrics implements ExportMetricsMBean
+{
+
+    /** Name the metrics are registered under with JMX */
+    public static final String JMX_NAME = "com.xaldon.opendma.xmlexport:type=ExportMetrics";
+
+    private static final int BUCKETS = 40;
+
+    protected final long startNanos = System.nanoTime();
+
+    protected final LongAdder objects = new LongAdder();
+
+    protected final LongAdder properties = new LongAdder();
+
+    protected final LongAdder contentBytes = new LongAdder();
+
+    protected final LongAdder errors = new LongAdder();
+
+    protected final AtomicLongArray fetchLatencies = new AtomicLongArray(BUCKETS);
+
+    protected final AtomicLong maxFetchNanos = new AtomicLong(0);
+
+    protected volatile long bytesWritten = 0;
+
+    protected volatile long queueDepth = 0;
+
+    protected volatile AdaptiveLimiter fetchLimiter = null;
+
+    protected volatile AdaptiveLimiter contentLimiter = null;
+
+    protected ObjectName registeredName = null;
+
+    public void recordObject()
+    {
+        objects.increment();
+    }
+
+    public void recordProperty()
+    {
+        properties.increment();
+    }
+
+    public void recordContentBytes(long bytes)
+    {
+        contentBytes.add(bytes);
+    }
+
+    public void recordError()
+    {
+        errors.increment();
+    }
+
+    /**
+     * Record the duration of one fetch call.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void recordFetch(long nanos)
+    {
+        long micros = nanos / 1000;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        fetchLatencies.incrementAndGet(bucket);
+        long max = maxFetchNanos.get();
+        while(nanos > max && !maxFetchNanos.compareAndSet(max, nanos))
+        {
+            max = maxFetchNanos.get();
+        }
+    }
+
+    /**
+     * Update the gauges of this export.
+     *
+     * @param bytesWritten the number of bytes of XML written so far
+     * @param queueDepth the number of objects waiting in the export queue
+     */
+    public void update(long bytesWritten, long queueDepth)
+    {
+        this.bytesWritten = bytesWritten;
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Report the current limits of the given limiters.
+     *
+     * @param fetchLimiter the limiter of the object fetches or <code>null</code>
+     * @param contentLimiter the limiter of the content reads or <code>null</code>
+     */
+    public void setLimiters(AdaptiveLimiter fetchLimiter, AdaptiveLimiter contentLimiter)
+    {
+        this.fetchLimiter = fetchLimiter;
+        this.contentLimiter = contentLimiter;
+    }
+
+    public long getObjectCount()
+    {
+        return objects.sum();
+    }
+
+    public double getObjectsPerSecond()
+    {
+        return perSecond(objects.sum());
+    }
+
+    public long getPropertyCount()
+    {
+        return properties.sum();
+    }
+
+    public double getPropertiesPerSecond()
+    {
+        return perSecond(properties.sum());
+    }
+
+    public long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+
+    public long getContentBytes()
+    {
+        return contentBytes.sum();
+    }
+
+    public long getQueueDepth()
+    {
+        return queueDepth;
+    }
+
+    public long getErrorCount()
+    {
+        return errors.sum();
+    }
+
+    public long getFetchCount()
+    {
+        long count = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            count += fetchLatencies.get(i);
+        }
+        return count;
+    }
+
+    public double getFetchLatencyMedianMillis()
+    {
+        return getFetchLatencyPercentileMillis(0.5);
+    }
+
+    public double getFetchLatency99thPercentileMillis()
+    {
+        return getFetchLatencyPercentileMillis(0.99);
+    }
+
+    public double getFetchLatencyMaxMillis()
+    {
+        return maxFetchNanos.get() / 1000000.0;
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 1
+     *
+     * @return the upper bound of the histogram bucket containing the given percentile in
+     * milliseconds, but not more than the maximum latency
+     */
+    public double getFetchLatencyPercentileMillis(double percentile)
+    {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] = fetchLatencies.get(i);
+            total += counts[i];
+        }
+        if(total == 0)
+        {
+            return 0;
+        }
+        long rank = (long)Math.ceil(percentile * total);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if(seen >= rank)
+            {
+                return Math.min((1L << i) / 1000.0, getFetchLatencyMaxMillis());
+            }
+        }
+        return getFetchLatencyMaxMillis();
+    }
+
+    /**
+     * @return the current number of concurrent object fetches allowed, 0 if not limited
+     */
+    public int getFetchConcurrencyLimit()
+    {
+        AdaptiveLimiter limiter = fetchLimiter;
+        return limiter != null ? limiter.getLimit() : 0;
+    }
+
+    /**
+     * @return the current number of concurrent content reads allowed, 0 if not limited
+     */
+    public int getContentConcurrencyLimit()
+    {
+        AdaptiveLimiter limiter = contentLimiter;
+        return limiter != null ? limiter.getLimit() : 0;
+    }
+
+    public String getSummary()
+    {
+        String summary = String.format(Locale.ROOT, "%d objects (%.1f/s), %d properties (%.1f/s), %.1f MB XML, %.1f MB content, %d queued, %d errors, fetch latency p50 %.1f ms p99 %.1f ms max %.1f ms",
+                getObjectCount(), getObjectsPerSecond(), getPropertyCount(), getPropertiesPerSecond(),
+                getBytesWritten() / 1048576.0, getContentBytes() / 1048576.0, getQueueDepth(), getErrorCount(),
+                getFetchLatencyMedianMillis(), getFetchLatency99thPercentileMillis(), getFetchLatencyMaxMillis());
+        if(fetchLimiter != null || contentLimiter != null)
+        {
+            summary += ", concurrency limit fetch " + getFetchConcurrencyLimit() + " content " + getContentConcurrencyLimit();
+        }
+        return summary;
+    }
+
+    /**
+     * Register these metrics with the platform MBean server.
+     *
+     * @throws Exception if the registration fails
+     */
+    public void registerMBean() throws Exception
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(JMX_NAME);
+        if(server.isRegistered(name))
+        {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+        registeredName = name;
+    }
+
+    /**
+     * Remove these metrics from the platform MBean server, if registered.
+     */
+    public void unregisterMBean()
+    {
+        if(registeredName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            }
+            catch(Exception e)
+            {
+                // already gone
+            }
+            registeredName = null;
+        }
+    }
+
+    private double perSecond(long count)
+    {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? count * 1000000000.0 / elapsed : 0;
+    }
+
+}
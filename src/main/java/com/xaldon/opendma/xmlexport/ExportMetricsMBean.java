@@ -0,0 +1,39 @@
+package com.xaldon.opendma.xmlexport;
+
+/**
+ * JMX view of the {@link ExportMetrics} of a running export.
+ */
+public interface ExportMetricsMBean
+{
+
+    public long getObjectCount();
+
+    public double getObjectsPerSecond();
+
+    public long getPropertyCount();
+
+    public double getPropertiesPerSecond();
+
+    public long getBytesWritten();
+
+    public long getContentBytes();
+
+    public long getQueueDepth();
+
+    public long getErrorCount();
+
+    public long getFetchCount();
+
+    public double getFetchLatencyMedianMillis();
+
+    public double getFetchLatency99thPercentileMillis();
+
+    public double getFetchLatencyMaxMillis();
+
+    public int getFetchConcurrencyLimit();
+
+    public int getContentConcurrencyLimit();
+
+    public String getSummary();
+
+}
@@ -0,0 +1,363 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+
+import org.opendma.api.OdmaQName;
+
+/**
+ * FIFO queue of the IDs of objects waiting to be exported, with bounded memory usage.
+ *
+ * <p>At most <code>memoryLimit</code> entries are held in memory. If more entries are
+ * added, the newest entries are written to spill files in blocks of
+ * <code>memoryLimit/2</code> entries. These blocks are read back in order once all older
+ * entries have been taken from the queue. Adding and taking entries is O(1) amortized,
+ * independent of the size of the queue.</p>
+ *
+ * <p>Every ID is accepted only once. IDs are remembered in an {@link IdSet} after they
+ * have been added, so an ID that has been taken from the queue is not queued again. Only
+ * IDs whose object could not be fetched are accepted again after {@link #markFailed(String)},
+ * so the next reference to such an object retries it.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+public class ExportQueue
+{
+
+    /** Default maximum number of entries kept in memory */
+    public static final int DEFAULT_MEMORY_LIMIT = 100000;
+
+    protected final File spillDirectory;
+
+    protected final int segmentSize;
+
+    protected final IdSet queuedIds;
+
+    /** entries taken next. Filled from the spill files or from the tail */
+    protected ArrayDeque<Entry> head = new ArrayDeque<Entry>();
+
+    /** newest entries, behind all spill files */
+    protected ArrayDeque<Entry> tail = new ArrayDeque<Entry>();
+
+    protected final ArrayDeque<File> spillFiles = new ArrayDeque<File>();
+
+    /** IDs taken from this queue whose object could not be fetched. They are accepted again */
+    protected final HashSet<String> failedIds = new HashSet<String>();
+
+    protected long size = 0;
+
+    /**
+     * Create a new ExportQueue.
+     *
+     * @param spillDirectory the directory to create spill files in or <code>null</code> for the default temporary directory
+     * @param memoryLimit the maximum number of entries kept in memory
+     * @param queuedIds the set remembering all IDs ever added to this queue
+     */
+    public ExportQueue(File spillDirectory, int memoryLimit, IdSet queuedIds)
+    {
+        if(memoryLimit < 2)
+        {
+            throw new IllegalArgumentException("memoryLimit must be at least 2");
+        }
+        this.spillDirectory = spillDirectory;
+        this.segmentSize = memoryLimit / 2;
+        this.queuedIds = queuedIds;
+    }
+
+    /**
+     * Add an object to the end of this queue, unless its ID has been added before.
+     *
+     * @param id the ID of the object
+     * @param classQName the qualified name of the class of the object
+     *
+     * @return true if the object has been added, false if its ID has been added before and has not failed since
+     *
+     * @throws IOException if writing a spill file fails
+     */
+    public boolean add(String id, OdmaQName classQName) throws IOException
+    {
+        if(!queuedIds.add(id) && !failedIds.remove(id))
+        {
+            return false;
+        }
+        append(new Entry(id, classQName));
+        return true;
+    }
+
+    protected void append(Entry entry) throws IOException
+    {
+        if(spillFiles.isEmpty() && tail.isEmpty() && head.size() < segmentSize)
+        {
+            head.add(entry);
+        }
+        else
+        {
+            tail.add(entry);
+            if(tail.size() >= segmentSize)
+            {
+                spillTail();
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Returns whether the given ID has ever been added to this queue.
+     *
+     * @param id the ID to look up
+     *
+     * @return true if the ID has been added to this queue before and has not failed since
+     */
+    public boolean contains(String id)
+    {
+        return queuedIds.contains(id) && !failedIds.contains(id);
+    }
+
+    /**
+     * Accept the given ID again. Called for IDs taken from this queue whose object could not
+     * be fetched, so that the next reference to the object queues it again.
+     *
+     * @param id the ID of the object that could not be fetched
+     */
+    public void markFailed(String id)
+    {
+        failedIds.add(id);
+    }
+
+    /**
+     * Take the oldest entry from this queue.
+     *
+     * @return the oldest entry or <code>null</code> if this queue is empty
+     *
+     * @throws IOException if reading a spill file fails
+     */
+    public Entry poll() throws IOException
+    {
+        if(head.isEmpty())
+        {
+            if(!spillFiles.isEmpty())
+            {
+                readSpillFile(spillFiles.removeFirst());
+            }
+            else
+            {
+                ArrayDeque<Entry> swap = head;
+                head = tail;
+                tail = swap;
+            }
+        }
+        Entry entry = head.poll();
+        if(entry != null)
+        {
+            size--;
+        }
+        return entry;
+    }
+
+    /**
+     * @return true if there are no entries in this queue
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of entries in this queue
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * Write all entries of this queue in order, the set of all IDs ever added and the failed
+     * IDs to the given stream. This queue is not modified.
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing or reading a spill file fails
+     */
+    public void writeTo(DataOutputStream out) throws IOException
+    {
+        queuedIds.writeTo(out);
+        out.writeInt(failedIds.size());
+        for(String id : failedIds)
+        {
+            out.writeUTF(id);
+        }
+        out.writeLong(size);
+        for(Entry entry : head)
+        {
+            writeEntry(out, entry);
+        }
+        for(File spillFile : spillFiles)
+        {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile), 64 * 1024));
+            try
+            {
+                int count = dis.readInt();
+                for(int i = 0; i < count; i++)
+                {
+                    writeEntry(out, readEntry(dis));
+                }
+            }
+            finally
+            {
+                dis.close();
+            }
+        }
+        for(Entry entry : tail)
+        {
+            writeEntry(out, entry);
+        }
+    }
+
+    /**
+     * Read a queue previously written with {@link #writeTo(DataOutputStream)}.
+     *
+     * @param in the stream to read from
+     * @param spillDirectory the directory to create spill files in or <code>null</code> for the default temporary directory
+     * @param memoryLimit the maximum number of entries kept in memory
+     * @param expectedSize the minimum number of IDs the set of queued IDs can hold without growing
+     *
+     * @return the new queue
+     *
+     * @throws IOException if reading or writing a spill file fails
+     */
+    public static ExportQueue readFrom(DataInputStream in, File spillDirectory, int memoryLimit, int expectedSize) throws IOException
+    {
+        IdSet queuedIds = IdSet.readFrom(in, expectedSize);
+        ExportQueue result = new ExportQueue(spillDirectory, memoryLimit, queuedIds);
+        int failed = in.readInt();
+        for(int i = 0; i < failed; i++)
+        {
+            result.failedIds.add(in.readUTF());
+        }
+        long count = in.readLong();
+        for(long i = 0; i < count; i++)
+        {
+            result.append(readEntry(in));
+        }
+        return result;
+    }
+
+    /**
+     * Remove all entries and delete all spill files.
+     */
+    public void close()
+    {
+        head.clear();
+        tail.clear();
+        failedIds.clear();
+        while(!spillFiles.isEmpty())
+        {
+            spillFiles.removeFirst().delete();
+        }
+        size = 0;
+    }
+
+    protected void spillTail() throws IOException
+    {
+        // deleted when read back or by close(), a checkpoint does not need it
+        File spillFile = File.createTempFile("exportqueue", ".tmp", spillDirectory);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), 64 * 1024));
+        try
+        {
+            dos.writeInt(tail.size());
+            for(Entry entry : tail)
+            {
+                writeEntry(dos, entry);
+            }
+        }
+        finally
+        {
+            dos.close();
+        }
+        spillFiles.add(spillFile);
+        tail.clear();
+    }
+
+    protected void readSpillFile(File spillFile) throws IOException
+    {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile), 64 * 1024));
+        try
+        {
+            int count = dis.readInt();
+            for(int i = 0; i < count; i++)
+            {
+                head.add(readEntry(dis));
+            }
+        }
+        finally
+        {
+            dis.close();
+        }
+        spillFile.delete();
+    }
+
+    protected static void writeEntry(DataOutputStream out, Entry entry) throws IOException
+    {
+        out.writeUTF(entry.id);
+        if(entry.classQName == null)
+        {
+            out.writeBoolean(false);
+        }
+        else
+        {
+            out.writeBoolean(true);
+            out.writeUTF(entry.classQName.getNamespace());
+            out.writeUTF(entry.classQName.getName());
+        }
+    }
+
+    protected static Entry readEntry(DataInputStream in) throws IOException
+    {
+        String id = in.readUTF();
+        OdmaQName classQName = null;
+        if(in.readBoolean())
+        {
+            String namespace = in.readUTF();
+            String name = in.readUTF();
+            classQName = new OdmaQName(namespace, name);
+        }
+        return new Entry(id, classQName);
+    }
+
+    /**
+     * An object waiting to be exported.
+     */
+    public static class Entry
+    {
+
+        protected final String id;
+
+        protected final OdmaQName classQName;
+
+        public Entry(String id, OdmaQName classQName)
+        {
+            this.id = id;
+            this.classQName = classQName;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public OdmaQName getClassQName()
+        {
+            return classQName;
+        }
+
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import org.opendma.api.OdmaId;
+
+/**
+ * Writes the exported objects in one particular format.
+ *
+ * <p>A serializer is bound to the {@link XMLWriter} buffering the output of one export.
+ * The exporter calls {@link #startDocument(String)}, then for each object
+ * {@link #startObject(ClassSerializationPlan)}, for each of its properties
+ * {@link #startProperty(ClassSerializationPlan, int)}, the <code>write</code> method of
+ * each value, {@link #endProperty()}, {@link #endObject()} and finally
+ * {@link #endDocument()}. In part mode, every part file is a document of its own, so a
+ * new document is started after the previous one has been ended.</p>
+ *
+ * <p>Implementations selected with the <code>Format</code> configuration property need a
+ * public constructor taking the <code>XMLWriter</code> as only argument. They are only
+ * used by a single thread.</p>
+ */
+public interface ExportSerializer
+{
+
+    /**
+     * Start a new document.
+     *
+     * @param repositoryObjectId the ID of the exported repository object
+     *
+     * @throws IOException if writing to the output fails
+     */
+    public void startDocument(String repositoryObjectId) throws IOException;
+
+    public void endDocument() throws IOException;
+
+    /**
+     * Start the next object. Its properties follow.
+     *
+     * @param plan the serialization plan of the class of the object
+     *
+     * @throws IOException if writing to the output fails
+     */
+    public void startObject(ClassSerializationPlan plan) throws IOException;
+
+    public void endObject() throws IOException;
+
+    /**
+     * Start the next property of the current object. Its values follow.
+     *
+     * @param plan the serialization plan of the class of the object
+     * @param i the index of the property in the plan. Its data type is supported
+     *
+     * @throws IOException if writing to the output fails
+     */
+    public void startProperty(ClassSerializationPlan plan, int i) throws IOException;
+
+    public void endProperty() throws IOException;
+
+    public void writeString(String value) throws IOException;
+
+    public void writeInteger(int value) throws IOException;
+
+    public void writeShort(short value) throws IOException;
+
+    public void writeLong(long value) throws IOException;
+
+    public void writeFloat(float value) throws IOException;
+
+    public void writeDouble(double value) throws IOException;
+
+    public void writeBoolean(boolean value) throws IOException;
+
+    public void writeDateTime(Date value) throws IOException;
+
+    public void writeBinary(byte[] value) throws IOException;
+
+    /**
+     * @param referencedObjectId the ID of the referenced object
+     *
+     * @throws IOException if writing to the output fails
+     */
+    public void writeReference(String referencedObjectId) throws IOException;
+
+    /**
+     * @param fileName the name of the data file of the content, relative to the content directory
+     *
+     * @throws IOException if writing to the output fails
+     */
+    public void writeContent(String fileName) throws IOException;
+
+    public void writeId(OdmaId value) throws IOException;
+
+    /**
+     * Save the state needed to continue the current document after a checkpoint, in
+     * addition to the output written so far.
+     *
+     * @param dos the stream of the checkpoint
+     *
+     * @throws IOException if writing the checkpoint fails
+     */
+    public void writeState(DataOutputStream dos) throws IOException;
+
+    /**
+     * Restore the state saved with {@link #writeState(DataOutputStream)}.
+     *
+     * @param dis the stream of the checkpoint
+     *
+     * @throws IOException if reading the checkpoint fails
+     */
+    public void readState(DataInputStream dis) throws IOException;
+
+    /**
+     * @return the total number of bytes written to the output
+     */
+    public long getPosition();
+
+    public void flush() throws IOException;
+
+    public void close() throws IOException;
+
+}
@@ -0,0 +1,55 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Receives the exported document and the content data files instead of the local file
+ * system, e.g. to stream an export into another process, a socket or an object store.
+ *
+ * <p>The exporter writes to the returned streams in the calling thread. A stream that
+ * blocks in <code>write</code> slows down the export accordingly, so the receiver controls
+ * the pace of the export. Only a bounded number of objects is fetched ahead and only a
+ * bounded number of content copies is waiting for the copy threads.</p>
+ *
+ * <p>With a sink, the export can not be split into part files, resumed from checkpoints or
+ * deduplicate content, as these need to revisit what has already been written.</p>
+ */
+public interface ExportSink
+{
+
+    /**
+     * Open the stream receiving the document. Called once per export. The exporter closes
+     * the stream after the end of the document has been written. If the export fails, the
+     * stream is not closed.
+     *
+     * @return the stream to write the document to
+     *
+     * @throws IOException if the stream can not be opened
+     */
+    public OutputStream openDocument() throws IOException;
+
+    /**
+     * Open the stream receiving a content data file. The exporter closes the stream after
+     * all bytes have been written. With <code>ContentThreads</code>, this method is called
+     * concurrently by the copy threads.
+     *
+     * @param name the name of the data file as written to the document
+     *
+     * @return the stream to write the data file to
+     *
+     * @throws IOException if the stream can not be opened
+     */
+    public OutputStream openContent(String name) throws IOException;
+
+    /**
+     * Called after copying a content data file has failed. The stream has been closed and
+     * the data file is incomplete. The export continues, and the error is counted and
+     * reported to the {@link ExportListener} like any other error.
+     *
+     * @param name the name of the data file as written to the document
+     * @param error the reason of the failure
+     */
+    public void contentFailed(String name, Throwable error);
+
+}
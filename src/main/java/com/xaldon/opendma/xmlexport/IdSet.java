@@ -0,0 +1,275 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Memory efficient set of object IDs.
+ *
+ * <p>Instead of the ID strings, only a 128 bit fingerprint of each ID is kept in an
+ * open addressing hash table of primitive <code>long</code> values. Each ID costs 16 bytes
+ * in the table, plus the unused share of the table, instead of well over 100 bytes for
+ * a <code>String</code> in a <code>HashMap</code>. The fingerprint is calculated from two
+ * independent 64 bit hashes, so the probability that two different IDs are confused is
+ * negligible even for billions of IDs.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+public class IdSet
+{
+
+    private static final int MIN_CAPACITY = 1024;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** two longs per slot. A slot is empty if both values are 0. */
+    protected long[] table;
+
+    protected int mask;
+
+    protected int size = 0;
+
+    protected int threshold;
+
+    /**
+     * Create a new, empty IdSet.
+     */
+    public IdSet()
+    {
+        this(0);
+    }
+
+    /**
+     * Create a new, empty IdSet that can hold the given number of IDs without growing.
+     *
+     * @param expectedSize the number of IDs expected to be added to this set
+     */
+    public IdSet(int expectedSize)
+    {
+        long required = (long)Math.ceil(expectedSize / (double)LOAD_FACTOR);
+        int capacity = MIN_CAPACITY;
+        while(capacity < required && capacity < (1 << 29))
+        {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @return the number of IDs in this set
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns whether the given ID is contained in this set.
+     *
+     * @param id the ID to look up
+     *
+     * @return true if the ID has been added to this set
+     */
+    public boolean contains(String id)
+    {
+        long h1 = hash1(id);
+        long h2 = hash2(id);
+        if(h1 == 0 && h2 == 0)
+        {
+            h2 = 1;
+        }
+        return !isFree(find(h1, h2));
+    }
+
+    /**
+     * Add the given ID to this set.
+     *
+     * @param id the ID to add
+     *
+     * @return true if the ID has been added, false if it was already contained in this set
+     */
+    public boolean add(String id)
+    {
+        long h1 = hash1(id);
+        long h2 = hash2(id);
+        if(h1 == 0 && h2 == 0)
+        {
+            h2 = 1;
+        }
+        if(!insert(h1, h2))
+        {
+            return false;
+        }
+        if(++size > threshold)
+        {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * @return the approximate number of bytes occupied by this set on the heap
+     */
+    public long getMemoryUsage()
+    {
+        return 8L * table.length;
+    }
+
+    /**
+     * Write the content of this set to the given stream.
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutputStream out) throws IOException
+    {
+        out.writeInt(size);
+        for(int i = 0; i < table.length; i += 2)
+        {
+            if(table[i] != 0 || table[i+1] != 0)
+            {
+                out.writeLong(table[i]);
+                out.writeLong(table[i+1]);
+            }
+        }
+    }
+
+    /**
+     * Read a set previously written with {@link #writeTo(DataOutputStream)}.
+     *
+     * @param in the stream to read from
+     * @param expectedSize the minimum number of IDs the new set can hold without growing
+     *
+     * @return the new set
+     *
+     * @throws IOException if reading fails
+     */
+    public static IdSet readFrom(DataInputStream in, int expectedSize) throws IOException
+    {
+        int count = in.readInt();
+        IdSet result = new IdSet(Math.max(count, expectedSize));
+        for(int i = 0; i < count; i++)
+        {
+            long h1 = in.readLong();
+            long h2 = in.readLong();
+            if(result.insert(h1, h2))
+            {
+                result.size++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the slot holding the given fingerprint or the free slot it would be inserted at.
+     */
+    protected int find(long h1, long h2)
+    {
+        int slot = (int)h1 & mask;
+        while(true)
+        {
+            long t1 = table[2*slot];
+            long t2 = table[2*slot+1];
+            if((t1 == h1 && t2 == h2) || (t1 == 0 && t2 == 0))
+            {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    protected boolean isFree(int slot)
+    {
+        return table[2*slot] == 0 && table[2*slot+1] == 0;
+    }
+
+    /**
+     * Insert the given fingerprint without counting it or growing the table.
+     *
+     * @return false if the fingerprint is already contained
+     */
+    protected boolean insert(long h1, long h2)
+    {
+        int slot = find(h1, h2);
+        if(!isFree(slot))
+        {
+            return false;
+        }
+        table[2*slot] = h1;
+        table[2*slot+1] = h2;
+        return true;
+    }
+
+    protected void allocate(int capacity)
+    {
+        table = new long[2 * capacity];
+        mask = capacity - 1;
+        threshold = (int)(capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Double the capacity of the table. Subclasses keeping values per slot have to move
+     * them to the new slots of their fingerprints.
+     */
+    protected void grow()
+    {
+        long[] oldTable = table;
+        if(oldTable.length >= (1 << 30))
+        {
+            throw new IllegalStateException(getClass().getSimpleName()+" can not grow beyond "+size+" entries");
+        }
+        allocate(oldTable.length);
+        for(int i = 0; i < oldTable.length; i += 2)
+        {
+            if(oldTable[i] != 0 || oldTable[i+1] != 0)
+            {
+                insert(oldTable[i], oldTable[i+1]);
+            }
+        }
+    }
+
+    /**
+     * FNV-1a over the characters, followed by the MurmurHash3 finalizer.
+     */
+    protected static long hash1(String s)
+    {
+        long h = 0xcbf29ce484222325L;
+        int len = s.length();
+        for(int i = 0; i < len; i++)
+        {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h ^ len);
+    }
+
+    /**
+     * Multiply-rotate hash over the characters with a different seed and multiplier
+     * than {@link #hash1(String)}, followed by the MurmurHash3 finalizer.
+     */
+    protected static long hash2(String s)
+    {
+        long h = 0x9e3779b97f4a7c15L;
+        int len = s.length();
+        for(int i = 0; i < len; i++)
+        {
+            h += s.charAt(i);
+            h *= 0xc2b2ae3d27d4eb4fL;
+            h = Long.rotateLeft(h, 29);
+        }
+        return mix(h + len);
+    }
+
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,447 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opendma.api.OdmaClass;
+import org.opendma.api.OdmaId;
+import org.opendma.api.OdmaObject;
+import org.opendma.api.OdmaQName;
+import org.opendma.api.OdmaSession;
+import org.opendma.exceptions.OdmaObjectNotFoundException;
+
+/**
+ * Fetches queued objects from the repository ahead of the serialization.
+ *
+ * <p>Objects are submitted in export queue order and handed back by {@link #next()}
+ * in exactly the same order, regardless of the order in which the fetches complete.
+ * This keeps the generated XML deterministic while the network round-trips to the
+ * back-end overlap with the serialization of previously fetched objects.</p>
+ *
+ * <p>Submitted objects are grouped into batches that are retrieved by an
+ * {@link ObjectFetcher} in one call. A batch is handed to the fetch threads once it is
+ * complete, or when {@link #next()} needs its first object.</p>
+ *
+ * <p>With zero fetch threads, no prefetching takes place and each batch is fetched
+ * in the calling thread.</p>
+ *
+ * <p>The pipeline itself must only be used by a single thread. The adaptor session
+ * must support concurrent calls if fetch threads are used.</p>
+ */
+public class ObjectFetchPipeline
+{
+
+    protected final OdmaSession session;
+
+    protected final OdmaId repositoryId;
+
+    protected final ExecutorService executor;
+
+    protected final ObjectFetcher fetcher;
+
+    protected final int batchSize;
+
+    protected final ExportMetrics metrics;
+
+    protected final AdaptiveLimiter limiter;
+
+    protected final PlanSource planSource;
+
+    protected final int depth;
+
+    protected final ArrayDeque<FetchResult> pending = new ArrayDeque<FetchResult>();
+
+    /** submitted objects not yet handed to the fetcher */
+    protected ArrayList<FetchResult> openBatch = new ArrayList<FetchResult>();
+
+    /**
+     * Create a new fetch pipeline.
+     *
+     * @param session the session to fetch the objects from
+     * @param repositoryId the ID of the repository containing the objects
+     * @param threads the number of concurrently fetched batches. 0 disables prefetching.
+     * @param virtualThreads use virtual threads instead of a pool of platform threads if the JVM supports them
+     * @param fetcher the strategy retrieving the batches
+     * @param batchSize the maximum number of objects retrieved in one batch
+     * @param metrics the metrics to record the fetch latencies in or <code>null</code>
+     * @param limiter the limiter every fetch call has to pass or <code>null</code>
+     * @param planSource the serialization plans deciding which properties are materialized or <code>null</code>
+     */
+    public ObjectFetchPipeline(OdmaSession session, OdmaId repositoryId, int threads, boolean virtualThreads, ObjectFetcher fetcher, int batchSize, ExportMetrics metrics, AdaptiveLimiter limiter, PlanSource planSource)
+    {
+        this.session = session;
+        this.planSource = planSource;
+        this.repositoryId = repositoryId;
+        this.fetcher = fetcher;
+        this.metrics = metrics;
+        this.limiter = limiter;
+        this.batchSize = Math.max(batchSize, 1);
+        if(threads <= 0)
+        {
+            executor = null;
+            depth = this.batchSize;
+        }
+        else
+        {
+            ExecutorService virtualExecutor = virtualThreads ? createVirtualThreadExecutor() : null;
+            executor = virtualExecutor != null ? virtualExecutor : Executors.newFixedThreadPool(threads, new FetchThreadFactory());
+            // with virtual threads, the number of outstanding fetches is only limited by the depth
+            depth = (virtualExecutor != null ? threads : threads * 4) * this.batchSize;
+        }
+    }
+
+    /**
+     * @return true if no more objects should be submitted before the next call to {@link #next()}
+     */
+    public boolean isFull()
+    {
+        return pending.size() >= depth;
+    }
+
+    /**
+     * @return true if there are no submitted objects waiting to be returned by {@link #next()}
+     */
+    public boolean isEmpty()
+    {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Submit an object to be fetched together with the names of the properties to retrieve.
+     *
+     * @param id the ID of the object
+     * @param classQName the qualified name of the class of the object, as far as it is known
+     * @param propertyNames the properties to retrieve with the object or <code>null</code> if unknown
+     */
+    public void submit(String id, OdmaQName classQName, OdmaQName[] propertyNames)
+    {
+        FetchResult result = new FetchResult(id, classQName, propertyNames);
+        pending.add(result);
+        openBatch.add(result);
+        if(openBatch.size() >= batchSize)
+        {
+            dispatchOpenBatch();
+        }
+    }
+
+    /**
+     * Hand the open batch to the fetch threads or, without fetch threads, fetch it right away.
+     */
+    protected void dispatchOpenBatch()
+    {
+        final FetchResult[] batch = openBatch.toArray(new FetchResult[openBatch.size()]);
+        openBatch = new ArrayList<FetchResult>();
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                fetchBatch(batch);
+            }
+        };
+        if(executor != null)
+        {
+            Future<?> future = executor.submit(task);
+            for(FetchResult result : batch)
+            {
+                result.future = future;
+            }
+        }
+        else
+        {
+            task.run();
+        }
+    }
+
+    /**
+     * Returns the oldest submitted object, waiting for its fetch to complete if necessary.
+     *
+     * @return the result of the oldest fetch
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     * @throws java.util.NoSuchElementException if there are no submitted objects
+     */
+    public FetchResult next() throws InterruptedException
+    {
+        FetchResult result = pending.remove();
+        if(!openBatch.isEmpty() && openBatch.get(0) == result)
+        {
+            // the oldest object is in the incomplete batch. Do not wait for more objects.
+            dispatchOpenBatch();
+        }
+        if(result.future != null)
+        {
+            try
+            {
+                result.future.get();
+            }
+            catch(ExecutionException ee)
+            {
+                result.error = ee.getCause();
+            }
+            result.future = null;
+        }
+        return result;
+    }
+
+    /**
+     * Cancel all outstanding fetches and release the fetch threads.
+     */
+    public void shutdown()
+    {
+        Iterator<FetchResult> it = pending.iterator();
+        while(it.hasNext())
+        {
+            FetchResult result = it.next();
+            if(result.future != null)
+            {
+                result.future.cancel(true);
+            }
+        }
+        pending.clear();
+        openBatch.clear();
+        if(executor != null)
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Retrieve the given batch with the fetcher. With fetch threads, the objects are also materialized.
+     */
+    protected void fetchBatch(FetchResult[] batch)
+    {
+        if(limiter != null)
+        {
+            try
+            {
+                limiter.acquire();
+            }
+            catch(InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                setBatchError(batch, ie);
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        boolean failed = false;
+        try
+        {
+            fetcher.fetch(session, repositoryId, batch);
+        }
+        catch(Throwable t)
+        {
+            failed = true;
+            setBatchError(batch, t);
+        }
+        long latency = System.nanoTime() - start;
+        if(metrics != null)
+        {
+            metrics.recordFetch(latency);
+        }
+        if(limiter != null)
+        {
+            for(FetchResult result : batch)
+            {
+                // a missing object is a regular answer, not a sign of an overloaded repository
+                failed |= result.error != null && !(result.error instanceof OdmaObjectNotFoundException);
+            }
+            limiter.release(latency, failed);
+        }
+        if(executor != null)
+        {
+            for(FetchResult result : batch)
+            {
+                if(result.object != null)
+                {
+                    materialize(result.object, result.propertyNames);
+                }
+            }
+        }
+    }
+
+    private static void setBatchError(FetchResult[] batch, Throwable t)
+    {
+        for(FetchResult result : batch)
+        {
+            if(result.object == null && result.error == null)
+            {
+                result.error = t;
+            }
+        }
+    }
+
+    /**
+     * Read the exported properties of the object in the fetch thread, so that lazy loading
+     * adaptors do not have to go back to the server while the object is serialized. Without
+     * property names, the names are taken from the serialization plan of the class of the
+     * object. Without a plan, nothing is read, so excluded properties are never retrieved.
+     */
+    protected OdmaObject materialize(OdmaObject obj, OdmaQName[] propertyNames)
+    {
+        try
+        {
+            if(propertyNames == null)
+            {
+                ClassSerializationPlan plan = planSource != null ? planSource.getClassPlan(obj.getOdmaClass()) : null;
+                if(plan == null)
+                {
+                    return obj;
+                }
+                propertyNames = plan.getPropertyNames();
+            }
+            for(OdmaQName propertyName : propertyNames)
+            {
+                obj.getProperty(propertyName);
+            }
+        }
+        catch(Exception e)
+        {
+            // ignore. The serialization will run into the same problem and report it.
+        }
+        return obj;
+    }
+
+    /**
+     * Use <code>Executors.newVirtualThreadPerTaskExecutor()</code> if this JVM provides it.
+     *
+     * @return the virtual thread executor or <code>null</code> if not available
+     */
+    protected static ExecutorService createVirtualThreadExecutor()
+    {
+        try
+        {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)factory.invoke(null);
+        }
+        catch(Exception e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Provides the serialization plans of the exported classes to the fetch threads.
+     */
+    public interface PlanSource
+    {
+
+        /**
+         * Returns the serialization plan of the given class. Called concurrently by the fetch threads.
+         *
+         * @param cls the class to get the plan for
+         *
+         * @return the serialization plan of the class or <code>null</code> if none is available
+         */
+        public ClassSerializationPlan getClassPlan(OdmaClass cls);
+
+    }
+
+    /**
+     * The outcome of fetching a single queued object.
+     */
+    public static class FetchResult
+    {
+
+        protected final String id;
+
+        protected final OdmaQName classQName;
+
+        protected final OdmaQName[] propertyNames;
+
+        protected Future<?> future;
+
+        protected volatile OdmaObject object;
+
+        protected volatile Throwable error;
+
+        protected FetchResult(String id, OdmaQName classQName, OdmaQName[] propertyNames)
+        {
+            this.id = id;
+            this.classQName = classQName;
+            this.propertyNames = propertyNames;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public OdmaQName getClassQName()
+        {
+            return classQName;
+        }
+
+        /**
+         * @return the properties to retrieve with the object or <code>null</code> if unknown. The array must not be modified.
+         */
+        public OdmaQName[] getPropertyNames()
+        {
+            return propertyNames;
+        }
+
+        /**
+         * @return the fetched object or <code>null</code> if the fetch failed
+         */
+        public OdmaObject getObject()
+        {
+            return object;
+        }
+
+        /**
+         * Set the retrieved object. Called by the {@link ObjectFetcher}.
+         */
+        public void setObject(OdmaObject object)
+        {
+            this.object = object;
+        }
+
+        /**
+         * @return the reason why the fetch failed or <code>null</code> if it succeeded or the object has not been found
+         */
+        public Throwable getError()
+        {
+            return error;
+        }
+
+        /**
+         * Set the reason why the object could not be retrieved. Called by the {@link ObjectFetcher}.
+         */
+        public void setError(Throwable error)
+        {
+            this.error = error;
+        }
+
+        /**
+         * @return true if the object does not exist in the repository
+         */
+        public boolean isNotFound()
+        {
+            return error instanceof OdmaObjectNotFoundException || (object == null && error == null);
+        }
+
+    }
+
+    private static class FetchThreadFactory implements ThreadFactory
+    {
+
+        private final AtomicInteger counter = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "XMLExporter-fetch-"+counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+
+    }
+
+}
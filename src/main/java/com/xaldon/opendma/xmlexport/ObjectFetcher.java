@@ -0,0 +1,34 @@
+package com.xaldon.opendma.xmlexport;
+
+import org.opendma.api.OdmaId;
+import org.opendma.api.OdmaSession;
+
+/**
+ * Strategy retrieving a batch of objects from the repository.
+ *
+ * <p>Implementations for back-ends that can resolve many IDs in one round-trip can be
+ * configured with the <code>ObjectFetcher</code> property. They need a public no-argument
+ * constructor. The default implementation {@link SingleObjectFetcher} retrieves the objects
+ * of a batch one by one.</p>
+ *
+ * <p>Batches are fetched concurrently by the fetch threads, so implementations must be
+ * thread-safe.</p>
+ */
+public interface ObjectFetcher
+{
+
+    /**
+     * Retrieve the objects of the given batch. For each element of the batch, the retrieved
+     * object or the reason of the failure has to be set. Elements left without object and
+     * error are reported as not found. If known, the properties that will be exported are
+     * provided by each element and should be retrieved together with the object.
+     *
+     * @param session the session to retrieve the objects from
+     * @param repositoryId the ID of the repository containing the objects
+     * @param batch the objects to retrieve, in export queue order
+     *
+     * @throws Exception if the whole batch can not be retrieved. All elements without object are reported as failed.
+     */
+    public void fetch(OdmaSession session, OdmaId repositoryId, ObjectFetchPipeline.FetchResult[] batch) throws Exception;
+
+}
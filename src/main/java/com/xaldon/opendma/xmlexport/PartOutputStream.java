@@ -0,0 +1,296 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Output stream writing to a sequence of numbered part files.
+ *
+ * <p>The part files are created next to the configured output file. For an output file
+ * <code>OpenDMA.xml</code>, the parts are named <code>OpenDMA.part00001.xml</code>,
+ * <code>OpenDMA.part00002.xml</code> and so on. The writer of the stream decides when to
+ * continue with the next part by calling {@link #nextPart(long)}, so that each part can be
+ * completed as a document of its own.</p>
+ *
+ * <p>With compression, each part is written with a {@link CompressingOutputStream} and
+ * the suffix <code>.gz</code> is appended to the name of the part.</p>
+ */
+public class PartOutputStream extends OutputStream
+{
+
+    protected final File directory;
+
+    protected final String prefix;
+
+    protected final String suffix;
+
+    protected final boolean compress;
+
+    protected final ArrayList<Part> parts = new ArrayList<Part>();
+
+    protected OutputStream current = null;
+
+    protected long currentBytes = 0;
+
+    protected long currentObjects = 0;
+
+    protected long currentStart = 0;
+
+    /**
+     * Create a new PartOutputStream and open the first part.
+     *
+     * @param outfile the output file the names of the parts are derived from
+     * @param compress write gzip compressed part files
+     *
+     * @throws IOException if the first part can not be created
+     */
+    public PartOutputStream(String outfile, boolean compress) throws IOException
+    {
+        this(new File(outfile).getAbsoluteFile(), compress);
+        openCurrent(false);
+    }
+
+    private PartOutputStream(File file, boolean compress)
+    {
+        this.compress = compress;
+        directory = file.getParentFile();
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        prefix = dot > 0 ? name.substring(0, dot) : name;
+        suffix = dot > 0 ? name.substring(dot) : "";
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        current.write(b);
+        currentBytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        current.write(b, off, len);
+        currentBytes += len;
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        current.flush();
+    }
+
+    /**
+     * @return the number of bytes written to the current part, before compression
+     */
+    public long getByteCount()
+    {
+        return currentBytes;
+    }
+
+    /**
+     * Count an object written to the current part.
+     */
+    public void countObject()
+    {
+        currentObjects++;
+    }
+
+    /**
+     * @return the number of objects written to the current part
+     */
+    public long getObjectCount()
+    {
+        return currentObjects;
+    }
+
+    /**
+     * @return the position of the writer at the beginning of the current part
+     */
+    public long getStartPosition()
+    {
+        return currentStart;
+    }
+
+    /**
+     * Complete the current part and continue with a new one. All data written so far must
+     * have been flushed to this stream.
+     *
+     * @param startPosition the position of the writer at the beginning of the new part
+     *
+     * @throws IOException if the current part can not be closed or the new one can not be created
+     */
+    public void nextPart(long startPosition) throws IOException
+    {
+        closeCurrent();
+        currentBytes = 0;
+        currentObjects = 0;
+        currentStart = startPosition;
+        openCurrent(false);
+    }
+
+    /**
+     * Complete the last part.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if(current != null)
+        {
+            closeCurrent();
+        }
+    }
+
+    /**
+     * @return all completed parts in order
+     */
+    public List<Part> getParts()
+    {
+        return Collections.unmodifiableList(parts);
+    }
+
+    /**
+     * Write the state of this stream to the given checkpoint stream. All data written so far
+     * must have been flushed to this stream.
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutputStream out) throws IOException
+    {
+        out.writeInt(parts.size());
+        for(Part part : parts)
+        {
+            out.writeUTF(part.fileName);
+            out.writeLong(part.objectCount);
+            out.writeLong(part.byteCount);
+        }
+        out.writeLong(currentBytes);
+        out.writeLong(compress ? ((CompressingOutputStream)current).sync() : currentBytes);
+        out.writeLong(currentObjects);
+        out.writeLong(currentStart);
+    }
+
+    /**
+     * Restore a stream previously written with {@link #writeTo(DataOutputStream)}. The
+     * current part is cut back to the recorded length and opened for appending.
+     *
+     * @param in the stream to read from
+     * @param outfile the output file the names of the parts are derived from
+     * @param compress write gzip compressed part files
+     *
+     * @return the restored stream
+     *
+     * @throws IOException if reading fails or the current part can not be opened
+     */
+    public static PartOutputStream readFrom(DataInputStream in, String outfile, boolean compress) throws IOException
+    {
+        PartOutputStream result = new PartOutputStream(new File(outfile).getAbsoluteFile(), compress);
+        int count = in.readInt();
+        for(int i = 0; i < count; i++)
+        {
+            String fileName = in.readUTF();
+            long objectCount = in.readLong();
+            long byteCount = in.readLong();
+            result.parts.add(new Part(fileName, objectCount, byteCount));
+        }
+        result.currentBytes = in.readLong();
+        long fileLength = in.readLong();
+        result.currentObjects = in.readLong();
+        result.currentStart = in.readLong();
+        File file = result.getCurrentFile();
+        if(file.length() < fileLength)
+        {
+            throw new IllegalStateException("Output file '"+file+"' is shorter than recorded in the checkpoint. The export can not be resumed.");
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(fileLength);
+        }
+        finally
+        {
+            raf.close();
+        }
+        result.openCurrent(true);
+        return result;
+    }
+
+    protected File getCurrentFile()
+    {
+        return new File(directory, getPartFileName(parts.size() + 1));
+    }
+
+    protected String getPartFileName(int partNumber)
+    {
+        return prefix + ".part" + String.format("%05d", partNumber) + suffix + (compress ? ".gz" : "");
+    }
+
+    protected void openCurrent(boolean append) throws IOException
+    {
+        if(compress)
+        {
+            current = new CompressingOutputStream(getCurrentFile(), append);
+        }
+        else
+        {
+            current = new FileOutputStream(getCurrentFile(), append);
+        }
+    }
+
+    protected void closeCurrent() throws IOException
+    {
+        current.close();
+        current = null;
+        parts.add(new Part(getPartFileName(parts.size() + 1), currentObjects, currentBytes));
+    }
+
+    /**
+     * A completed part file.
+     */
+    public static class Part
+    {
+
+        protected final String fileName;
+
+        protected final long objectCount;
+
+        protected final long byteCount;
+
+        public Part(String fileName, long objectCount, long byteCount)
+        {
+            this.fileName = fileName;
+            this.objectCount = objectCount;
+            this.byteCount = byteCount;
+        }
+
+        /**
+         * @return the name of the part file, relative to the directory of the output file
+         */
+        public String getFileName()
+        {
+            return fileName;
+        }
+
+        public long getObjectCount()
+        {
+            return objectCount;
+        }
+
+        public long getByteCount()
+        {
+            return byteCount;
+        }
+
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.xaldon.opendma.xmlexport;
+
+import org.opendma.api.OdmaId;
+import org.opendma.api.OdmaSession;
+
+/**
+ * Default {@link ObjectFetcher} calling <code>OdmaSession.getObject</code> for each object of a batch.
+ * The properties to be exported are passed to the session, so that they can be retrieved with the object.
+ */
+public class SingleObjectFetcher implements ObjectFetcher
+{
+
+    public void fetch(OdmaSession session, OdmaId repositoryId, ObjectFetchPipeline.FetchResult[] batch)
+    {
+        for(ObjectFetchPipeline.FetchResult result : batch)
+        {
+            try
+            {
+                result.setObject(session.getObject(repositoryId, new OdmaId(result.getId()), result.getPropertyNames()));
+            }
+            catch(Exception e)
+            {
+                result.setError(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.xaldon.opendma.xmlexport;
+
+/**
+ * Formats points in time as <code>yyyy-MM-dd'T'HH:mm:ss.SSS'Z'</code> in UTC directly into
+ * a byte array.
+ *
+ * <p>The result is identical to that of a <code>SimpleDateFormat</code> with this pattern
+ * and the UTC time zone, but no objects are created. The date part of the most recently
+ * formatted day is kept, as the timestamps of a repository often share their day.</p>
+ *
+ * <p>Only the years 1583 to 9999 are supported. Before, <code>SimpleDateFormat</code> uses
+ * the Julian calendar, and later years have more than 4 digits. Check with
+ * {@link #isSupported(long)} and use a <code>SimpleDateFormat</code> otherwise.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+public class UtcTimestampFormat
+{
+
+    /** 1583-01-01T00:00:00.000Z, the first supported point in time */
+    public static final long MIN_MILLIS = -12212553600000L;
+
+    /** 10000-01-01T00:00:00.000Z, the first point in time no longer supported */
+    public static final long MAX_MILLIS = 253402300800000L;
+
+    /** The number of bytes of a formatted timestamp */
+    public static final int LENGTH = 24;
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    /** the day since the epoch of datePrefix */
+    protected long cachedDay = Long.MIN_VALUE;
+
+    /** "yyyy-MM-ddT" of cachedDay */
+    protected final byte[] datePrefix = new byte[11];
+
+    /**
+     * @param millis the milliseconds since the epoch
+     *
+     * @return true if this format can format the given point in time
+     */
+    public static boolean isSupported(long millis)
+    {
+        return millis >= MIN_MILLIS && millis < MAX_MILLIS;
+    }
+
+    /**
+     * Format the given point in time into the buffer.
+     *
+     * @param millis the milliseconds since the epoch. Must be supported
+     * @param buffer the buffer to write to. Must have room for {@link #LENGTH} bytes
+     * @param offset the position of the first byte to write
+     *
+     * @return the position after the last byte written
+     */
+    public int format(long millis, byte[] buffer, int offset)
+    {
+        long day = Math.floorDiv(millis, MILLIS_PER_DAY);
+        if(day != cachedDay)
+        {
+            formatDate(day);
+            cachedDay = day;
+        }
+        System.arraycopy(datePrefix, 0, buffer, offset, datePrefix.length);
+        int pos = offset + datePrefix.length;
+        int millisOfDay = (int)(millis - day * MILLIS_PER_DAY);
+        int secondsOfDay = millisOfDay / 1000;
+        pos = writeTwoDigits(secondsOfDay / 3600, buffer, pos);
+        buffer[pos++] = ':';
+        pos = writeTwoDigits((secondsOfDay / 60) % 60, buffer, pos);
+        buffer[pos++] = ':';
+        pos = writeTwoDigits(secondsOfDay % 60, buffer, pos);
+        buffer[pos++] = '.';
+        int millisOfSecond = millisOfDay % 1000;
+        buffer[pos++] = (byte)('0' + millisOfSecond / 100);
+        pos = writeTwoDigits(millisOfSecond % 100, buffer, pos);
+        buffer[pos++] = 'Z';
+        return pos;
+    }
+
+    /**
+     * Fill the date prefix with the proleptic Gregorian date of the given day since the epoch.
+     * See Howard Hinnant, "chrono-Compatible Low-Level Date Algorithms", civil_from_days.
+     */
+    private void formatDate(long day)
+    {
+        // shift the epoch to 0000-03-01, so that leap days are at the end of the year
+        int z = (int)(day + 719468);
+        int era = z / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthFromMarch = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = dayOfYear - (153 * monthFromMarch + 2) / 5 + 1;
+        int month = monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        writeTwoDigits(year / 100, datePrefix, 0);
+        writeTwoDigits(year % 100, datePrefix, 2);
+        datePrefix[4] = '-';
+        writeTwoDigits(month, datePrefix, 5);
+        datePrefix[7] = '-';
+        writeTwoDigits(dayOfMonth, datePrefix, 8);
+        datePrefix[10] = 'T';
+    }
+
+    private static int writeTwoDigits(int value, byte[] buffer, int pos)
+    {
+        buffer[pos] = (byte)('0' + value / 10);
+        buffer[pos + 1] = (byte)('0' + value % 10);
+        return pos + 2;
+    }
+
+}
@@ -1,13 +1,23 @@
 package com.xaldon.opendma.xmlexport;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintStream;
-import java.text.SimpleDateFormat;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -17,7 +27,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.opendma.api.OdmaAdaptor;
@@ -32,7 +45,6 @@ import org.opendma.api.OdmaQName;
 import org.opendma.api.OdmaRepository;
 import org.opendma.api.OdmaSession;
 import org.opendma.api.OdmaType;
-import org.opendma.exceptions.OdmaObjectNotFoundException;
 
 public class XMLExporter
 {
@@ -62,10 +74,47 @@ public class XMLExporter
             System.out.println("Repository          : The ID of the repository to be exported");
             System.out.println("ExcludeClasses      : blank separated list of classnames to be excluded from export");
             System.out.println("ExcludeIds          : blank separated list of IDs of objects to be excluded from export");
-            System.out.println("Outfile             : The file where the XML export is written to. Default is OpenDMA.xml");
+            System.out.println("IncludeProperties   : blank separated list of qualified property names to be exported. Default is all properties");
+            System.out.println("ExcludeProperties   : blank separated list of qualified property names to be excluded from export");
+            System.out.println("Outfile             : The file where the export is written to. Default is OpenDMA.xml");
+            System.out.println("Format              : xml/binary Format of the export, or the name of a class implementing "+ExportSerializer.class.getName()+". Default is xml");
             System.out.println("ContentDirectory    : The directory where data files are written to. Only if ExportContent=true. Default is 'data'");
             System.out.println("ExportContent       : true/false Export also Content. Default is false");
+            System.out.println("ContentThreads      : Number of threads copying content into data files. Default is 0 (copy in export thread)");
+            System.out.println("ContentFilesPerDirectory : Maximum number of data files in one sub directory of the ContentDirectory. Default is 0 (no sub directories)");
+            System.out.println("                      At least 16 with ContentDeduplication, where the data files are spread over nested directories");
+            System.out.println("ContentDeduplication : true/false Store identical content only once, named after its SHA-256 digest. Content is then always");
+            System.out.println("                      copied by the export thread, ContentThreads has no effect. Default is false");
+            System.out.println("ContentRejectFile   : With ContentThreads, the document can reference data files that failed to be written. They are listed");
+            System.out.println("                      in this file, one name per line as in the document. Default is the Outfile with suffix .rejected");
             System.out.println("Verbose             : 0/1/2 Degree of progress messages. Default is 1");
+            System.out.println("ExpectedObjectCount : Number of objects expected to be exported. Used to size the table of exported IDs up front. Default is 0");
+            System.out.println("QueueMemoryLimit    : Maximum number of queued objects kept in memory. More are written to spill files. Default is "+ExportQueue.DEFAULT_MEMORY_LIMIT);
+            System.out.println("QueueSpillDirectory : The directory where spill files of the export queue are written to. Default is the temp directory");
+            System.out.println("CheckpointInterval  : Number of exported objects between two checkpoints. Default is 0 (no checkpoints)");
+            System.out.println("CheckpointFile      : The file where checkpoints are written to. Default is the Outfile with suffix .checkpoint");
+            System.out.println("DeltaManifest       : File with the modification times of the previous export. If set, objects that have not been");
+            System.out.println("                      modified since are left out of the export. The file is updated after the export. Default is none (full export)");
+            System.out.println("DeltaDeletionsFile  : With DeltaManifest, the IDs of the objects of the previous export that have not been found again are");
+            System.out.println("                      written to this file, one per line. Default is the Outfile with suffix .deleted");
+            System.out.println("PartMaxObjects      : Maximum number of objects in one part file. If PartMaxObjects or PartMaxBytes is set, the export is");
+            System.out.println("                      split into part files and the Outfile lists the parts. Every part starts with the class tree. Default is 0 (unlimited)");
+            System.out.println("PartMaxBytes        : Size in bytes after which the next part file is started. Default is 0 (unlimited)");
+            System.out.println("Compression         : none/gzip Compress the export and the content data files. Compressed files get the suffix .gz. Default is none");
+            System.out.println("FetchThreads        : Number of objects fetched concurrently ahead of the export. Default is 0 (no prefetching)");
+            System.out.println("FetchVirtualThreads : true/false Use virtual threads for fetching if the JVM supports them. Default is false");
+            System.out.println("ClassTreeThreads    : Number of classes of the class tree loaded concurrently. The adaptor session must support concurrent");
+            System.out.println("                      calls unless this is 0 (load in the export thread). Default is 4");
+            System.out.println("PrefetchProperties  : true/false Request all exported properties of an object when it is fetched. Default is true");
+            System.out.println("FetchBatchSize      : Number of queued objects retrieved together by the ObjectFetcher. Default is 1");
+            System.out.println("ObjectFetcher       : Class name of the strategy retrieving batches of objects. Default is "+SingleObjectFetcher.class.getName());
+            System.out.println("AdaptiveConcurrency : true/false Adapt the number of concurrent fetches and content copies between 1 and FetchThreads and");
+            System.out.println("                      ContentThreads to the latency and errors of the repository. Default is false");
+            System.out.println("AdaptiveLatencyTolerance : Factor by which the latency may exceed the lowest latency observed before the concurrency is reduced. Default is 2.0");
+            System.out.println("FetchRateLimit      : Maximum number of fetch calls per second. Default is 0 (unlimited)");
+            System.out.println("ContentRateLimit    : Maximum number of content data files read per second. Default is 0 (unlimited)");
+            System.out.println("MetricsInterval     : Seconds between two progress summary lines with throughput and latency figures. Default is 0 (none)");
+            System.out.println("MetricsJmx          : true/false Publish the export metrics as MBean "+ExportMetrics.JMX_NAME+". Default is false");
             System.exit(1);
         }
         Properties exportProperties = new Properties();
@@ -106,19 +155,136 @@ public class XMLExporter
     
     protected List<String> excludeIds = new ArrayList<String>();
     
+    protected ExclusionMatcher exclusionMatcher = null;
+    
+    protected List<Pattern> includeProperties = null;
+    
+    protected List<Pattern> excludeProperties = new ArrayList<Pattern>();
+    
     protected String outfile = null;
     
+    /** the class writing the configured format. Needs a constructor taking the XMLWriter */
+    protected Class<? extends ExportSerializer> serializerClass = XmlExportSerializer.class;
+    
     protected String contentDirectory = null;
     
     protected boolean exportContent = false;
     
+    protected int contentThreads = 0;
+    
+    protected int contentFilesPerDirectory = 0;
+    
+    protected boolean contentDeduplication = false;
+    
     protected int verbose = 1;
     
+    protected int expectedObjectCount = 0;
+    
+    protected int queueMemoryLimit = ExportQueue.DEFAULT_MEMORY_LIMIT;
+    
+    protected String queueSpillDirectory = null;
+    
+    protected int checkpointInterval = 0;
+    
+    protected String checkpointFile = null;
+    
+    /** lists the data files referenced by the document that could not be written */
+    protected String contentRejectFile = null;
+    
+    protected String deltaManifestFile = null;
+    
+    /** lists the objects of the previous export that have not been found again */
+    protected String deltaDeletionsFile = null;
+    
+    protected long partMaxObjects = 0;
+    
+    protected long partMaxBytes = 0;
+    
+    protected boolean compress = false;
+    
+    protected int fetchThreads = 0;
+    
+    protected boolean fetchVirtualThreads = false;
+    
+    protected int classTreeThreads = 4;
+    
+    protected int fetchBatchSize = 1;
+    
+    protected boolean adaptiveConcurrency = false;
+    
+    protected double adaptiveLatencyTolerance = 2.0;
+    
+    protected double fetchRateLimit = 0;
+    
+    protected double contentRateLimit = 0;
+    
+    /** limits the calls of the ObjectFetcher. <code>null</code> if not limited */
+    protected AdaptiveLimiter fetchLimiter = null;
+    
+    /** limits the content reads. <code>null</code> if not limited */
+    protected AdaptiveLimiter contentLimiter = null;
+    
+    protected int metricsInterval = 0;
+    
+    protected boolean metricsJmx = false;
+    
+    protected boolean prefetchProperties = true;
+    
+    protected ObjectFetcher objectFetcher = null;
+    
     protected int exportetContentIdCounter = 1;
     
-    protected HashMap<String,Object> exportedObjects = new HashMap<String,Object>();
+    protected IdSet exportedObjects = new IdSet();
     
-    protected LinkedHashMap<String,OdmaQName> exportQueue = new LinkedHashMap<String,OdmaQName>();
+    /** set while the repository object and the class tree are written. They do not count as objects of a part */
+    protected boolean writingPartHeader = false;
+    
+    protected ExportQueue exportQueue = null;
+    
+    protected ObjectFetchPipeline fetchPipeline = null;
+    
+    protected ContentExporter contentExporter = null;
+    
+    /** modification times of the previous export. Only used in delta mode */
+    protected DeltaManifest previousManifest = null;
+    
+    /** modification times of this export. Only used in delta mode */
+    protected DeltaManifest currentManifest = null;
+    
+    /** the manifest file of this export, written entry by entry. Only used in delta mode */
+    protected DataOutputStream manifestJournal = null;
+    
+    protected FileOutputStream manifestJournalFile = null;
+    
+    /** the prefetched property names including the modification time, by class name. Only used in delta mode */
+    protected HashMap<String,OdmaQName[]> deltaPrefetchPropertyNames = new HashMap<String,OdmaQName[]>();
+    
+    protected int unchangedObjectCount = 0;
+    
+    /** the output stream in part mode */
+    protected PartOutputStream partOutput = null;
+    
+    /** the output stream in single file mode with compression */
+    protected CompressingOutputStream compressedOutput = null;
+    
+    protected String repositoryObjectId = null;
+    
+    protected ExportMetrics metrics = new ExportMetrics();
+    
+    /** receives the document and the content instead of the file system. <code>null</code> if not used */
+    protected ExportSink sink = null;
+    
+    /** receives the progress and the messages instead of <code>System.out</code>. <code>null</code> if not used */
+    protected ExportListener listener = null;
+    
+    /** progress and error messages are written by a background thread */
+    protected AsyncLog asyncLog = new AsyncLog(System.out);
+    
+    /** serialization plans by class ID. Guarded by itself, as the fetch threads create plans as well */
+    protected HashMap<String,ClassSerializationPlan> classPlans = new HashMap<String,ClassSerializationPlan>();
+    
+    /** serialization plans by qualified class name. Guarded by {@link #classPlans} */
+    protected HashMap<String,ClassSerializationPlan> classPlansByName = new HashMap<String,ClassSerializationPlan>();
     
     /**
      * Create a new XMLExporter configured from the given properties.
@@ -130,6 +296,24 @@ public class XMLExporter
      */
     public XMLExporter(Properties props) throws Exception
     {
+        this(props, null, null);
+    }
+    
+    /**
+     * Create a new XMLExporter configured from the given properties, writing to the given
+     * sink instead of the file system. See {@link XMLExporterBuilder}.
+     * 
+     * @param props the Properties to get the configuration from
+     * @param sink the sink receiving the document and the content data files or <code>null</code> to write to the file system
+     * @param listener the listener receiving the progress and the messages instead of <code>System.out</code> or <code>null</code>
+     * 
+     * @throws NullPointerException if props is <code>null</code>
+     * @throws IllegalArgumentException if the configuration is not valid
+     */
+    public XMLExporter(Properties props, ExportSink sink, ExportListener listener) throws Exception
+    {
+        this.sink = sink;
+        this.listener = listener;
         // assemble session properties and set system properties
         Iterator<Entry<Object,Object>> itPropEntries = props.entrySet().iterator();
         while(itPropEntries.hasNext())
@@ -148,10 +332,6 @@ public class XMLExporter
         }
         // configure from properties
         adaptorSystemId = props.getProperty("AdaptorSystemId");
-        if(adaptorSystemId == null)
-        {
-            throw new IllegalArgumentException("Missing AdaptorSystemId.");
-        }
         repositoryId = props.getProperty("Repository","");
         String excludeClassesConfig = props.getProperty("ExcludeClasses");
         if(excludeClassesConfig != null)
@@ -171,7 +351,51 @@ public class XMLExporter
                 excludeIds.add(excludedId);
             }
         }
+        exclusionMatcher = new ExclusionMatcher(excludeIds, excludeClasses);
+        String includePropertiesConfig = props.getProperty("IncludeProperties");
+        if(includePropertiesConfig != null)
+        {
+            includeProperties = new ArrayList<Pattern>();
+            String[] includePropertiesList = includePropertiesConfig.split(" ");
+            for(String patternString : includePropertiesList)
+            {
+                includeProperties.add(Pattern.compile(patternString));
+            }
+        }
+        String excludePropertiesConfig = props.getProperty("ExcludeProperties");
+        if(excludePropertiesConfig != null)
+        {
+            String[] excludePropertiesList = excludePropertiesConfig.split(" ");
+            for(String patternString : excludePropertiesList)
+            {
+                excludeProperties.add(Pattern.compile(patternString));
+            }
+        }
         outfile = props.getProperty("Outfile","OpenDMA.xml");
+        String formatConfig = props.getProperty("Format");
+        if(formatConfig != null)
+        {
+            if(formatConfig.equalsIgnoreCase("xml"))
+            {
+                serializerClass = XmlExportSerializer.class;
+            }
+            else if(formatConfig.equalsIgnoreCase("binary"))
+            {
+                serializerClass = BinaryExportSerializer.class;
+            }
+            else
+            {
+                try
+                {
+                    serializerClass = Class.forName(formatConfig).asSubclass(ExportSerializer.class);
+                    serializerClass.getConstructor(XMLWriter.class);
+                }
+                catch(Exception e)
+                {
+                    throw new IllegalArgumentException("Invalid value for Format. Possible values are 'xml', 'binary' or the name of a class implementing "+ExportSerializer.class.getName()+" with a constructor taking the "+XMLWriter.class.getName(), e);
+                }
+            }
+        }
         contentDirectory = props.getProperty("ContentDirectory","data");
         String exportContentConfig = props.getProperty("ExportContent");
         if(exportContentConfig != null)
@@ -189,446 +413,1831 @@ public class XMLExporter
                 throw new IllegalArgumentException("Invalid value for ExportContent configuration property. Possible values are 'true' or 'false'");
             }
         }
-        String verboseConfig = props.getProperty("Verbose");
-        if(verboseConfig != null)
+        String contentThreadsConfig = props.getProperty("ContentThreads");
+        if(contentThreadsConfig != null)
         {
             try
             {
-                verbose = Integer.parseInt(verboseConfig);
+                contentThreads = Integer.parseInt(contentThreadsConfig);
             }
             catch(NumberFormatException nfe)
             {
-                throw new IllegalArgumentException("Invalid value for Verbose. Possible values are 0,1,2");
+                contentThreads = -1;
+            }
+            if(contentThreads < 0)
+            {
+                throw new IllegalArgumentException("Invalid value for ContentThreads. Must be a non-negative number");
             }
         }
-    }
-    
-    public void runExport() throws Exception
-    {
-        // establish session
-        OdmaAdaptorDiscovery adaptorDiscovery = new OdmaAdaptorDiscovery();
-        OdmaAdaptor adaptor = adaptorDiscovery.getAdaptor(adaptorSystemId);
-        if(adaptor == null)
+        String contentFilesPerDirectoryConfig = props.getProperty("ContentFilesPerDirectory");
+        if(contentFilesPerDirectoryConfig != null)
         {
-            throw new IllegalArgumentException("No OpenDMA  Adaptor available on classpath for systemId: "+adaptorSystemId);
+            try
+            {
+                contentFilesPerDirectory = Integer.parseInt(contentFilesPerDirectoryConfig);
+            }
+            catch(NumberFormatException nfe)
+            {
+                contentFilesPerDirectory = -1;
+            }
+            if(contentFilesPerDirectory < 0)
+            {
+                throw new IllegalArgumentException("Invalid value for ContentFilesPerDirectory. Must be a non-negative number");
+            }
         }
-        OdmaSession session = adaptor.connect(sessionProperties);
-        // get the repository to be exported
-        OdmaRepository repo = session.getRepository(new OdmaId(repositoryId));
-        // create output file
-        PrintStream outStream = new PrintStream(new FileOutputStream(outfile),false,"UTF-8");
-        // perform the export
-        if(verbose > 0)
+        String contentDeduplicationConfig = props.getProperty("ContentDeduplication");
+        if(contentDeduplicationConfig != null)
         {
-            System.out.println("Performing export...");
+            if(contentDeduplicationConfig.equalsIgnoreCase("true"))
+            {
+                contentDeduplication = true;
+            }
+            else if(contentDeduplicationConfig.equalsIgnoreCase("false"))
+            {
+                contentDeduplication = false;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Invalid value for ContentDeduplication configuration property. Possible values are 'true' or 'false'");
+            }
         }
-        doExport(outStream, session, repo);
-        if(verbose > 0)
+        if(contentDeduplication && contentFilesPerDirectory > 0 && contentFilesPerDirectory < ContentExporter.MIN_DIGEST_FILES_PER_DIRECTORY)
         {
-            System.out.println("Export finished.");
+            throw new IllegalArgumentException("Invalid value for ContentFilesPerDirectory. Must be 0 or at least "+ContentExporter.MIN_DIGEST_FILES_PER_DIRECTORY+" with ContentDeduplication");
         }
-        // flush and close output stream
-        outStream.flush();
-        outStream.close();
-    }
-    
-    public void doExport(PrintStream out, OdmaSession session, OdmaRepository repo) throws Exception
-    {
-        // print header of XML file
-        out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-        out.println("<OdmaXmlRepository xmlns=\"http://www.opendma.org/XMLRepository\" repositoryObjectId=\""+repo.getId().toString()+"\">");
-        // export the repository object itself
-        if(verbose > 0)
+        String verboseConfig = props.getProperty("Verbose");
+        if(verboseConfig != null)
         {
-            System.out.println("Exporting Repository object...");
+            try
+            {
+                verbose = Integer.parseInt(verboseConfig);
+            }
+            catch(NumberFormatException nfe)
+            {
+                throw new IllegalArgumentException("Invalid value for Verbose. Possible values are 0,1,2");
+            }
         }
-        dumpObject(out,repo);
-        // export the class tree
-        dumpClassTreeIter(out,repo.getRootClass());
-        repo = null;
-        if(verbose > 0)
+        String expectedObjectCountConfig = props.getProperty("ExpectedObjectCount");
+        if(expectedObjectCountConfig != null)
         {
-            System.out.println("Exporting referenced objects...");
+            try
+            {
+                expectedObjectCount = Integer.parseInt(expectedObjectCountConfig);
+            }
+            catch(NumberFormatException nfe)
+            {
+                expectedObjectCount = -1;
+            }
+            if(expectedObjectCount < 0)
+            {
+                throw new IllegalArgumentException("Invalid value for ExpectedObjectCount. Must be a non-negative number");
+            }
+            exportedObjects = new IdSet(expectedObjectCount);
         }
-        while(exportQueue.size() > 0)
+        String queueMemoryLimitConfig = props.getProperty("QueueMemoryLimit");
+        if(queueMemoryLimitConfig != null)
         {
-            // get first entry
-            Map.Entry<String, OdmaQName> e = exportQueue.entrySet().iterator().next();
-            exportQueue.remove(e.getKey());
-            if(verbose > 0)
+            try
+            {
+                queueMemoryLimit = Integer.parseInt(queueMemoryLimitConfig);
+            }
+            catch(NumberFormatException nfe)
+            {
+                queueMemoryLimit = -1;
+            }
+            if(queueMemoryLimit < 2)
             {
-                System.out.println("Exporting referenced object "+e.getKey()+" ("+e.getValue()+")");
+                throw new IllegalArgumentException("Invalid value for QueueMemoryLimit. Must be a number of at least 2");
             }
+        }
+        queueSpillDirectory = props.getProperty("QueueSpillDirectory");
+        exportQueue = new ExportQueue(queueSpillDirectory != null ? new File(queueSpillDirectory) : null, queueMemoryLimit, new IdSet());
+        String checkpointIntervalConfig = props.getProperty("CheckpointInterval");
+        if(checkpointIntervalConfig != null)
+        {
             try
             {
-                OdmaObject refObj = session.getObject(new OdmaId(repositoryId), new OdmaId(e.getKey()), null);
-                dumpObject(out,refObj);
+                checkpointInterval = Integer.parseInt(checkpointIntervalConfig);
             }
-            catch(OdmaObjectNotFoundException onfe)
+            catch(NumberFormatException nfe)
             {
-                System.out.println("  Error: object not found.");
+                checkpointInterval = -1;
             }
-            catch(Exception ex)
+            if(checkpointInterval < 0)
             {
-                System.out.println("  Error getting object:");
-                ex.printStackTrace(System.out);
+                throw new IllegalArgumentException("Invalid value for CheckpointInterval. Must be a non-negative number");
             }
         }
-        // print footer of XML file
-        out.println("</OdmaXmlRepository>");
-    }
-    
-    public void dumpObject(PrintStream out, OdmaObject obj) throws Exception
-    {
-        exportQueue.remove(obj.getId().toString());
-        if(exportedObjects.containsKey(obj.getId().toString()))
+        checkpointFile = props.getProperty("CheckpointFile",outfile+".checkpoint");
+        contentRejectFile = props.getProperty("ContentRejectFile",outfile+".rejected");
+        deltaManifestFile = props.getProperty("DeltaManifest");
+        deltaDeletionsFile = props.getProperty("DeltaDeletionsFile",outfile+".deleted");
+        String partMaxObjectsConfig = props.getProperty("PartMaxObjects");
+        if(partMaxObjectsConfig != null)
         {
-            System.out.println("WARNING: tried to export an already exported object: "+obj.getId().toString());
-            return;
+            try
+            {
+                partMaxObjects = Long.parseLong(partMaxObjectsConfig);
+            }
+            catch(NumberFormatException nfe)
+            {
+                partMaxObjects = -1;
+            }
+            if(partMaxObjects < 0)
+            {
+                throw new IllegalArgumentException("Invalid value for PartMaxObjects. Must be a non-negative number");
+            }
         }
-        if(verbose >= 2)
+        String partMaxBytesConfig = props.getProperty("PartMaxBytes");
+        if(partMaxBytesConfig != null)
         {
-            System.out.println("    > "+obj.getId());
+            try
+            {
+                partMaxBytes = Long.parseLong(partMaxBytesConfig);
+            }
+            catch(NumberFormatException nfe)
+            {
+                partMaxBytes = -1;
+            }
+            if(partMaxBytes < 0)
+            {
+                throw new IllegalArgumentException("Invalid value for PartMaxBytes. Must be a non-negative number");
+            }
         }
-        exportedObjects.put(obj.getId().toString(), null);
-        LinkedHashMap<String,OdmaObject> nonRetrievableObjects = new LinkedHashMap<String,OdmaObject>();
-        out.println("    <OdmaObject classNamespace=\""+obj.getOdmaClass().getNamespace()+"\" className=\""+obj.getOdmaClass().getName()+"\">");
-        Iterable<OdmaPropertyInfo> props = obj.getOdmaClass().getProperties();
-        if(props != null)
+        String compressionConfig = props.getProperty("Compression");
+        if(compressionConfig != null)
         {
-            Iterator<?> it = props.iterator();
-            while(it.hasNext())
+            if(compressionConfig.equalsIgnoreCase("gzip"))
             {
-                OdmaPropertyInfo pi = (OdmaPropertyInfo)it.next();
-                if(verbose >= 2)
-                {
-                    System.out.println("        > "+pi.getQName());
-                }
-                try
-                {
-                    dumpProperty(out, pi, obj, nonRetrievableObjects);
-                }
-                catch(Exception e)
-                {
-                    System.out.println("----> Error dumping property "+pi.getQName()+" of object "+obj.getId());
-                    e.printStackTrace(System.out);
-                }
+                compress = true;
+            }
+            else if(compressionConfig.equalsIgnoreCase("none"))
+            {
+                compress = false;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Invalid value for Compression configuration property. Possible values are 'none' or 'gzip'");
             }
         }
-        out.println("    </OdmaObject>");
-        obj = null;
-        while(nonRetrievableObjects.size() > 0)
+        String fetchThreadsConfig = props.getProperty("FetchThreads");
+        if(fetchThreadsConfig != null)
         {
-            Entry<String,OdmaObject> nroEntry = nonRetrievableObjects.entrySet().iterator().next();
-            OdmaObject volObj = nroEntry.getValue();
-            nonRetrievableObjects.remove(nroEntry.getKey());
-            if(exportQueue.containsKey(volObj.getId().toString()))
+            try
             {
-                System.out.println("WARNING: ID of non-retrieval object has been found in the export queue. This is an indicator for duplicate IDs in the repository.");
+                fetchThreads = Integer.parseInt(fetchThreadsConfig);
             }
-            if(exportedObjects.containsKey(volObj.getId().toString()))
+            catch(NumberFormatException nfe)
             {
-                System.out.println("WARNING: tried to export an already exported object: "+volObj.getId().toString());
-                return;
+                fetchThreads = -1;
             }
-            if(verbose >= 2)
+            if(fetchThreads < 0)
             {
-                System.out.println("    >> "+volObj.getId()+" ("+volObj.getOdmaClass().getQName()+")");
+                throw new IllegalArgumentException("Invalid value for FetchThreads. Must be a non-negative number");
             }
-            exportedObjects.put(volObj.getId().toString(), null);
-            out.println("    <OdmaObject classNamespace=\""+volObj.getOdmaClass().getNamespace()+"\" className=\""+volObj.getOdmaClass().getName()+"\">");
-            props = volObj.getOdmaClass().getProperties();
-            if(props != null)
+        }
+        String fetchVirtualThreadsConfig = props.getProperty("FetchVirtualThreads");
+        if(fetchVirtualThreadsConfig != null)
+        {
+            if(fetchVirtualThreadsConfig.equalsIgnoreCase("true"))
             {
-                Iterator<?> it = props.iterator();
-                while(it.hasNext())
-                {
-                    OdmaPropertyInfo pi = (OdmaPropertyInfo)it.next();
-                    if(verbose >= 2)
-                    {
-                        System.out.println("        >> "+pi.getQName());
-                    }
-                    try
-                    {
-                        dumpProperty(out, pi, volObj, nonRetrievableObjects);
-                    }
-                    catch(Exception e)
-                    {
-                        System.out.println("----> Error dumping property "+pi.getQName()+" of non-retrievable object "+volObj.getId());
-                        e.printStackTrace(System.out);
-                    }
-                }
+                fetchVirtualThreads = true;
+            }
+            else if(fetchVirtualThreadsConfig.equalsIgnoreCase("false"))
+            {
+                fetchVirtualThreads = false;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Invalid value for FetchVirtualThreads configuration property. Possible values are 'true' or 'false'");
             }
-            out.println("    </OdmaObject>");
         }
-    }
-    
-    public void dumpProperty(PrintStream out, OdmaPropertyInfo pi, OdmaObject obj, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws Exception
-    {
-        if(pi.getDataType() == OdmaType.GUID.getNumericId())
+        String classTreeThreadsConfig = props.getProperty("ClassTreeThreads");
+        if(classTreeThreadsConfig != null)
         {
-            return;
+            try
+            {
+                classTreeThreads = Integer.parseInt(classTreeThreadsConfig);
+            }
+            catch(NumberFormatException nfe)
+            {
+                classTreeThreads = -1;
+            }
+            if(classTreeThreads < 0)
+            {
+                throw new IllegalArgumentException("Invalid value for ClassTreeThreads. Must be a non-negative number");
+            }
         }
-        String typeName = datatypeValues.get(new Integer(pi.getDataType()));
-        if(typeName == null)
+        String fetchBatchSizeConfig = props.getProperty("FetchBatchSize");
+        if(fetchBatchSizeConfig != null)
         {
-            throw new RuntimeException("no data type for "+pi.getDataType());
+            try
+            {
+                fetchBatchSize = Integer.parseInt(fetchBatchSizeConfig);
+            }
+            catch(NumberFormatException nfe)
+            {
+                fetchBatchSize = -1;
+            }
+            if(fetchBatchSize < 1)
+            {
+                throw new IllegalArgumentException("Invalid value for FetchBatchSize. Must be a positive number");
+            }
         }
-        out.print("        <Property namespace=\""+pi.getNamespace()+"\" name=\""+pi.getName()+"\" type=\""+typeName+"\" multiValue=\""+(pi.isMultiValue()?"true":"false")+"\">");
-        try
+        String prefetchPropertiesConfig = props.getProperty("PrefetchProperties");
+        if(prefetchPropertiesConfig != null)
         {
-            OdmaProperty prop = obj.getProperty(pi.getQName());
-            dumpPropertyValues(out,prop,pi,nonRetrievableObjects);
+            if(prefetchPropertiesConfig.equalsIgnoreCase("true"))
+            {
+                prefetchProperties = true;
+            }
+            else if(prefetchPropertiesConfig.equalsIgnoreCase("false"))
+            {
+                prefetchProperties = false;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Invalid value for PrefetchProperties configuration property. Possible values are 'true' or 'false'");
+            }
         }
-        catch(Exception e)
+        String adaptiveConcurrencyConfig = props.getProperty("AdaptiveConcurrency");
+        if(adaptiveConcurrencyConfig != null)
         {
-            System.out.println("----> Error dumping value of property "+pi.getQName()+" of object "+obj.getId()+" ("+obj.getOdmaClass().getQName()+")");
-            e.printStackTrace(System.out);
+            if(adaptiveConcurrencyConfig.equalsIgnoreCase("true"))
+            {
+                adaptiveConcurrency = true;
+            }
+            else if(adaptiveConcurrencyConfig.equalsIgnoreCase("false"))
+            {
+                adaptiveConcurrency = false;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Invalid value for AdaptiveConcurrency configuration property. Possible values are 'true' or 'false'");
+            }
         }
-        out.println("</Property>");
-    }
-    
-    public void dumpPropertyValues(PrintStream out, OdmaProperty prop, OdmaPropertyInfo pi, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws Exception
-    {
+        String adaptiveLatencyToleranceConfig = props.getProperty("AdaptiveLatencyTolerance");
+        if(adaptiveLatencyToleranceConfig != null)
+        {
+            try
+            {
+                adaptiveLatencyTolerance = Double.parseDouble(adaptiveLatencyToleranceConfig);
+            }
+            catch(NumberFormatException nfe)
+            {
+                adaptiveLatencyTolerance = Double.NaN;
+            }
+            if(!(adaptiveLatencyTolerance > 1) || Double.isInfinite(adaptiveLatencyTolerance))
+            {
+                throw new IllegalArgumentException("Invalid value for AdaptiveLatencyTolerance. Must be a number greater than 1");
+            }
+        }
+        fetchRateLimit = parseRateLimit(props, "FetchRateLimit");
+        contentRateLimit = parseRateLimit(props, "ContentRateLimit");
+        if(adaptiveConcurrency || fetchRateLimit > 0)
+        {
+            fetchLimiter = new AdaptiveLimiter(Math.max(fetchThreads, 1), adaptiveConcurrency, adaptiveLatencyTolerance, fetchRateLimit);
+        }
+        if(exportContent && (adaptiveConcurrency || contentRateLimit > 0))
+        {
+            contentLimiter = new AdaptiveLimiter(Math.max(contentThreads, 1), adaptiveConcurrency, adaptiveLatencyTolerance, contentRateLimit);
+        }
+        metrics.setLimiters(fetchLimiter, contentLimiter);
+        if(sink != null)
+        {
+            if(checkpointInterval > 0)
+            {
+                throw new IllegalArgumentException("CheckpointInterval is not possible with an ExportSink");
+            }
+            if(isPartMode())
+            {
+                throw new IllegalArgumentException("PartMaxObjects and PartMaxBytes are not possible with an ExportSink");
+            }
+            if(contentDeduplication)
+            {
+                throw new IllegalArgumentException("ContentDeduplication is not possible with an ExportSink");
+            }
+        }
+        String metricsIntervalConfig = props.getProperty("MetricsInterval");
+        if(metricsIntervalConfig != null)
+        {
+            try
+            {
+                metricsInterval = Integer.parseInt(metricsIntervalConfig);
+            }
+            catch(NumberFormatException nfe)
+            {
+                metricsInterval = -1;
+            }
+            if(metricsInterval < 0)
+            {
+                throw new IllegalArgumentException("Invalid value for MetricsInterval. Must be a non-negative number");
+            }
+        }
+        String metricsJmxConfig = props.getProperty("MetricsJmx");
+        if(metricsJmxConfig != null)
+        {
+            if(metricsJmxConfig.equalsIgnoreCase("true"))
+            {
+                metricsJmx = true;
+            }
+            else if(metricsJmxConfig.equalsIgnoreCase("false"))
+            {
+                metricsJmx = false;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Invalid value for MetricsJmx configuration property. Possible values are 'true' or 'false'");
+            }
+        }
+        String objectFetcherConfig = props.getProperty("ObjectFetcher");
+        if(objectFetcherConfig != null)
+        {
+            try
+            {
+                objectFetcher = Class.forName(objectFetcherConfig).asSubclass(ObjectFetcher.class).getConstructor().newInstance();
+            }
+            catch(InvocationTargetException ite)
+            {
+                throw new IllegalArgumentException("Can not create ObjectFetcher "+objectFetcherConfig, ite.getCause());
+            }
+            catch(Exception e)
+            {
+                throw new IllegalArgumentException("Invalid value for ObjectFetcher. Must be the name of a class implementing "+ObjectFetcher.class.getName(), e);
+            }
+        }
+        else
+        {
+            objectFetcher = new SingleObjectFetcher();
+        }
+    }
+    
+    private static double parseRateLimit(Properties props, String key)
+    {
+        String config = props.getProperty(key);
+        if(config == null)
+        {
+            return 0;
+        }
+        double rate;
+        try
+        {
+            rate = Double.parseDouble(config);
+        }
+        catch(NumberFormatException nfe)
+        {
+            rate = -1;
+        }
+        if(!(rate >= 0) || Double.isInfinite(rate))
+        {
+            throw new IllegalArgumentException("Invalid value for "+key+". Must be a non-negative number");
+        }
+        return rate;
+    }
+    
+    public void runExport() throws Exception
+    {
+        if(adaptorSystemId == null)
+        {
+            throw new IllegalArgumentException("Missing AdaptorSystemId.");
+        }
+        // establish session
+        OdmaAdaptorDiscovery adaptorDiscovery = new OdmaAdaptorDiscovery();
+        OdmaAdaptor adaptor = adaptorDiscovery.getAdaptor(adaptorSystemId);
+        if(adaptor == null)
+        {
+            throw new IllegalArgumentException("No OpenDMA  Adaptor available on classpath for systemId: "+adaptorSystemId);
+        }
+        OdmaSession session = adaptor.connect(sessionProperties);
+        runExport(session);
+    }
+    
+    /**
+     * Run the export on an already established session, e.g. of an adaptor not registered
+     * for discovery.
+     * 
+     * @param session the session to export the repository from
+     * 
+     * @throws Exception if the export fails
+     */
+    public void runExport(OdmaSession session) throws Exception
+    {
+        ScheduledExecutorService metricsReporter = startMetrics();
+        try
+        {
+            performExport(session);
+        }
+        finally
+        {
+            stopMetrics(metricsReporter);
+        }
+    }
+    
+    protected void performExport(OdmaSession session) throws Exception
+    {
+        if(deltaManifestFile != null)
+        {
+            readDeltaManifest();
+        }
+        ExportSerializer out = null;
+        try
+        {
+            if(checkpointInterval > 0 && new File(checkpointFile).exists())
+            {
+                // continue an interrupted export from the last checkpoint
+                long position = readCheckpoint();
+                out = createSerializer(openOutputForResume(position));
+                out.readState(new DataInputStream(new ByteArrayInputStream(serializerState)));
+                serializerState = null;
+                if(verbose > 0)
+                {
+                    log("Resuming export from checkpoint at "+exportedObjects.size()+" exported objects...");
+                }
+                resumeExport(out, session);
+                if(verbose > 0)
+                {
+                    log("Export finished.");
+                }
+            }
+            else
+            {
+                // get the repository to be exported
+                OdmaRepository repo = session.getRepository(new OdmaId(repositoryId));
+                // create output file. Rejected content of a previous export is obsolete.
+                if(sink == null)
+                {
+                    new File(contentRejectFile).delete();
+                }
+                out = createSerializer(openOutput());
+                if(deltaManifestFile != null)
+                {
+                    openManifestJournal(0);
+                }
+                // perform the export
+                if(verbose > 0)
+                {
+                    log("Performing export...");
+                }
+                doExport(out, session, repo);
+                if(verbose > 0)
+                {
+                    log("Export finished.");
+                }
+            }
+            // flush and close output
+            ExportSerializer completed = out;
+            out = null;
+            completed.close();
+        }
+        finally
+        {
+            if(out != null && sink == null)
+            {
+                // after a failure, stop the compression thread before a resumed export cuts
+                // the output back to the checkpoint
+                closeAfterFailure(out);
+            }
+            // also after a failure. A checkpoint does not need the spill files
+            exportQueue.close();
+        }
+        if(partOutput != null)
+        {
+            writePartManifest();
+        }
+        if(deltaManifestFile != null)
+        {
+            writeDeltaManifest();
+        }
+        if(checkpointInterval > 0)
+        {
+            new File(checkpointFile).delete();
+        }
+    }
+    
+    /**
+     * Register the metrics with JMX and start the periodic summary, as far as configured.
+     * 
+     * @return the executor printing the summary or <code>null</code>
+     */
+    protected ScheduledExecutorService startMetrics() throws Exception
+    {
+        if(metricsJmx)
+        {
+            metrics.registerMBean();
+        }
+        if(metricsInterval <= 0)
+        {
+            return null;
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "XMLExporter-metrics");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        reporter.scheduleAtFixedRate(new Runnable()
+        {
+            public void run()
+            {
+                log("Progress: "+metrics.getSummary());
+            }
+        }, metricsInterval, metricsInterval, TimeUnit.SECONDS);
+        return reporter;
+    }
+    
+    protected void stopMetrics(ScheduledExecutorService reporter)
+    {
+        if(reporter != null)
+        {
+            reporter.shutdownNow();
+        }
+        if(verbose > 0 || reporter != null)
+        {
+            log("Statistics: "+metrics.getSummary());
+        }
+        metrics.unregisterMBean();
+        asyncLog.flush();
+    }
+    
+    public void doExport(ExportSerializer out, OdmaSession session, OdmaRepository repo) throws Exception
+    {
+        // print header of the document
+        repositoryObjectId = repo.getId().toString();
+        out.startDocument(repositoryObjectId);
+        // export the repository object itself
+        if(verbose > 0)
+        {
+            log("Exporting Repository object...");
+        }
+        writingPartHeader = true;
+        try
+        {
+            dumpObject(out,repo);
+            // export the class tree
+            dumpClassTree(out,repo.getRootClass());
+        }
+        finally
+        {
+            writingPartHeader = false;
+        }
+        repo = null;
+        if(verbose > 0)
+        {
+            log("Exporting referenced objects...");
+        }
+        dumpQueuedObjects(out, session);
+        finishExport(out);
+    }
+    
+    /**
+     * Continue an export that has been restored from a checkpoint. The output must be
+     * positioned at the end of the last object written before the checkpoint.
+     * 
+     * @param out the serializer continuing the document
+     * @param session the session to fetch the queued objects from
+     * 
+     * @throws Exception if the export fails
+     */
+    public void resumeExport(ExportSerializer out, OdmaSession session) throws Exception
+    {
+        dumpQueuedObjects(out, session);
+        finishExport(out);
+    }
+    
+    /**
+     * Create the serializer of the configured format.
+     * 
+     * @param out the writer of the export
+     * 
+     * @return the serializer writing to the given writer
+     */
+    protected ExportSerializer createSerializer(XMLWriter out)
+    {
+        try
+        {
+            return serializerClass.getConstructor(XMLWriter.class).newInstance(out);
+        }
+        catch(InvocationTargetException ite)
+        {
+            throw new IllegalStateException("Can not create serializer "+serializerClass.getName(), ite.getCause());
+        }
+        catch(ReflectiveOperationException roe)
+        {
+            throw new IllegalStateException("Can not create serializer "+serializerClass.getName(), roe);
+        }
+    }
+    
+    protected void dumpQueuedObjects(ExportSerializer out, OdmaSession session) throws Exception
+    {
+        int objectsSinceCheckpoint = 0;
+        ObjectFetchPipeline.PlanSource planSource = new ObjectFetchPipeline.PlanSource()
+        {
+            public ClassSerializationPlan getClassPlan(OdmaClass cls)
+            {
+                return XMLExporter.this.getClassPlan(cls);
+            }
+        };
+        fetchPipeline = new ObjectFetchPipeline(session, new OdmaId(repositoryId), fetchThreads, fetchVirtualThreads, objectFetcher, fetchBatchSize, metrics, fetchLimiter, planSource);
+        try
+        {
+            while(!exportQueue.isEmpty() || !fetchPipeline.isEmpty())
+            {
+                // stop fetching ahead when a checkpoint is due, so that no object is in flight
+                boolean checkpointDue = checkpointInterval > 0 && objectsSinceCheckpoint >= checkpointInterval;
+                // keep the fetch pipeline filled with the first entries of the queue
+                while(!checkpointDue && !exportQueue.isEmpty() && !fetchPipeline.isFull())
+                {
+                    ExportQueue.Entry e = exportQueue.poll();
+                    if(exportedObjects.contains(e.getId()))
+                    {
+                        // has been exported in the meantime, e.g. with the class tree
+                        continue;
+                    }
+                    fetchPipeline.submit(e.getId(), e.getClassQName(), getPrefetchPropertyNames(e.getClassQName()));
+                }
+                if(fetchPipeline.isEmpty())
+                {
+                    if(checkpointDue)
+                    {
+                        writeCheckpoint(out);
+                        objectsSinceCheckpoint = 0;
+                    }
+                    continue;
+                }
+                // export the oldest fetched object
+                ObjectFetchPipeline.FetchResult fetched = fetchPipeline.next();
+                if(verbose > 0)
+                {
+                    log("Exporting referenced object "+fetched.getId()+" ("+fetched.getClassQName()+")");
+                }
+                if(fetched.isNotFound())
+                {
+                    metrics.recordError();
+                    log("  Error: object not found.");
+                    // retried if it is referenced again
+                    exportQueue.markFailed(fetched.getId());
+                }
+                else if(fetched.getError() != null)
+                {
+                    metrics.recordError();
+                    log("  Error getting object:");
+                    logStackTrace(fetched.getError());
+                    exportQueue.markFailed(fetched.getId());
+                }
+                else
+                {
+                    try
+                    {
+                        if(isUnchanged(fetched.getObject()))
+                        {
+                            // not written, but its references might lead to modified objects
+                            skipObject(fetched.getObject());
+                        }
+                        else
+                        {
+                            if(partOutput != null && isPartFull(out))
+                            {
+                                startNextPart(out, session);
+                            }
+                            dumpObject(out,fetched.getObject());
+                        }
+                    }
+                    catch(IOException ioe)
+                    {
+                        throw ioe;
+                    }
+                    catch(Exception ex)
+                    {
+                        metrics.recordError();
+                        log("  Error getting object:");
+                        logStackTrace(ex);
+                    }
+                }
+                objectsSinceCheckpoint++;
+                metrics.update(out.getPosition(), exportQueue.size());
+                if(listener != null)
+                {
+                    listener.progress(metrics);
+                }
+            }
+        }
+        finally
+        {
+            fetchPipeline.shutdown();
+            fetchPipeline = null;
+        }
+    }
+    
+    protected void finishExport(ExportSerializer out) throws Exception
+    {
+        // wait for all content to be written
+        if(contentExporter != null)
+        {
+            if(verbose > 0)
+            {
+                log("Waiting for content export to complete...");
+            }
+            int failedContent = contentExporter.finish();
+            writeRejectedContent(contentExporter.takeFailedFiles());
+            for(int i = 0; i < failedContent; i++)
+            {
+                metrics.recordError();
+            }
+            if(failedContent > 0)
+            {
+                log("WARNING: "+failedContent+" content data files could not be written."+(sink == null ? " They are listed in "+contentRejectFile : ""));
+            }
+            if(verbose > 0 && contentDeduplication)
+            {
+                log("Skipped "+contentExporter.getDuplicateCount()+" duplicate content data files ("+contentExporter.getDuplicateBytes()+" bytes).");
+            }
+            contentExporter = null;
+        }
+        if(verbose > 0 && currentManifest != null)
+        {
+            log("Skipped "+unchangedObjectCount+" objects not modified since the previous export. "+previousManifest.countMissingIn(currentManifest)+" objects of the previous export have not been found again.");
+        }
+        // print footer of the document
+        out.endDocument();
+        metrics.update(out.getPosition(), exportQueue.size());
+        asyncLog.flush();
+    }
+    
+    public void dumpObject(ExportSerializer out, OdmaObject obj) throws Exception
+    {
+        if(exportedObjects.contains(obj.getId().toString()))
+        {
+            log("WARNING: tried to export an already exported object: "+obj.getId().toString());
+            return;
+        }
+        if(verbose >= 2)
+        {
+            log("    > "+obj.getId());
+        }
+        exportedObjects.add(obj.getId().toString());
+        LinkedHashMap<String,OdmaObject> nonRetrievableObjects = new LinkedHashMap<String,OdmaObject>();
+        dumpProperties(out, obj, getClassPlan(obj.getOdmaClass()), nonRetrievableObjects, "        > ", "object ");
+        obj = null;
+        while(nonRetrievableObjects.size() > 0)
+        {
+            Entry<String,OdmaObject> nroEntry = nonRetrievableObjects.entrySet().iterator().next();
+            OdmaObject volObj = nroEntry.getValue();
+            nonRetrievableObjects.remove(nroEntry.getKey());
+            if(exportQueue.contains(volObj.getId().toString()))
+            {
+                log("WARNING: ID of non-retrieval object has been found in the export queue. This is an indicator for duplicate IDs in the repository.");
+            }
+            if(exportedObjects.contains(volObj.getId().toString()))
+            {
+                log("WARNING: tried to export an already exported object: "+volObj.getId().toString());
+                return;
+            }
+            if(verbose >= 2)
+            {
+                log("    >> "+volObj.getId()+" ("+volObj.getOdmaClass().getQName()+")");
+            }
+            exportedObjects.add(volObj.getId().toString());
+            dumpProperties(out, volObj, getClassPlan(volObj.getOdmaClass()), nonRetrievableObjects, "        >> ", "non-retrievable object ");
+        }
+    }
+    
+    /**
+     * Write the given object with all properties of its class plan.
+     */
+    protected void dumpProperties(ExportSerializer out, OdmaObject obj, ClassSerializationPlan plan, LinkedHashMap<String,OdmaObject> nonRetrievableObjects, String progressPrefix, String errorLabel) throws Exception
+    {
+        writeObjectStart(out, plan);
+        for(int i = 0; i < plan.size(); i++)
+        {
+            metrics.recordProperty();
+            if(verbose >= 2)
+            {
+                log(progressPrefix+plan.getPropertyName(i));
+            }
+            try
+            {
+                dumpProperty(out, plan, i, obj, nonRetrievableObjects);
+            }
+            catch(IOException ioe)
+            {
+                throw ioe;
+            }
+            catch(Exception e)
+            {
+                metrics.recordError();
+                log("----> Error dumping property "+plan.getPropertyName(i)+" of "+errorLabel+obj.getId());
+                logStackTrace(e);
+            }
+        }
+        out.endObject();
+    }
+    
+    protected void writeObjectStart(ExportSerializer out, ClassSerializationPlan plan) throws IOException
+    {
+        metrics.recordObject();
+        if(partOutput != null && !writingPartHeader)
+        {
+            partOutput.countObject();
+        }
+        out.startObject(plan);
+    }
+    
+    /**
+     * Returns the serialization plan of the given class, creating it on first use.
+     * 
+     * @param cls the class to get the plan for
+     * 
+     * @return the serialization plan of the class
+     */
+    protected ClassSerializationPlan getClassPlan(OdmaClass cls)
+    {
+        String classId = cls.getId().toString();
+        synchronized(classPlans)
+        {
+            ClassSerializationPlan plan = classPlans.get(classId);
+            if(plan == null)
+            {
+                plan = createClassPlan(cls);
+                classPlans.put(classId, plan);
+                classPlansByName.put(cls.getQName().toString(), plan);
+            }
+            return plan;
+        }
+    }
+    
+    /**
+     * Returns the names of the properties to request when fetching an object of the given class.
+     * 
+     * @param classQName the qualified name of the class of the object or <code>null</code> if unknown
+     * 
+     * @return the names of the exported properties or <code>null</code> if the class has not been planned yet
+     */
+    protected OdmaQName[] getPrefetchPropertyNames(OdmaQName classQName)
+    {
+        if(!prefetchProperties || classQName == null)
+        {
+            return null;
+        }
+        ClassSerializationPlan plan;
+        synchronized(classPlans)
+        {
+            plan = classPlansByName.get(classQName.toString());
+        }
+        if(plan == null)
+        {
+            return null;
+        }
+        if(currentManifest == null)
+        {
+            return plan.getPropertyNames();
+        }
+        // the modification time is compared with the previous export, even if it is not exported
+        OdmaQName[] names = deltaPrefetchPropertyNames.get(classQName.toString());
+        if(names == null)
+        {
+            names = plan.getPropertyNames();
+            boolean found = false;
+            for(OdmaQName name : names)
+            {
+                found |= PROPERTY_LASTMODIFIEDAT.equals(name);
+            }
+            if(!found)
+            {
+                OdmaQName[] extended = new OdmaQName[names.length + 1];
+                System.arraycopy(names, 0, extended, 0, names.length);
+                extended[names.length] = PROPERTY_LASTMODIFIEDAT;
+                names = extended;
+            }
+            deltaPrefetchPropertyNames.put(classQName.toString(), names);
+        }
+        return names;
+    }
+    
+    protected ClassSerializationPlan createClassPlan(OdmaClass cls)
+    {
+        ArrayList<OdmaPropertyInfo> properties = new ArrayList<OdmaPropertyInfo>();
+        Iterable<OdmaPropertyInfo> props = cls.getProperties();
+        if(props != null)
+        {
+            for(OdmaPropertyInfo pi : props)
+            {
+                if(pi.getDataType() != OdmaType.GUID.getNumericId() && isPropertyExported(pi.getQName()))
+                {
+                    properties.add(pi);
+                }
+            }
+        }
+        return createPlan(cls.getQName(), properties);
+    }
+    
+    protected ClassSerializationPlan createPlan(OdmaQName classQName, List<OdmaPropertyInfo> properties)
+    {
+        int size = properties.size();
+        OdmaQName[] propertyNames = new OdmaQName[size];
+        OdmaType[] propertyTypes = new OdmaType[size];
+        boolean[] multiValue = new boolean[size];
+        for(int i = 0; i < size; i++)
+        {
+            OdmaPropertyInfo pi = properties.get(i);
+            propertyNames[i] = pi.getQName();
+            propertyTypes[i] = datatypes.get(Integer.valueOf(pi.getDataType()));
+            multiValue[i] = pi.isMultiValue();
+        }
+        return new ClassSerializationPlan(classQName, properties.toArray(new OdmaPropertyInfo[size]), propertyNames, propertyTypes, multiValue);
+    }
+    
+    /**
+     * Returns whether the given property is exported according to the IncludeProperties and
+     * ExcludeProperties configuration. Properties not exported are never read from the objects.
+     * 
+     * @param propertyName the qualified name of the property
+     * 
+     * @return true if the property is exported
+     */
+    protected boolean isPropertyExported(OdmaQName propertyName)
+    {
+        String qname = propertyName.toString();
+        if(includeProperties != null && !matchesAny(includeProperties, qname))
+        {
+            return false;
+        }
+        return !matchesAny(excludeProperties, qname);
+    }
+    
+    private static boolean matchesAny(List<Pattern> patterns, String s)
+    {
+        for(int i = 0; i < patterns.size(); i++)
+        {
+            if(patterns.get(i).matcher(s).matches())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public void dumpProperty(ExportSerializer out, OdmaPropertyInfo pi, OdmaObject obj, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws Exception
+    {
+        if(pi.getDataType() == OdmaType.GUID.getNumericId())
+        {
+            return;
+        }
+        ArrayList<OdmaPropertyInfo> properties = new ArrayList<OdmaPropertyInfo>();
+        properties.add(pi);
+        dumpProperty(out, createPlan(null, properties), 0, obj, nonRetrievableObjects);
+    }
+    
+    protected void dumpProperty(ExportSerializer out, ClassSerializationPlan plan, int i, OdmaObject obj, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws Exception
+    {
+        if(plan.getPropertyType(i) == null)
+        {
+            throw new RuntimeException("no data type for "+plan.getProperty(i).getDataType());
+        }
+        OdmaQName propertyName = plan.getPropertyName(i);
+        out.startProperty(plan, i);
+        try
+        {
+            OdmaProperty prop = obj.getProperty(propertyName);
+            dumpPropertyValues(out,prop,plan.getProperty(i),nonRetrievableObjects);
+        }
+        catch(IOException ioe)
+        {
+            throw ioe;
+        }
+        catch(Exception e)
+        {
+            metrics.recordError();
+            log("----> Error dumping value of property "+propertyName+" of object "+obj.getId()+" ("+obj.getOdmaClass().getQName()+")");
+            logStackTrace(e);
+        }
+        out.endProperty();
+    }
+    
+    public void dumpPropertyValues(ExportSerializer out, OdmaProperty prop, OdmaPropertyInfo pi, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws Exception
+    {
         if(prop.isMultiValue())
         {
-            dumpPropertyMultivalue(out,prop,nonRetrievableObjects);
+            dumpPropertyMultivalue(out,prop,nonRetrievableObjects);
+        }
+        else
+        {
+            dumpPropertySinglevalue(out,prop,nonRetrievableObjects);
+        }
+    }
+    
+    public void dumpPropertyMultivalue(ExportSerializer out, OdmaProperty prop, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws Exception
+    {
+        if(prop.getType() == OdmaType.REFERENCE)
+        {
+            Iterable<? extends OdmaObject> objEnum = prop.getReferenceIterable();
+            if(objEnum != null)
+            {
+                Iterator<? extends OdmaObject> itObjectEnum = objEnum.iterator();
+                while(itObjectEnum.hasNext())
+                {
+                    OdmaObject odmaObj = itObjectEnum.next();
+                    dumpPropertyValueObject(out,odmaObj,OdmaType.REFERENCE,prop.getName(),nonRetrievableObjects);
+                }
+            }
+        }
+        else
+        {
+            List<?> lst = (List<?>)prop.getValue();
+            if(lst != null)
+            {
+                for(int i = 0; i < lst.size(); i++)
+                {
+                    dumpPropertyValueObject(out,lst.get(i),prop.getType(),prop.getName(),nonRetrievableObjects);
+                }
+            }
+        }
+    }
+    
+    public void dumpPropertySinglevalue(ExportSerializer out, OdmaProperty prop, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws Exception
+    {
+        Object valueObj = prop.getValue();
+        if(valueObj == null)
+        {
+            return;
+        }
+        OdmaType type = prop.getType();
+        dumpPropertyValueObject(out,valueObj,type,prop.getName(),nonRetrievableObjects);
+    }
+    
+    public void dumpPropertyValueObject(ExportSerializer out, Object value, OdmaType type, OdmaQName propQName, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws IOException
+    {
+        switch(type)
+        {
+        case STRING:
+            out.writeString((String)value);
+            break;
+        case INTEGER:
+            out.writeInteger(toNumber(value).intValue());
+            break;
+        case SHORT:
+            out.writeShort(toNumber(value).shortValue());
+            break;
+        case LONG:
+            out.writeLong(toNumber(value).longValue());
+            break;
+        case FLOAT:
+            out.writeFloat(toNumber(value).floatValue());
+            break;
+        case DOUBLE:
+            out.writeDouble(toNumber(value).doubleValue());
+            break;
+        case BOOLEAN:
+            out.writeBoolean(toBoolean(value));
+            break;
+        case DATETIME:
+            out.writeDateTime((Date)value);
+            break;
+        case BINARY:
+            out.writeBinary((byte[])value);
+            break;
+        case REFERENCE:
+            String referenceIdToBeWritten = followReference((OdmaObject)value, nonRetrievableObjects);
+            if(referenceIdToBeWritten != null)
+            {
+                out.writeReference(referenceIdToBeWritten);
+            }
+            break;
+        case CONTENT:
+            if(exportContent)
+            {
+                String filename = getContentExporter().exportContent((OdmaContent)value, this.exportetContentIdCounter++);
+                out.writeContent(filename);
+            }
+            break;
+        case ID:
+            out.writeId((OdmaId)value);
+            break;
+        case GUID:
+            throw new RuntimeException("GUID propertys should have been omited. Property: "+propQName);
+        default:
+            throw new RuntimeException("Unhandled property type "+type);
+        }
+    }
+
+    /**
+     * Returns the value of a numeric property as <code>Number</code>. Adaptors do not always
+     * return the boxed type of the data type, e.g. a <code>Long</code> for an
+     * <code>INTEGER</code> property or a <code>String</code> read from a text column.
+     * 
+     * @throws NumberFormatException if the value is neither a number nor its string representation
+     */
+    protected static Number toNumber(Object value)
+    {
+        if(value instanceof Number)
+        {
+            return (Number)value;
+        }
+        String s = value.toString().trim();
+        try
+        {
+            return Long.valueOf(s);
+        }
+        catch(NumberFormatException nfe)
+        {
+            return Double.valueOf(s);
+        }
+    }
+    
+    /**
+     * Returns the value of a boolean property. Numbers are true unless 0, strings have to be
+     * <code>true</code> or <code>false</code> in any case.
+     * 
+     * @throws IllegalArgumentException if the value can not be interpreted as boolean
+     */
+    protected static boolean toBoolean(Object value)
+    {
+        if(value instanceof Boolean)
+        {
+            return ((Boolean)value).booleanValue();
+        }
+        if(value instanceof Number)
+        {
+            return ((Number)value).doubleValue() != 0;
+        }
+        String s = value.toString().trim();
+        if(s.equalsIgnoreCase("true"))
+        {
+            return true;
+        }
+        if(s.equalsIgnoreCase("false"))
+        {
+            return false;
+        }
+        throw new IllegalArgumentException("Not a boolean value: "+s);
+    }
+
+    /**
+     * Queue the referenced object for export or add it to the non-retrievable objects of the
+     * current object, unless it is excluded or already exported.
+     * 
+     * @param referencedObject the object referenced by a property of the current object
+     * @param nonRetrievableObjects the non-retrievable objects to export with the current object
+     * 
+     * @return the ID to write for this reference or <code>null</code> if the referenced object is excluded
+     */
+    protected String followReference(OdmaObject referencedObject, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws IOException
+    {
+        OdmaClass referencedObjectClass = referencedObject.getOdmaClass();
+        String referencedObjectId = referencedObject.getId().toString();
+        if(referencedObjectClass.getNamespace().equals("opendma"))
+        {
+            // we can reference all OpenDMA classes without the need to export the referenced class
+            return referencedObjectId;
+        }
+        if(exclusionMatcher.isExcluded(referencedObjectId, referencedObjectClass))
+        {
+            return null;
+        }
+        if(!exportedObjects.contains(referencedObjectId))
+        {
+            if(isNotRetrievable(referencedObject))
+            {
+                if(!nonRetrievableObjects.containsKey(referencedObjectId))
+                {
+                    nonRetrievableObjects.put(referencedObjectId, referencedObject);
+                }
+            }
+            else if(exportQueue.add(referencedObjectId, referencedObjectClass.getQName()) && prefetchProperties)
+            {
+                // plan the class now, so the properties can be requested when the object is fetched
+                getClassPlan(referencedObjectClass);
+            }
+        }
+        return referencedObjectId;
+    }
+
+    private static final int CHECKPOINT_FORMAT = 0x4f584306;
+    
+    /**
+     * Write the state of this exporter to the checkpoint file. All content data files are
+     * completed and the output is flushed before, so that the export can be continued from
+     * the current output position.
+     * 
+     * @param out the serializer of the document
+     * 
+     * @throws Exception if the checkpoint can not be written
+     */
+    protected void writeCheckpoint(ExportSerializer out) throws Exception
+    {
+        if(contentExporter != null)
+        {
+            contentExporter.awaitPending();
+            writeRejectedContent(contentExporter.takeFailedFiles());
+        }
+        out.flush();
+        File checkpoint = new File(checkpointFile);
+        File tempCheckpoint = new File(checkpointFile+".tmp");
+        FileOutputStream checkpointStream = new FileOutputStream(tempCheckpoint);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(checkpointStream, 64 * 1024));
+        try
+        {
+            dos.writeInt(CHECKPOINT_FORMAT);
+            dos.writeUTF(repositoryId);
+            dos.writeUTF(outfile);
+            dos.writeUTF(repositoryObjectId);
+            dos.writeLong(out.getPosition());
+            dos.writeLong(compressedOutput != null ? compressedOutput.sync() : out.getPosition());
+            dos.writeInt(exportetContentIdCounter);
+            exportedObjects.writeTo(dos);
+            exportQueue.writeTo(dos);
+            dos.writeBoolean(currentManifest != null);
+            if(currentManifest != null)
+            {
+                dos.writeInt(unchangedObjectCount);
+                currentManifest.writeTo(dos);
+                manifestJournal.flush();
+                manifestJournalFile.getFD().sync();
+                dos.writeLong(manifestJournalFile.getChannel().position());
+            }
+            dos.writeBoolean(partOutput != null);
+            if(partOutput != null)
+            {
+                partOutput.writeTo(dos);
+            }
+            dos.writeUTF(serializerClass.getName());
+            ByteArrayOutputStream state = new ByteArrayOutputStream();
+            DataOutputStream stateStream = new DataOutputStream(state);
+            out.writeState(stateStream);
+            stateStream.flush();
+            dos.writeInt(state.size());
+            state.writeTo(dos);
+            // the checkpoint must be on disk before it replaces the previous one
+            dos.flush();
+            checkpointStream.getFD().sync();
+        }
+        finally
+        {
+            dos.close();
+        }
+        try
+        {
+            Files.move(tempCheckpoint.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException ioe)
+        {
+            Files.move(tempCheckpoint.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if(verbose > 0)
+        {
+            log("Checkpoint written at "+exportedObjects.size()+" exported objects.");
+        }
+    }
+    
+    /**
+     * Restore the state of this exporter from the checkpoint file.
+     * 
+     * @return the position in the document the export has to be continued at
+     * 
+     * @throws Exception if the checkpoint can not be read or does not belong to this export
+     */
+    protected long readCheckpoint() throws Exception
+    {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile), 64 * 1024));
+        try
+        {
+            if(dis.readInt() != CHECKPOINT_FORMAT)
+            {
+                throw new IllegalStateException("File '"+checkpointFile+"' is not a valid checkpoint.");
+            }
+            if(!dis.readUTF().equals(repositoryId) || !dis.readUTF().equals(outfile))
+            {
+                throw new IllegalStateException("Checkpoint '"+checkpointFile+"' belongs to a different export. Delete it to start a new export.");
+            }
+            repositoryObjectId = dis.readUTF();
+            long position = dis.readLong();
+            outputLength = dis.readLong();
+            exportetContentIdCounter = dis.readInt();
+            exportedObjects = IdSet.readFrom(dis, expectedObjectCount);
+            exportQueue.close();
+            exportQueue = ExportQueue.readFrom(dis, queueSpillDirectory != null ? new File(queueSpillDirectory) : null, queueMemoryLimit, 0);
+            if(dis.readBoolean() != (currentManifest != null))
+            {
+                throw new IllegalStateException("Checkpoint '"+checkpointFile+"' belongs to a different export. Delete it to start a new export.");
+            }
+            if(currentManifest != null)
+            {
+                unchangedObjectCount = dis.readInt();
+                currentManifest = DeltaManifest.readFrom(dis, expectedObjectCount);
+                openManifestJournal(dis.readLong());
+            }
+            if(dis.readBoolean() != isPartMode())
+            {
+                throw new IllegalStateException("Checkpoint '"+checkpointFile+"' belongs to a different export. Delete it to start a new export.");
+            }
+            if(isPartMode())
+            {
+                partOutput = PartOutputStream.readFrom(dis, outfile, compress);
+            }
+            if(!dis.readUTF().equals(serializerClass.getName()))
+            {
+                throw new IllegalStateException("Checkpoint '"+checkpointFile+"' belongs to a different export. Delete it to start a new export.");
+            }
+            serializerState = new byte[dis.readInt()];
+            dis.readFully(serializerState);
+            return position;
+        }
+        finally
+        {
+            dis.close();
+        }
+    }
+    
+    /** the length of the output file recorded in the checkpoint */
+    protected long outputLength = 0;
+    
+    /** the state of the serializer recorded in the checkpoint */
+    protected byte[] serializerState = null;
+    
+    /**
+     * Close the output of a failed export. Errors are logged, so they do not hide the
+     * failure of the export. The document stream of a sink is left open, see
+     * {@link ExportSink#openDocument()}.
+     */
+    protected void closeAfterFailure(ExportSerializer out)
+    {
+        try
+        {
+            out.close();
+        }
+        catch(Exception e)
+        {
+            log("Error closing the output of the failed export:");
+            logStackTrace(e);
+        }
+    }
+    
+    protected boolean isPartMode()
+    {
+        return partMaxObjects > 0 || partMaxBytes > 0;
+    }
+    
+    /**
+     * Create the output file or, in part mode, the first part file. With a sink, open the
+     * document stream of the sink.
+     */
+    protected XMLWriter openOutput() throws IOException
+    {
+        if(sink != null)
+        {
+            OutputStream document = sink.openDocument();
+            return new XMLWriter(compress ? new CompressingOutputStream(document) : document);
+        }
+        if(isPartMode())
+        {
+            partOutput = new PartOutputStream(outfile, compress);
+            return new XMLWriter(partOutput);
+        }
+        if(compress)
+        {
+            compressedOutput = new CompressingOutputStream(new File(getOutputFile()), false);
+            return new XMLWriter(compressedOutput);
+        }
+        return new XMLWriter(new FileOutputStream(outfile));
+    }
+    
+    /**
+     * @return the name of the output file in single file mode
+     */
+    protected String getOutputFile()
+    {
+        return compress ? outfile+".gz" : outfile;
+    }
+    
+    /**
+     * Cut the output file back to the length recorded in the checkpoint and open it for appending.
+     * In part mode, the current part has already been restored with the checkpoint.
+     */
+    protected XMLWriter openOutputForResume(long position) throws IOException
+    {
+        if(partOutput != null)
+        {
+            return new XMLWriter(partOutput, XMLWriter.DEFAULT_BUFFER_SIZE, position);
+        }
+        File file = new File(getOutputFile());
+        if(file.length() < outputLength)
+        {
+            throw new IllegalStateException("Output file '"+file+"' is shorter than recorded in the checkpoint. The export can not be resumed.");
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(outputLength);
+        }
+        finally
+        {
+            raf.close();
+        }
+        if(compress)
+        {
+            compressedOutput = new CompressingOutputStream(file, true);
+            return new XMLWriter(compressedOutput, XMLWriter.DEFAULT_BUFFER_SIZE, position);
+        }
+        return new XMLWriter(new FileOutputStream(file, true), XMLWriter.DEFAULT_BUFFER_SIZE, position);
+    }
+
+    protected boolean isPartFull(ExportSerializer out)
+    {
+        if(partOutput.getObjectCount() == 0)
+        {
+            // the class tree alone can exceed PartMaxBytes
+            return false;
         }
-        else
+        if(partMaxObjects > 0 && partOutput.getObjectCount() >= partMaxObjects)
         {
-            dumpPropertySinglevalue(out,prop,nonRetrievableObjects);
+            return true;
         }
+        return partMaxBytes > 0 && out.getPosition() - partOutput.getStartPosition() >= partMaxBytes;
     }
     
-    public void dumpPropertyMultivalue(PrintStream out, OdmaProperty prop, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws Exception
+    /**
+     * Complete the current part as a document of its own and continue with the next part.
+     * Every part starts with the repository object and the class tree, so that it can be
+     * loaded without the other parts.
+     */
+    protected void startNextPart(ExportSerializer out, OdmaSession session) throws Exception
     {
-        if(prop.getType() == OdmaType.REFERENCE)
+        out.endDocument();
+        out.flush();
+        partOutput.nextPart(out.getPosition());
+        if(verbose > 0)
         {
-            Iterable<? extends OdmaObject> objEnum = prop.getReferenceIterable();
-            if(objEnum != null)
+            log("Continuing with part "+(partOutput.getParts().size()+1)+"...");
+        }
+        out.startDocument(repositoryObjectId);
+        dumpPartHeader(out, session.getRepository(new OdmaId(repositoryId)));
+    }
+    
+    /**
+     * Write the repository object and the class tree again at the beginning of a part. They
+     * are written like in the first part, but are not recorded as exported objects.
+     */
+    protected void dumpPartHeader(ExportSerializer out, OdmaRepository repo) throws Exception
+    {
+        IdSet exported = exportedObjects;
+        exportedObjects = new IdSet();
+        writingPartHeader = true;
+        try
+        {
+            dumpObject(out,repo);
+            dumpClassTree(out,repo.getRootClass());
+        }
+        finally
+        {
+            exportedObjects = exported;
+            writingPartHeader = false;
+        }
+    }
+    
+    /**
+     * Write the list of all part files into the output file.
+     */
+    protected void writePartManifest() throws IOException
+    {
+        XMLWriter manifest = new XMLWriter(new FileOutputStream(outfile));
+        try
+        {
+            manifest.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            manifest.newLine();
+            manifest.write("<OdmaXmlRepositoryParts xmlns=\"http://www.opendma.org/XMLRepository\" repositoryObjectId=\"");
+            manifest.write(repositoryObjectId);
+            manifest.write("\">");
+            manifest.newLine();
+            for(PartOutputStream.Part part : partOutput.getParts())
             {
-                Iterator<? extends OdmaObject> itObjectEnum = objEnum.iterator();
-                while(itObjectEnum.hasNext())
-                {
-                    OdmaObject odmaObj = itObjectEnum.next();
-                    dumpPropertyValueObject(out,odmaObj,OdmaType.REFERENCE,prop.getName(),nonRetrievableObjects);
-                }
+                manifest.write("    <Part file=\"");
+                dumpXMLString(manifest, part.getFileName());
+                manifest.write("\" objects=\"");
+                manifest.writeDecimal(part.getObjectCount());
+                manifest.write("\" bytes=\"");
+                manifest.writeDecimal(part.getByteCount());
+                manifest.write("\"/>");
+                manifest.newLine();
+            }
+            manifest.write("</OdmaXmlRepositoryParts>");
+            manifest.newLine();
+        }
+        finally
+        {
+            manifest.close();
+        }
+    }
+    
+    private static final OdmaQName PROPERTY_LASTMODIFIEDAT = new OdmaQName("opendma","LastModifiedAt");
+    
+    /**
+     * Load the manifest of the previous export, if there is one, and start a new manifest.
+     */
+    protected void readDeltaManifest() throws IOException
+    {
+        File file = new File(deltaManifestFile);
+        if(file.exists())
+        {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            try
+            {
+                previousManifest = DeltaManifest.readManifest(dis, 0);
+            }
+            finally
+            {
+                dis.close();
+            }
+            if(verbose > 0)
+            {
+                log("Delta export against "+previousManifest.size()+" objects of the previous export.");
             }
         }
         else
         {
-            List<?> lst = (List<?>)prop.getValue();
-            if(lst != null)
+            previousManifest = new DeltaManifest(0);
+            if(verbose > 0)
             {
-                for(int i = 0; i < lst.size(); i++)
+                log("No previous delta manifest found. Performing full export.");
+            }
+        }
+        currentManifest = new DeltaManifest(Math.max(expectedObjectCount, previousManifest.size()));
+    }
+    
+    /**
+     * Start the manifest file of this export next to the manifest of the previous export, or
+     * continue it after a checkpoint.
+     * 
+     * @param length the length of the manifest file at the checkpoint or 0 to start a new one
+     */
+    protected void openManifestJournal(long length) throws IOException
+    {
+        File journal = new File(deltaManifestFile+".tmp");
+        if(length > 0)
+        {
+            if(journal.length() < length)
+            {
+                throw new IllegalStateException("Delta manifest '"+journal+"' does not match the checkpoint. Delete the checkpoint to start a new export.");
+            }
+            RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+            try
+            {
+                raf.setLength(length);
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        manifestJournalFile = new FileOutputStream(journal, length > 0);
+        manifestJournal = new DataOutputStream(new BufferedOutputStream(manifestJournalFile, 64 * 1024));
+        if(length == 0)
+        {
+            DeltaManifest.writeHeader(manifestJournal);
+        }
+    }
+    
+    /**
+     * Write the objects of the previous export that have not been found again to the deletions
+     * file and replace the manifest of the previous export with the manifest of this export.
+     */
+    protected void writeDeltaManifest() throws IOException
+    {
+        try
+        {
+            DeltaManifest.writeEnd(manifestJournal);
+        }
+        finally
+        {
+            manifestJournal.close();
+            manifestJournal = null;
+        }
+        writeDeletedIds();
+        File manifest = new File(deltaManifestFile);
+        File tempManifest = new File(deltaManifestFile+".tmp");
+        Files.move(tempManifest.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    protected void writeDeletedIds() throws IOException
+    {
+        File previous = new File(deltaManifestFile);
+        long deleted = 0;
+        XMLWriter deletions = new XMLWriter(new FileOutputStream(deltaDeletionsFile));
+        try
+        {
+            if(previous.exists())
+            {
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(previous), 64 * 1024));
+                try
                 {
-                    dumpPropertyValueObject(out,lst.get(i),prop.getType(),prop.getName(),nonRetrievableObjects);
+                    deleted = DeltaManifest.writeMissingIds(dis, currentManifest, deletions);
+                }
+                finally
+                {
+                    dis.close();
                 }
             }
         }
+        finally
+        {
+            deletions.close();
+        }
+        if(verbose > 0)
+        {
+            log("Listed "+deleted+" deleted objects in "+deltaDeletionsFile);
+        }
     }
     
-    public void dumpPropertySinglevalue(PrintStream out, OdmaProperty prop, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws Exception
+    /**
+     * Record the modification time of the given object in the manifest of this export and
+     * compare it with the previous export. Objects without a modification time are always
+     * considered as changed.
+     * 
+     * @param obj the object to check
+     * 
+     * @return true if the object has not been modified since the previous export
+     */
+    protected boolean isUnchanged(OdmaObject obj) throws IOException
     {
-        Object valueObj = prop.getValue();
-        if(valueObj == null)
+        if(currentManifest == null)
+        {
+            return false;
+        }
+        String id = obj.getId().toString();
+        long lastModified = getLastModified(obj);
+        currentManifest.put(id, lastModified);
+        DeltaManifest.writeEntry(manifestJournal, id, lastModified);
+        return lastModified != DeltaManifest.NO_STAMP && previousManifest.get(id) == lastModified;
+    }
+    
+    protected long getLastModified(OdmaObject obj)
+    {
+        try
+        {
+            Object value = obj.getProperty(PROPERTY_LASTMODIFIEDAT).getValue();
+            if(value instanceof Date)
+            {
+                return ((Date)value).getTime();
+            }
+        }
+        catch(Exception e)
+        {
+            // this object does not provide a modification time
+        }
+        return DeltaManifest.NO_STAMP;
+    }
+    
+    /**
+     * Follow the references of an unchanged object without writing it. Only the REFERENCE
+     * properties of its class plan are read, and those of its non-retrievable objects.
+     */
+    protected void skipObject(OdmaObject obj) throws Exception
+    {
+        if(exportedObjects.contains(obj.getId().toString()))
         {
+            log("WARNING: tried to export an already exported object: "+obj.getId().toString());
             return;
         }
-        OdmaType type = prop.getType();
-        dumpPropertyValueObject(out,valueObj,type,prop.getName(),nonRetrievableObjects);
+        exportedObjects.add(obj.getId().toString());
+        LinkedHashMap<String,OdmaObject> nonRetrievableObjects = new LinkedHashMap<String,OdmaObject>();
+        followReferences(obj, getClassPlan(obj.getOdmaClass()), nonRetrievableObjects);
+        while(nonRetrievableObjects.size() > 0)
+        {
+            Entry<String,OdmaObject> nroEntry = nonRetrievableObjects.entrySet().iterator().next();
+            OdmaObject volObj = nroEntry.getValue();
+            nonRetrievableObjects.remove(nroEntry.getKey());
+            if(exportedObjects.add(volObj.getId().toString()))
+            {
+                followReferences(volObj, getClassPlan(volObj.getOdmaClass()), nonRetrievableObjects);
+            }
+        }
+        unchangedObjectCount++;
     }
     
-    public void dumpPropertyValueObject(PrintStream out, Object value, OdmaType type, OdmaQName propQName, LinkedHashMap<String,OdmaObject> nonRetrievableObjects)
+    protected void followReferences(OdmaObject obj, ClassSerializationPlan plan, LinkedHashMap<String,OdmaObject> nonRetrievableObjects) throws IOException
     {
-        switch(type)
+        for(int i = 0; i < plan.size(); i++)
         {
-        case STRING:
-            out.print("<Value>");
-            dumpXMLString(out,(String)value);
-            out.print("</Value>");
-            break;
-        case INTEGER:
-            out.print("<Value>");
-            out.print(value.toString());
-            out.print("</Value>");
-            break;
-        case SHORT:
-            out.print("<Value>");
-            out.print(value.toString());
-            out.print("</Value>");
-            break;
-        case LONG:
-            out.print("<Value>");
-            out.print(value.toString());
-            out.print("</Value>");
-            break;
-        case FLOAT:
-            out.print("<Value>");
-            out.print(value.toString());
-            out.print("</Value>");
-            break;
-        case DOUBLE:
-            out.print("<Value>");
-            out.print(value.toString());
-            out.print("</Value>");
-            break;
-        case BOOLEAN:
-            out.print("<Value>");
-            out.print(((Boolean)value).booleanValue() ? "true" : "false");
-            out.print("</Value>");
-            break;
-        case DATETIME:
-            out.print("<Value>");
-            out.print(DATETIME_FORMAT.get().format((Date)value));
-            out.print("</Value>");
-            break;
-        case BINARY:
-            out.print("<Value>");
-            out.print(Base64Coder.encode((byte[])value));
-            out.print("</Value>");
-            break;
-        case REFERENCE:
-            OdmaObject referencedObject = (OdmaObject)value;
-            OdmaClass referencedObjectClass = referencedObject.getOdmaClass();
-            String referencedObjectId = referencedObject.getId().toString();
-            if(referencedObjectClass.getNamespace().equals("opendma"))
+            if(plan.getPropertyType(i) != OdmaType.REFERENCE)
             {
-                // we can reference all OpenDMA classes without the need to export the referenced class
-                out.print("<Value>");
-                out.print(referencedObjectId);
-                out.print("</Value>");
-                break;
+                continue;
             }
-            String referenceIdToBeWritten = null;
-            if(isReferenceExported(referencedObject))
+            try
             {
-                if(!exportedObjects.containsKey(referencedObjectId))
+                OdmaProperty prop = obj.getProperty(plan.getPropertyName(i));
+                if(prop.isMultiValue())
                 {
-                    if(isNotRetrievable(referencedObject))
+                    Iterable<? extends OdmaObject> objEnum = prop.getReferenceIterable();
+                    if(objEnum != null)
                     {
-                        if(!nonRetrievableObjects.containsKey(referencedObjectId))
+                        for(OdmaObject referencedObject : objEnum)
                         {
-                            nonRetrievableObjects.put(referencedObjectId, referencedObject);
+                            followReference(referencedObject, nonRetrievableObjects);
                         }
                     }
-                    else
-                    {
-                        exportQueue.put(referencedObjectId, ((OdmaObject)value).getOdmaClass().getQName());
-                    }
                 }
-                referenceIdToBeWritten = referencedObjectId;
+                else if(prop.getValue() != null)
+                {
+                    followReference((OdmaObject)prop.getValue(), nonRetrievableObjects);
+                }
             }
-            if(referenceIdToBeWritten != null)
+            catch(IOException ioe)
             {
-                out.print("<Value>");
-                out.print(referenceIdToBeWritten);
-                out.print("</Value>");
+                throw ioe;
             }
-            break;
-        case CONTENT:
-            if(exportContent)
+            catch(Exception e)
+            {
+                metrics.recordError();
+                log("----> Error following references of property "+plan.getPropertyName(i)+" of object "+obj.getId());
+                logStackTrace(e);
+            }
+        }
+    }
+
+    /**
+     * Append the names of the data files referenced by the document but not written to the
+     * reject file. With a sink, the sink has already been told about them.
+     */
+    protected void writeRejectedContent(List<String> rejected) throws IOException
+    {
+        if(rejected.isEmpty() || sink != null)
+        {
+            return;
+        }
+        XMLWriter rejects = new XMLWriter(new FileOutputStream(contentRejectFile, true));
+        try
+        {
+            for(String filename : rejected)
+            {
+                rejects.write(filename);
+                rejects.newLine();
+            }
+        }
+        finally
+        {
+            rejects.close();
+        }
+    }
+
+    protected ContentExporter getContentExporter()
+    {
+        if(contentExporter == null)
+        {
+            // errors of the copy threads go through the log like all other messages
+            ExportListener contentLog = new ExportListener()
             {
-                String filename = contentDirectory+"/content"+Integer.toString(this.exportetContentIdCounter++)+".dat";
-                File dataDir = new File(contentDirectory);
-                if(!dataDir.exists())
+                public void progress(ExportMetrics m)
                 {
-                    if(!dataDir.mkdirs())
-                    {
-                        throw new RuntimeException("Error creating directory for content data files.");
-                    }
                 }
-                try
+                
+                public void message(String message)
                 {
-                    InputStream inContent = ((OdmaContent)value).getStream();
-                    try
-                    {
-                        FileOutputStream fos = new FileOutputStream(filename);
-                        try
-                        {
-                            byte[] buffer = new byte[1024];
-                            int num = 0;
-                            while((num = inContent.read(buffer)) > 0)
-                            {
-                                fos.write(buffer,0,num);
-                            }
-                        }
-                        finally
-                        {
-                            fos.close();
-                        }
-                    }
-                    finally
-                    {
-                        inContent.close();
-                    }
+                    log(message);
                 }
-                catch (Exception e)
+                
+                public void error(Throwable error)
                 {
-                    throw new RuntimeException("Error exporting content into data file.",e);
+                    logStackTrace(error);
                 }
-                out.print("<Value>");
-                out.print(filename);
-                out.print("</Value>");
-            }
-            break;
-        case ID:
-            out.print("<Value>");
-            out.print(((OdmaId)value).toString());
-            out.print("</Value>");
-            break;
-        case GUID:
-            throw new RuntimeException("GUID propertys should have been omited. Property: "+propQName);
-        default:
-            throw new RuntimeException("Unhandled property type "+type);
+            };
+            contentExporter = new ContentExporter(contentDirectory, contentFilesPerDirectory, contentThreads, contentDeduplication, compress, metrics, contentLimiter, sink, contentLog);
         }
+        return contentExporter;
     }
 
-    protected boolean isReferenceExported(OdmaObject referencedObject)
+    protected void log(String message)
     {
-        String id = referencedObject.getId().toString();
-        if(excludeIds.contains(id))
+        if(listener != null)
         {
-            return false;
+            listener.message(message);
+            return;
         }
-        String classQName = referencedObject.getOdmaClass().getQName().toString();
-        for(int i = 0; i < excludeClasses.size(); i++)
+        asyncLog.println(message);
+    }
+    
+    protected void logStackTrace(Throwable t)
+    {
+        if(listener != null)
         {
-            if(excludeClasses.get(i).matcher(classQName).matches())
-            {
-                return false;
-            }
+            listener.error(t);
+            return;
         }
-        return true;
+        asyncLog.printStackTrace(t);
     }
 
-    public void dumpXMLString(PrintStream out, String s)
-    {
-        for(int i = 0; i < s.length(); i++)
-        {
-            char c = s.charAt(i);
-            switch(c)
-            {
-            case '"':
-                out.print("&#x0022;");
-                break;
-            case '&':
-                out.print("&#x0026;");
-                break;
-            case '\'':
-                out.print("&#x0027;");
-                break;
-            case '<':
-                out.print("&#x003C;");
-                break;
-            case '>':
-                out.print("&#x003E;");
-                break;
-            default:
-                out.print(c);
-                break;
-            }
-        }
+    protected boolean isReferenceExported(OdmaObject referencedObject)
+    {
+        return !exclusionMatcher.isExcluded(referencedObject.getId().toString(), referencedObject.getOdmaClass());
+    }
+
+    /**
+     * Write the given string as XML character data. Markup characters are escaped and
+     * characters not allowed in XML are replaced, see {@link XMLWriter#writeEscaped(String)}.
+     */
+    public void dumpXMLString(XMLWriter out, String s) throws IOException
+    {
+        out.writeEscaped(s);
     }
 
     protected boolean isNotRetrievable(OdmaObject referencedObject)
@@ -636,64 +2245,78 @@ public class XMLExporter
         return !referencedObject.getOdmaClass().isRetrievable();
     }
     
-    private static final ThreadLocal<SimpleDateFormat> DATETIME_FORMAT = new ThreadLocal<SimpleDateFormat>() {
-        @Override protected SimpleDateFormat initialValue() {
-            SimpleDateFormat result = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-            result.setTimeZone(TimeZone.getTimeZone("UTC"));
-            result.setLenient(false);
-            return result;
-        }
-    };
-    
-    protected static Map<Integer, String> datatypeValues = new HashMap<Integer, String>();
+    /** the exported data types by numeric ID. GUID values are not exported */
+    protected static final Map<Integer, OdmaType> datatypes = new HashMap<Integer, OdmaType>();
     
     static
     {
-        datatypeValues.put(new Integer(1),"string");
-        datatypeValues.put(new Integer(2),"integer");
-        datatypeValues.put(new Integer(3),"short");
-        datatypeValues.put(new Integer(4),"long");
-        datatypeValues.put(new Integer(5),"float");
-        datatypeValues.put(new Integer(6),"double");
-        datatypeValues.put(new Integer(7),"boolean");
-        datatypeValues.put(new Integer(8),"datetime");
-        datatypeValues.put(new Integer(9),"blob");
-        datatypeValues.put(new Integer(10),"reference");
-        datatypeValues.put(new Integer(11),"content");
-        datatypeValues.put(new Integer(100),"id");
+        OdmaType[] exported = { OdmaType.STRING, OdmaType.INTEGER, OdmaType.SHORT, OdmaType.LONG, OdmaType.FLOAT, OdmaType.DOUBLE, OdmaType.BOOLEAN, OdmaType.DATETIME, OdmaType.BINARY, OdmaType.REFERENCE, OdmaType.CONTENT, OdmaType.ID };
+        for(OdmaType type : exported)
+        {
+            datatypes.put(Integer.valueOf(type.getNumericId()), type);
+        }
     }
 
-    private void dumpClassTreeIter(PrintStream out, OdmaClass cls) throws Exception
+    /**
+     * Write all classes of the tree below the given class, except those of the
+     * <code>opendma</code> namespace, together with their declared properties. The tree is
+     * walked with an explicit stack in pre-order, so the output is the same as that of a
+     * recursive walk. With <code>ClassTreeThreads</code>, all sub classes of a class and their
+     * declared properties are loaded concurrently while the classes before them are written.
+     */
+    protected void dumpClassTree(ExportSerializer out, OdmaClass rootClass) throws Exception
     {
-        if(!cls.getNamespace().equals("opendma"))
+        ClassTreeLoader loader = new ClassTreeLoader(classTreeThreads, fetchVirtualThreads);
+        try
         {
-            if(verbose > 0)
-            {
-                System.out.println("Processing class "+cls.getQName());
-            }
-            // write this Class if it has not yet been exported. If the class is not retrievable, it might already have been written with a referencing object
-            if(!exportedObjects.containsKey(cls.getId().toString()))
-            {
-                dumpObject(out,cls);
-            }
-            // dump declared properties
-            for(OdmaPropertyInfo pi : cls.getDeclaredProperties())
+            ArrayDeque<ClassTreeLoader.Node> pending = new ArrayDeque<ClassTreeLoader.Node>();
+            pending.push(loader.load(rootClass));
+            while(!pending.isEmpty())
             {
-                if(verbose > 0)
+                ClassTreeLoader.Node node = pending.pop();
+                node.await();
+                OdmaClass cls = node.getOdmaClass();
+                if(!cls.getNamespace().equals("opendma"))
+                {
+                    if(verbose > 0)
+                    {
+                        log("Processing class "+cls.getQName());
+                    }
+                    // write this Class if it has not yet been exported. If the class is not retrievable, it might already have been written with a referencing object
+                    if(!exportedObjects.contains(cls.getId().toString()))
+                    {
+                        dumpObject(out,cls);
+                    }
+                    // dump declared properties
+                    for(OdmaPropertyInfo pi : node.getDeclaredProperties())
+                    {
+                        if(verbose > 0)
+                        {
+                            log("    Processing property "+pi.getQName());
+                        }
+                        // write this PropertyInfo if it has not yet been exported. If the class is not retrievable, it might already have been written with a referencing object
+                        if(!exportedObjects.contains(pi.getId().toString()))
+                        {
+                            dumpObject(out,pi);
+                        }
+                    }
+                }
+                // start loading all sub classes, and push them so that the first one is written next
+                List<OdmaClass> subClasses = node.getSubClasses();
+                ClassTreeLoader.Node[] subNodes = new ClassTreeLoader.Node[subClasses.size()];
+                for(int i = 0; i < subNodes.length; i++)
                 {
-                    System.out.println("    Processing property "+pi.getQName());
+                    subNodes[i] = loader.load(subClasses.get(i));
                 }
-                // write this PropertyInfo if it has not yet been exported. If the class is not retrievable, it might already have been written with a referencing object
-                if(!exportedObjects.containsKey(pi.getId().toString()))
+                for(int i = subNodes.length - 1; i >= 0; i--)
                 {
-                    dumpObject(out,pi);
+                    pending.push(subNodes[i]);
                 }
             }
         }
-        // dump sub classes
-        for(OdmaClass subClass : cls.getSubClasses())
+        finally
         {
-            dumpClassTreeIter(out,subClass);
+            loader.close();
         }
     }
 
@@ -0,0 +1,196 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.util.Map.Entry;
+import java.util.Properties;
+
+/**
+ * Configures an {@link XMLExporter} embedded in another application.
+ *
+ * <p>The builder collects the same configuration properties as the properties file of the
+ * command line, with setters for the most common ones. Any other property can be set with
+ * {@link #setProperty(String, String)}. The configuration is validated by {@link #build()}.</p>
+ *
+ * <pre>
+ * XMLExporter exporter = new XMLExporterBuilder()
+ *     .setRepository("repo1")
+ *     .setExportContent(true)
+ *     .setFetchThreads(8)
+ *     .setSink(sink)
+ *     .setListener(listener)
+ *     .build();
+ * exporter.runExport(session);
+ * </pre>
+ *
+ * <p>The <code>AdaptorSystemId</code> and session properties are only needed if the export
+ * connects to the repository itself with {@link XMLExporter#runExport()}.</p>
+ */
+public class XMLExporterBuilder
+{
+
+    protected final Properties props = new Properties();
+
+    protected ExportSink sink = null;
+
+    protected ExportListener listener = null;
+
+    /**
+     * Set a configuration property, see the usage of {@link XMLExporter#main(String[])}.
+     *
+     * @param key the name of the property
+     * @param value the value of the property or <code>null</code> to remove it
+     *
+     * @return this builder
+     */
+    public XMLExporterBuilder setProperty(String key, String value)
+    {
+        if(value == null)
+        {
+            props.remove(key);
+        }
+        else
+        {
+            props.setProperty(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Set all given configuration properties, e.g. loaded from a properties file.
+     *
+     * @param properties the properties to set
+     *
+     * @return this builder
+     */
+    public XMLExporterBuilder setProperties(Properties properties)
+    {
+        for(Entry<Object,Object> entry : properties.entrySet())
+        {
+            props.setProperty(entry.getKey().toString(), entry.getValue().toString());
+        }
+        return this;
+    }
+
+    public XMLExporterBuilder setAdaptorSystemId(String adaptorSystemId)
+    {
+        return setProperty("AdaptorSystemId", adaptorSystemId);
+    }
+
+    public XMLExporterBuilder setSessionProperty(String key, String value)
+    {
+        return setProperty("Session."+key, value);
+    }
+
+    public XMLExporterBuilder setRepository(String repositoryId)
+    {
+        return setProperty("Repository", repositoryId);
+    }
+
+    /**
+     * @param outfile the file the export is written to. Ignored with a sink.
+     *
+     * @return this builder
+     */
+    public XMLExporterBuilder setOutfile(String outfile)
+    {
+        return setProperty("Outfile", outfile);
+    }
+
+    /**
+     * @param format <code>xml</code>, <code>binary</code> or the name of a class implementing {@link ExportSerializer}
+     *
+     * @return this builder
+     */
+    public XMLExporterBuilder setFormat(String format)
+    {
+        return setProperty("Format", format);
+    }
+
+    public XMLExporterBuilder setExportContent(boolean exportContent)
+    {
+        return setProperty("ExportContent", Boolean.toString(exportContent));
+    }
+
+    /**
+     * @param contentDirectory the directory the data files are written to. With a sink, the directory part of the data file names.
+     *
+     * @return this builder
+     */
+    public XMLExporterBuilder setContentDirectory(String contentDirectory)
+    {
+        return setProperty("ContentDirectory", contentDirectory);
+    }
+
+    public XMLExporterBuilder setContentThreads(int contentThreads)
+    {
+        return setProperty("ContentThreads", Integer.toString(contentThreads));
+    }
+
+    public XMLExporterBuilder setFetchThreads(int fetchThreads)
+    {
+        return setProperty("FetchThreads", Integer.toString(fetchThreads));
+    }
+
+    /**
+     * @param classTreeThreads the number of classes of the class tree loaded concurrently. The
+     * session must support concurrent calls unless this is 0
+     *
+     * @return this builder
+     */
+    public XMLExporterBuilder setClassTreeThreads(int classTreeThreads)
+    {
+        return setProperty("ClassTreeThreads", Integer.toString(classTreeThreads));
+    }
+
+    public XMLExporterBuilder setFetchBatchSize(int fetchBatchSize)
+    {
+        return setProperty("FetchBatchSize", Integer.toString(fetchBatchSize));
+    }
+
+    public XMLExporterBuilder setCompression(boolean compress)
+    {
+        return setProperty("Compression", compress ? "gzip" : "none");
+    }
+
+    public XMLExporterBuilder setVerbose(int verbose)
+    {
+        return setProperty("Verbose", Integer.toString(verbose));
+    }
+
+    /**
+     * @param sink the sink receiving the document and the content data files or <code>null</code> to write to the file system
+     *
+     * @return this builder
+     */
+    public XMLExporterBuilder setSink(ExportSink sink)
+    {
+        this.sink = sink;
+        return this;
+    }
+
+    /**
+     * @param listener the listener receiving the progress and the messages or <code>null</code> to print the messages to <code>System.out</code>
+     *
+     * @return this builder
+     */
+    public XMLExporterBuilder setListener(ExportListener listener)
+    {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Create the configured exporter. The builder can be changed and used again afterwards.
+     *
+     * @return the new exporter
+     *
+     * @throws IllegalArgumentException if the configuration is not valid
+     * @throws Exception if the exporter can not be created
+     */
+    public XMLExporter build() throws Exception
+    {
+        Properties copy = new Properties();
+        copy.putAll(props);
+        return new XMLExporter(copy, sink, listener);
+    }
+
+}
@@ -0,0 +1,509 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Buffered writer producing the UTF-8 encoded XML export.
+ *
+ * <p>Characters are encoded directly into a large, reusable byte buffer which is
+ * handed to the underlying stream in big blocks. Unlike a <code>PrintStream</code>,
+ * this writer is not synchronized and does not create temporary strings or
+ * encoder buffers for each write. It must only be used by a single thread.</p>
+ *
+ * <p>Unpaired surrogate characters are written as <code>'?'</code>, just like the
+ * UTF-8 encoder of the JDK does. {@link #writeEscaped(String)} writes character data
+ * instead, where they are replaced like all other characters not allowed in XML.</p>
+ *
+ * <p>Binary serializers write into the same buffer through a {@link BinaryWriter}.</p>
+ */
+public class XMLWriter extends Writer
+{
+
+    /** The default size of the output buffer in bytes */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+
+    /** UTF-8 encoding of U+FFFD, the replacement of characters not allowed in XML */
+    private static final byte[] REPLACEMENT_CHARACTER = new byte[] { (byte)0xEF, (byte)0xBF, (byte)0xBD };
+
+    /** the longest replacement in ESCAPES */
+    private static final int MAX_ESCAPE_LENGTH = 8;
+
+    /** replacements of the ASCII characters by character value, null if written as is */
+    private static final byte[][] ESCAPES = new byte[0x80][];
+
+    static
+    {
+        for(char c = 0; c < 0x20; c++)
+        {
+            if(c != '\t' && c != '\n' && c != '\r')
+            {
+                ESCAPES[c] = REPLACEMENT_CHARACTER;
+            }
+        }
+        ESCAPES['"'] = "&#x0022;".getBytes();
+        ESCAPES['&'] = "&#x0026;".getBytes();
+        ESCAPES['\''] = "&#x0027;".getBytes();
+        ESCAPES['<'] = "&#x003C;".getBytes();
+        ESCAPES['>'] = "&#x003E;".getBytes();
+    }
+
+    protected OutputStream out;
+
+    protected byte[] buffer;
+
+    protected int count = 0;
+
+    protected char pendingHighSurrogate = 0;
+
+    protected long flushedBytes = 0;
+
+    protected final UtcTimestampFormat timestampFormat = new UtcTimestampFormat();
+
+    /**
+     * Create a new XMLWriter writing to the given stream with the default buffer size.
+     *
+     * @param out the stream to write the encoded bytes to
+     */
+    public XMLWriter(OutputStream out)
+    {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a new XMLWriter writing to the given stream.
+     *
+     * @param out the stream to write the encoded bytes to
+     * @param bufferSize the size of the output buffer in bytes
+     *
+     * @throws IllegalArgumentException if the buffer size is too small
+     */
+    public XMLWriter(OutputStream out, int bufferSize)
+    {
+        this(out, bufferSize, 0);
+    }
+
+    /**
+     * Create a new XMLWriter continuing a stream that already contains the given number of bytes.
+     *
+     * @param out the stream to write the encoded bytes to
+     * @param bufferSize the size of the output buffer in bytes
+     * @param startPosition the number of bytes already written to the stream
+     *
+     * @throws IllegalArgumentException if the buffer size is too small
+     */
+    public XMLWriter(OutputStream out, int bufferSize, long startPosition)
+    {
+        if(out == null)
+        {
+            throw new NullPointerException("out must not be null");
+        }
+        if(bufferSize < 32)
+        {
+            throw new IllegalArgumentException("bufferSize must be at least 32");
+        }
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+        this.flushedBytes = startPosition;
+    }
+
+    @Override
+    public void write(int c) throws IOException
+    {
+        if(buffer.length - count < 4)
+        {
+            flushBuffer();
+        }
+        encodeChar((char)c);
+    }
+
+    @Override
+    public void write(String s) throws IOException
+    {
+        write(s, 0, s.length());
+    }
+
+    @Override
+    public void write(String s, int off, int len) throws IOException
+    {
+        int end = off + len;
+        int i = off;
+        while(i < end)
+        {
+            if(buffer.length - count < 4)
+            {
+                flushBuffer();
+            }
+            // leave room for one multi-byte character after the ASCII run
+            int limit = Math.min(end, i + (buffer.length - count - 4));
+            if(pendingHighSurrogate == 0)
+            {
+                char c;
+                while(i < limit && (c = s.charAt(i)) < 0x80)
+                {
+                    buffer[count++] = (byte)c;
+                    i++;
+                }
+            }
+            if(i < end && buffer.length - count >= 4)
+            {
+                encodeChar(s.charAt(i++));
+            }
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        int end = off + len;
+        int i = off;
+        while(i < end)
+        {
+            if(buffer.length - count < 4)
+            {
+                flushBuffer();
+            }
+            // leave room for one multi-byte character after the ASCII run
+            int limit = Math.min(end, i + (buffer.length - count - 4));
+            if(pendingHighSurrogate == 0)
+            {
+                char c;
+                while(i < limit && (c = cbuf[i]) < 0x80)
+                {
+                    buffer[count++] = (byte)c;
+                    i++;
+                }
+            }
+            if(i < end && buffer.length - count >= 4)
+            {
+                encodeChar(cbuf[i++]);
+            }
+        }
+    }
+
+    /**
+     * Write the given string as XML character data. The markup characters are written as
+     * character references. Characters not allowed in XML 1.0, i.e. control characters
+     * other than tab, line feed and carriage return, unpaired surrogates, U+FFFE and U+FFFF,
+     * are replaced by U+FFFD. Runs of characters not needing escaping are encoded into the
+     * buffer in a tight loop.
+     *
+     * @param s the string to write
+     *
+     * @throws IOException if writing to the underlying stream fails
+     */
+    public void writeEscaped(String s) throws IOException
+    {
+        if(buffer.length - count < MAX_ESCAPE_LENGTH + 1)
+        {
+            flushBuffer();
+        }
+        flushPendingSurrogate();
+        int len = s.length();
+        int i = 0;
+        while(i < len)
+        {
+            if(buffer.length - count < MAX_ESCAPE_LENGTH)
+            {
+                flushBuffer();
+            }
+            // leave room for the longest encoding of one character after the run
+            int limit = Math.min(len, i + (buffer.length - count - MAX_ESCAPE_LENGTH));
+            char c;
+            while(i < limit && (c = s.charAt(i)) < 0x80 && ESCAPES[c] == null)
+            {
+                buffer[count++] = (byte)c;
+                i++;
+            }
+            if(i == len)
+            {
+                break;
+            }
+            c = s.charAt(i++);
+            if(c < 0x80)
+            {
+                byte[] escape = ESCAPES[c];
+                if(escape == null)
+                {
+                    // the run stopped at the end of the buffer
+                    buffer[count++] = (byte)c;
+                }
+                else
+                {
+                    System.arraycopy(escape, 0, buffer, count, escape.length);
+                    count += escape.length;
+                }
+            }
+            else if(c < 0x800)
+            {
+                buffer[count++] = (byte)(0xC0 | (c >> 6));
+                buffer[count++] = (byte)(0x80 | (c & 0x3F));
+            }
+            else if(Character.isSurrogate(c))
+            {
+                char low;
+                if(Character.isHighSurrogate(c) && i < len && Character.isLowSurrogate(low = s.charAt(i)))
+                {
+                    int cp = Character.toCodePoint(c, low);
+                    buffer[count++] = (byte)(0xF0 | (cp >> 18));
+                    buffer[count++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                    buffer[count++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                    buffer[count++] = (byte)(0x80 | (cp & 0x3F));
+                    i++;
+                }
+                else
+                {
+                    System.arraycopy(REPLACEMENT_CHARACTER, 0, buffer, count, REPLACEMENT_CHARACTER.length);
+                    count += REPLACEMENT_CHARACTER.length;
+                }
+            }
+            else if(c >= 0xFFFE)
+            {
+                System.arraycopy(REPLACEMENT_CHARACTER, 0, buffer, count, REPLACEMENT_CHARACTER.length);
+                count += REPLACEMENT_CHARACTER.length;
+            }
+            else
+            {
+                buffer[count++] = (byte)(0xE0 | (c >> 12));
+                buffer[count++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Write the decimal representation of the given number without creating a String.
+     *
+     * @param value the number to write
+     *
+     * @throws IOException if writing to the underlying stream fails
+     */
+    public void writeDecimal(long value) throws IOException
+    {
+        if(value == Long.MIN_VALUE)
+        {
+            write("-9223372036854775808");
+            return;
+        }
+        if(buffer.length - count < 24)
+        {
+            flushBuffer();
+        }
+        flushPendingSurrogate();
+        if(value < 0)
+        {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int start = count;
+        do
+        {
+            buffer[count++] = (byte)('0' + (value % 10));
+            value /= 10;
+        }
+        while(value != 0);
+        // digits have been written in reverse order
+        for(int i = start, j = count - 1; i < j; i++, j--)
+        {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+    }
+
+    /**
+     * Write the given point in time as <code>yyyy-MM-dd'T'HH:mm:ss.SSS'Z'</code> in UTC,
+     * without creating any objects. See {@link UtcTimestampFormat}.
+     *
+     * @param millis the milliseconds since the epoch
+     *
+     * @return false if the point in time is outside the years supported by {@link UtcTimestampFormat}. Nothing is written in this case
+     *
+     * @throws IOException if writing to the underlying stream fails
+     */
+    public boolean writeTimestamp(long millis) throws IOException
+    {
+        if(!UtcTimestampFormat.isSupported(millis))
+        {
+            return false;
+        }
+        if(buffer.length - count < UtcTimestampFormat.LENGTH + 1)
+        {
+            flushBuffer();
+        }
+        flushPendingSurrogate();
+        count = timestampFormat.format(millis, buffer, count);
+        return true;
+    }
+
+    /**
+     * Write the Base64 encoding of the given data. The characters are encoded directly
+     * into the output buffer, so no temporary copy of the encoded data is created.
+     *
+     * @param data the bytes to encode
+     *
+     * @throws IOException if writing to the underlying stream fails
+     */
+    public void writeBase64(byte[] data) throws IOException
+    {
+        writeBase64(data, 0, data.length);
+    }
+
+    /**
+     * Write the Base64 encoding of a part of the given data. The characters are encoded
+     * directly into the output buffer, so no temporary copy of the encoded data is created.
+     *
+     * @param data the array containing the bytes to encode
+     * @param off the offset of the first byte to encode
+     * @param len the number of bytes to encode
+     *
+     * @throws IOException if writing to the underlying stream fails
+     */
+    public void writeBase64(byte[] data, int off, int len) throws IOException
+    {
+        if(buffer.length - count < 1)
+        {
+            flushBuffer();
+        }
+        flushPendingSurrogate();
+        while(len > 0)
+        {
+            if(buffer.length - count < 4)
+            {
+                flushBuffer();
+            }
+            // encode as many complete 3 byte groups as fit into the buffer
+            int chunk = Math.min(len, ((buffer.length - count) / 4) * 3);
+            count += Base64Coder.encode(data, off, chunk, buffer, count);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Write the platform line separator, the same way <code>PrintStream.println()</code> does.
+     *
+     * @throws IOException if writing to the underlying stream fails
+     */
+    public void newLine() throws IOException
+    {
+        if(buffer.length - count < LINE_SEPARATOR.length + 1)
+        {
+            flushBuffer();
+        }
+        flushPendingSurrogate();
+        System.arraycopy(LINE_SEPARATOR, 0, buffer, count, LINE_SEPARATOR.length);
+        count += LINE_SEPARATOR.length;
+    }
+
+    /**
+     * @return the total number of bytes written to this writer, including the bytes still in the buffer
+     */
+    public long getPosition()
+    {
+        return flushedBytes + count;
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if(out == null)
+        {
+            return;
+        }
+        try
+        {
+            flushBuffer();
+            flushPendingSurrogate();
+            flush();
+        }
+        finally
+        {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Hand all buffered bytes to the underlying stream. The underlying stream is not flushed.
+     *
+     * @throws IOException if writing to the underlying stream fails
+     */
+    protected void flushBuffer() throws IOException
+    {
+        if(count > 0)
+        {
+            out.write(buffer, 0, count);
+            flushedBytes += count;
+            count = 0;
+        }
+    }
+
+    /**
+     * Encode a single character into the buffer. There must be room for at least 4 bytes.
+     */
+    private void encodeChar(char c)
+    {
+        if(pendingHighSurrogate != 0)
+        {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if(Character.isLowSurrogate(c))
+            {
+                int cp = Character.toCodePoint(high, c);
+                buffer[count++] = (byte)(0xF0 | (cp >> 18));
+                buffer[count++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                buffer[count++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                buffer[count++] = (byte)(0x80 | (cp & 0x3F));
+                return;
+            }
+            buffer[count++] = '?';
+        }
+        if(c < 0x80)
+        {
+            buffer[count++] = (byte)c;
+        }
+        else if(c < 0x800)
+        {
+            buffer[count++] = (byte)(0xC0 | (c >> 6));
+            buffer[count++] = (byte)(0x80 | (c & 0x3F));
+        }
+        else if(Character.isHighSurrogate(c))
+        {
+            pendingHighSurrogate = c;
+        }
+        else if(Character.isLowSurrogate(c))
+        {
+            buffer[count++] = '?';
+        }
+        else
+        {
+            buffer[count++] = (byte)(0xE0 | (c >> 12));
+            buffer[count++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            buffer[count++] = (byte)(0x80 | (c & 0x3F));
+        }
+    }
+
+    /**
+     * Write a dangling high surrogate as <code>'?'</code>. Needs room for 1 byte.
+     */
+    protected void flushPendingSurrogate()
+    {
+        if(pendingHighSurrogate != 0)
+        {
+            pendingHighSurrogate = 0;
+            buffer[count++] = '?';
+        }
+    }
+
+}
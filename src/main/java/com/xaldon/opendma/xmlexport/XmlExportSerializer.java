@@ -0,0 +1,287 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.WeakHashMap;
+
+import org.opendma.api.OdmaId;
+import org.opendma.api.OdmaQName;
+import org.opendma.api.OdmaType;
+
+/**
+ * Writes the OpenDMA XML repository format. This is the default format.
+ *
+ * <p>The opening tags of objects and properties are built once per
+ * {@link ClassSerializationPlan} and then written as a whole. Strings are written with
+ * {@link XMLWriter#writeEscaped(String)}, binary values as Base64.</p>
+ */
+public class XmlExportSerializer implements ExportSerializer
+{
+
+    protected final XMLWriter out;
+
+    /** only used for timestamps not supported by {@link UtcTimestampFormat} */
+    protected SimpleDateFormat fallbackDateFormat = null;
+
+    /** the opening tags of the objects and properties of each plan, see {@link #createTags(ClassSerializationPlan)} */
+    protected final WeakHashMap<ClassSerializationPlan,String[]> tags = new WeakHashMap<ClassSerializationPlan,String[]>();
+
+    /** the plan of the object being written */
+    protected ClassSerializationPlan currentPlan = null;
+
+    protected String[] currentTags = null;
+
+    /**
+     * Create a new XmlExportSerializer.
+     *
+     * @param out the writer of the export
+     */
+    public XmlExportSerializer(XMLWriter out)
+    {
+        this.out = out;
+    }
+
+    public void startDocument(String repositoryObjectId) throws IOException
+    {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        out.newLine();
+        out.write("<OdmaXmlRepository xmlns=\"http://www.opendma.org/XMLRepository\" repositoryObjectId=\"");
+        out.write(repositoryObjectId);
+        out.write("\">");
+        out.newLine();
+    }
+
+    public void endDocument() throws IOException
+    {
+        out.write("</OdmaXmlRepository>");
+        out.newLine();
+    }
+
+    public void startObject(ClassSerializationPlan plan) throws IOException
+    {
+        out.write(getTags(plan)[0]);
+        out.newLine();
+    }
+
+    public void endObject() throws IOException
+    {
+        out.write("    </OdmaObject>");
+        out.newLine();
+    }
+
+    public void startProperty(ClassSerializationPlan plan, int i) throws IOException
+    {
+        out.write(getTags(plan)[i + 1]);
+    }
+
+    public void endProperty() throws IOException
+    {
+        out.write("</Property>");
+        out.newLine();
+    }
+
+    public void writeString(String value) throws IOException
+    {
+        out.write("<Value>");
+        out.writeEscaped(value);
+        out.write("</Value>");
+    }
+
+    public void writeInteger(int value) throws IOException
+    {
+        out.write("<Value>");
+        out.writeDecimal(value);
+        out.write("</Value>");
+    }
+
+    public void writeShort(short value) throws IOException
+    {
+        out.write("<Value>");
+        out.writeDecimal(value);
+        out.write("</Value>");
+    }
+
+    public void writeLong(long value) throws IOException
+    {
+        out.write("<Value>");
+        out.writeDecimal(value);
+        out.write("</Value>");
+    }
+
+    public void writeFloat(float value) throws IOException
+    {
+        out.write("<Value>");
+        out.write(Float.toString(value));
+        out.write("</Value>");
+    }
+
+    public void writeDouble(double value) throws IOException
+    {
+        out.write("<Value>");
+        out.write(Double.toString(value));
+        out.write("</Value>");
+    }
+
+    public void writeBoolean(boolean value) throws IOException
+    {
+        out.write("<Value>");
+        out.write(value ? "true" : "false");
+        out.write("</Value>");
+    }
+
+    public void writeDateTime(Date value) throws IOException
+    {
+        out.write("<Value>");
+        if(!out.writeTimestamp(value.getTime()))
+        {
+            // years before the Gregorian calendar or with more than 4 digits
+            if(fallbackDateFormat == null)
+            {
+                fallbackDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+                fallbackDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+                fallbackDateFormat.setLenient(false);
+            }
+            out.write(fallbackDateFormat.format(value));
+        }
+        out.write("</Value>");
+    }
+
+    public void writeBinary(byte[] value) throws IOException
+    {
+        out.write("<Value>");
+        out.writeBase64(value);
+        out.write("</Value>");
+    }
+
+    public void writeReference(String referencedObjectId) throws IOException
+    {
+        out.write("<Value>");
+        out.write(referencedObjectId);
+        out.write("</Value>");
+    }
+
+    public void writeContent(String fileName) throws IOException
+    {
+        out.write("<Value>");
+        out.write(fileName);
+        out.write("</Value>");
+    }
+
+    public void writeId(OdmaId value) throws IOException
+    {
+        out.write("<Value>");
+        out.write(value.toString());
+        out.write("</Value>");
+    }
+
+    /**
+     * Returns the opening tags of the given plan. Consecutive objects usually share their
+     * class, so the tags of the current plan are kept at hand.
+     */
+    protected String[] getTags(ClassSerializationPlan plan)
+    {
+        if(plan != currentPlan)
+        {
+            String[] planTags = tags.get(plan);
+            if(planTags == null)
+            {
+                planTags = createTags(plan);
+                tags.put(plan, planTags);
+            }
+            currentPlan = plan;
+            currentTags = planTags;
+        }
+        return currentTags;
+    }
+
+    /**
+     * @return the opening tag of the objects at index 0, followed by the opening tags of the
+     *     properties. <code>null</code> for a plan without class and for properties of unsupported data types
+     */
+    protected String[] createTags(ClassSerializationPlan plan)
+    {
+        String[] result = new String[plan.size() + 1];
+        OdmaQName classQName = plan.getClassQName();
+        if(classQName != null)
+        {
+            result[0] = "    <OdmaObject classNamespace=\""+classQName.getNamespace()+"\" className=\""+classQName.getName()+"\">";
+        }
+        for(int i = 0; i < plan.size(); i++)
+        {
+            String typeName = plan.getPropertyType(i) != null ? getTypeName(plan.getPropertyType(i)) : null;
+            if(typeName != null)
+            {
+                OdmaQName propertyName = plan.getPropertyName(i);
+                result[i + 1] = "        <Property namespace=\""+propertyName.getNamespace()+"\" name=\""+propertyName.getName()+"\" type=\""+typeName+(plan.isMultiValue(i) ? "\" multiValue=\"true\">" : "\" multiValue=\"false\">");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the value of the <code>type</code> attribute of properties with the given data
+     *     type or <code>null</code> if the data type is not supported
+     */
+    protected String getTypeName(OdmaType type)
+    {
+        switch(type)
+        {
+        case STRING:
+            return "string";
+        case INTEGER:
+            return "integer";
+        case SHORT:
+            return "short";
+        case LONG:
+            return "long";
+        case FLOAT:
+            return "float";
+        case DOUBLE:
+            return "double";
+        case BOOLEAN:
+            return "boolean";
+        case DATETIME:
+            return "datetime";
+        case BINARY:
+            return "blob";
+        case REFERENCE:
+            return "reference";
+        case CONTENT:
+            return "content";
+        case ID:
+            return "id";
+        default:
+            return null;
+        }
+    }
+
+    public void writeState(DataOutputStream dos)
+    {
+        // the XML document has no state besides the output
+    }
+
+    public void readState(DataInputStream dis)
+    {
+        // the XML document has no state besides the output
+    }
+
+    public long getPosition()
+    {
+        return out.getPosition();
+    }
+
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    public void close() throws IOException
+    {
+        out.close();
+    }
+
+}
@@ -0,0 +1,396 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opendma.api.OdmaClass;
+import org.opendma.api.OdmaContent;
+import org.opendma.api.OdmaId;
+import org.opendma.api.OdmaObject;
+import org.opendma.api.OdmaProperty;
+import org.opendma.api.OdmaPropertyInfo;
+import org.opendma.api.OdmaQName;
+import org.opendma.api.OdmaType;
+
+/**
+ * Factory of in-memory OpenDMA objects for benchmarks, load tests and unit tests.
+ *
+ * <p>The objects are dynamic proxies, so they do not depend on the full method set of the
+ * OpenDMA API version on the class path. Every getter of the OpenDMA interfaces is answered
+ * from the property of the same name in the <code>opendma</code> namespace, e.g.
+ * <code>isRetrievable()</code> from <code>opendma:Retrievable</code>, the same way the
+ * OpenDMA specification defines these getters. Methods without a matching property throw an
+ * <code>UnsupportedOperationException</code>.</p>
+ *
+ * <p>All property objects are created up front, so reading a property does not allocate and
+ * the measured costs are those of the exporter.</p>
+ */
+public class SyntheticObjects
+{
+
+    public static final OdmaQName PROPERTY_ID = new OdmaQName("opendma", "Id");
+
+    public static final OdmaQName PROPERTY_CLASS = new OdmaQName("opendma", "Class");
+
+    public static final OdmaQName PROPERTY_NAMESPACE = new OdmaQName("opendma", "Namespace");
+
+    public static final OdmaQName PROPERTY_NAME = new OdmaQName("opendma", "Name");
+
+    public static final OdmaQName PROPERTY_DATATYPE = new OdmaQName("opendma", "DataType");
+
+    public static final OdmaQName PROPERTY_MULTIVALUE = new OdmaQName("opendma", "MultiValue");
+
+    public static final OdmaQName PROPERTY_PROPERTIES = new OdmaQName("opendma", "Properties");
+
+    public static final OdmaQName PROPERTY_DECLAREDPROPERTIES = new OdmaQName("opendma", "DeclaredProperties");
+
+    public static final OdmaQName PROPERTY_SUBCLASSES = new OdmaQName("opendma", "SubClasses");
+
+    public static final OdmaQName PROPERTY_RETRIEVABLE = new OdmaQName("opendma", "Retrievable");
+
+    /** The class of all synthetic classes */
+    protected final SyntheticObject classClass;
+
+    /** The class of all synthetic property infos */
+    protected final SyntheticObject propertyInfoClass;
+
+    /** getter method name to property name, filled on first use */
+    protected static final ConcurrentHashMap<String,OdmaQName> GETTERS = new ConcurrentHashMap<String,OdmaQName>();
+
+    protected int idCounter = 0;
+
+    /**
+     * Create a new SyntheticObjects factory with its own meta classes.
+     */
+    public SyntheticObjects()
+    {
+        classClass = new SyntheticObject(nextId("class"), OdmaClass.class);
+        propertyInfoClass = new SyntheticObject(nextId("class"), OdmaClass.class);
+        initClass(classClass, classClass, "opendma", "Class", null, true);
+        initClass(propertyInfoClass, classClass, "opendma", "PropertyInfo", null, true);
+        OdmaPropertyInfo[] classProperties = new OdmaPropertyInfo[] {
+            createPropertyInfo("opendma", "Id", OdmaType.ID, false),
+            createPropertyInfo("opendma", "Namespace", OdmaType.STRING, false),
+            createPropertyInfo("opendma", "Name", OdmaType.STRING, false),
+            createPropertyInfo("opendma", "Retrievable", OdmaType.BOOLEAN, false)
+        };
+        OdmaPropertyInfo[] propertyInfoProperties = new OdmaPropertyInfo[] {
+            createPropertyInfo("opendma", "Id", OdmaType.ID, false),
+            createPropertyInfo("opendma", "Namespace", OdmaType.STRING, false),
+            createPropertyInfo("opendma", "Name", OdmaType.STRING, false),
+            createPropertyInfo("opendma", "DataType", OdmaType.INTEGER, false),
+            createPropertyInfo("opendma", "MultiValue", OdmaType.BOOLEAN, false)
+        };
+        for(OdmaPropertyInfo pi : classProperties)
+        {
+            classClass.addToList(PROPERTY_PROPERTIES, pi);
+            classClass.addToList(PROPERTY_DECLAREDPROPERTIES, pi);
+        }
+        for(OdmaPropertyInfo pi : propertyInfoProperties)
+        {
+            propertyInfoClass.addToList(PROPERTY_PROPERTIES, pi);
+            propertyInfoClass.addToList(PROPERTY_DECLAREDPROPERTIES, pi);
+        }
+    }
+
+    /**
+     * Create a new property info.
+     *
+     * @param namespace the namespace of the property
+     * @param name the name of the property
+     * @param type the data type of the property
+     * @param multiValue true for a multi-valued property
+     *
+     * @return the new property info
+     */
+    public OdmaPropertyInfo createPropertyInfo(String namespace, String name, OdmaType type, boolean multiValue)
+    {
+        SyntheticObject pi = new SyntheticObject(nextId("property"), OdmaPropertyInfo.class);
+        pi.set(PROPERTY_ID, OdmaType.ID, pi.id);
+        pi.set(PROPERTY_CLASS, OdmaType.REFERENCE, propertyInfoClass.getProxy());
+        pi.set(PROPERTY_NAMESPACE, OdmaType.STRING, namespace);
+        pi.set(PROPERTY_NAME, OdmaType.STRING, name);
+        pi.set(PROPERTY_DATATYPE, OdmaType.INTEGER, Integer.valueOf(type.getNumericId()));
+        pi.set(PROPERTY_MULTIVALUE, OdmaType.BOOLEAN, Boolean.valueOf(multiValue));
+        return (OdmaPropertyInfo)pi.getProxy();
+    }
+
+    /**
+     * Create a new class. The class inherits all properties of its super class and is added
+     * to the sub classes of its super class.
+     *
+     * @param namespace the namespace of the class
+     * @param name the name of the class
+     * @param superClass the super class or <code>null</code> for a root class
+     * @param retrievable false if objects of this class can only be exported where they are referenced
+     * @param declaredProperties the properties declared by this class
+     *
+     * @return the new class
+     */
+    public OdmaClass createClass(String namespace, String name, OdmaClass superClass, boolean retrievable, List<OdmaPropertyInfo> declaredProperties)
+    {
+        SyntheticObject cls = new SyntheticObject(nextId("class"), OdmaClass.class);
+        initClass(cls, classClass, namespace, name, superClass, retrievable);
+        for(OdmaPropertyInfo pi : declaredProperties)
+        {
+            cls.addToList(PROPERTY_PROPERTIES, pi);
+            cls.addToList(PROPERTY_DECLAREDPROPERTIES, pi);
+        }
+        return (OdmaClass)cls.getProxy();
+    }
+
+    /**
+     * Create a new object without any values.
+     *
+     * @param id the ID of the object
+     * @param cls the class of the object
+     *
+     * @return the new object
+     */
+    public OdmaObject createObject(String id, OdmaClass cls)
+    {
+        return createObject(id, cls, OdmaObject.class);
+    }
+
+    /**
+     * Create a new object implementing the given OpenDMA interface, e.g. <code>OdmaRepository</code>.
+     *
+     * @param id the ID of the object
+     * @param cls the class of the object
+     * @param type the interface to implement
+     *
+     * @return the new object
+     */
+    public <T extends OdmaObject> T createObject(String id, OdmaClass cls, Class<T> type)
+    {
+        SyntheticObject obj = new SyntheticObject(new OdmaId(id), type);
+        obj.set(PROPERTY_ID, OdmaType.ID, obj.id);
+        obj.set(PROPERTY_CLASS, OdmaType.REFERENCE, cls);
+        return type.cast(obj.getProxy());
+    }
+
+    /**
+     * Set a value of a synthetic object. The data type is taken from the property info.
+     *
+     * @param obj the object created by this factory
+     * @param pi the property to set
+     * @param value the value. A <code>List</code> for multi-valued properties
+     */
+    public static void setValue(OdmaObject obj, OdmaPropertyInfo pi, Object value)
+    {
+        SyntheticObject target = getSyntheticObject(obj);
+        target.set(pi.getQName(), toType(pi.getDataType()), pi.isMultiValue(), value);
+    }
+
+    /**
+     * Create a new content.
+     *
+     * @param data the bytes of the content. The array is not copied
+     *
+     * @return the new content
+     */
+    public static OdmaContent createContent(final byte[] data)
+    {
+        return (OdmaContent)Proxy.newProxyInstance(SyntheticObjects.class.getClassLoader(), new Class<?>[] { OdmaContent.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                String name = method.getName();
+                if(name.equals("getStream"))
+                {
+                    return new ByteArrayInputStream(data);
+                }
+                if(name.equals("getSize"))
+                {
+                    return Long.valueOf(data.length);
+                }
+                return invokeObjectMethod(proxy, method, args, "content");
+            }
+        });
+    }
+
+    /**
+     * @param numericId the numeric ID of a data type
+     *
+     * @return the data type with this numeric ID
+     */
+    public static OdmaType toType(int numericId)
+    {
+        for(OdmaType type : OdmaType.values())
+        {
+            if(type.getNumericId() == numericId)
+            {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown data type "+numericId);
+    }
+
+    protected OdmaId nextId(String prefix)
+    {
+        return new OdmaId(prefix+"-"+(idCounter++));
+    }
+
+    protected void initClass(SyntheticObject cls, SyntheticObject metaClass, String namespace, String name, OdmaClass superClass, boolean retrievable)
+    {
+        cls.set(PROPERTY_ID, OdmaType.ID, cls.id);
+        cls.set(PROPERTY_CLASS, OdmaType.REFERENCE, metaClass.getProxy());
+        cls.set(PROPERTY_NAMESPACE, OdmaType.STRING, namespace);
+        cls.set(PROPERTY_NAME, OdmaType.STRING, name);
+        cls.set(PROPERTY_RETRIEVABLE, OdmaType.BOOLEAN, Boolean.valueOf(retrievable));
+        cls.set(PROPERTY_PROPERTIES, OdmaType.REFERENCE, true, new ArrayList<Object>());
+        cls.set(PROPERTY_DECLAREDPROPERTIES, OdmaType.REFERENCE, true, new ArrayList<Object>());
+        cls.set(PROPERTY_SUBCLASSES, OdmaType.REFERENCE, true, new ArrayList<Object>());
+        if(superClass != null)
+        {
+            for(OdmaPropertyInfo pi : superClass.getProperties())
+            {
+                cls.addToList(PROPERTY_PROPERTIES, pi);
+            }
+            getSyntheticObject(superClass).addToList(PROPERTY_SUBCLASSES, cls.getProxy());
+        }
+    }
+
+    protected static SyntheticObject getSyntheticObject(Object proxy)
+    {
+        return (SyntheticObject)Proxy.getInvocationHandler(proxy);
+    }
+
+    protected static Object invokeObjectMethod(Object proxy, Method method, Object[] args, String description)
+    {
+        String name = method.getName();
+        if(name.equals("equals") && args != null && args.length == 1)
+        {
+            return Boolean.valueOf(proxy == args[0]);
+        }
+        if(name.equals("hashCode") && args == null)
+        {
+            return Integer.valueOf(System.identityHashCode(proxy));
+        }
+        if(name.equals("toString") && args == null)
+        {
+            return description;
+        }
+        throw new UnsupportedOperationException(method.getName()+" is not supported by synthetic objects");
+    }
+
+    /**
+     * The invocation handler and state of one synthetic object.
+     */
+    protected static class SyntheticObject implements InvocationHandler
+    {
+
+        protected final OdmaId id;
+
+        protected final Object proxy;
+
+        protected final LinkedHashMap<OdmaQName,OdmaProperty> properties = new LinkedHashMap<OdmaQName,OdmaProperty>();
+
+        protected SyntheticObject(OdmaId id, Class<? extends OdmaObject> type)
+        {
+            this.id = id;
+            this.proxy = Proxy.newProxyInstance(SyntheticObjects.class.getClassLoader(), new Class<?>[] { type }, this);
+        }
+
+        public Object getProxy()
+        {
+            return proxy;
+        }
+
+        protected void set(OdmaQName name, OdmaType type, Object value)
+        {
+            set(name, type, false, value);
+        }
+
+        protected void set(OdmaQName name, OdmaType type, boolean multiValue, Object value)
+        {
+            properties.put(name, createProperty(name, type, multiValue, value));
+        }
+
+        @SuppressWarnings("unchecked")
+        protected void addToList(OdmaQName name, Object value)
+        {
+            ((List<Object>)properties.get(name).getValue()).add(value);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+            if(name.equals("getProperty") && args != null && args.length == 1 && args[0] instanceof OdmaQName)
+            {
+                OdmaProperty prop = properties.get(args[0]);
+                if(prop == null)
+                {
+                    throw new IllegalArgumentException("Unknown property "+args[0]+" of synthetic object "+id);
+                }
+                return prop;
+            }
+            if(name.equals("getQName") && args == null)
+            {
+                return new OdmaQName((String)getValue(PROPERTY_NAMESPACE), (String)getValue(PROPERTY_NAME));
+            }
+            if(args == null && (name.startsWith("get") || name.startsWith("is")))
+            {
+                OdmaQName propertyName = GETTERS.get(name);
+                if(propertyName == null)
+                {
+                    String getterName = name.startsWith("get") ? name.substring(3) : name.substring(2);
+                    if(getterName.equals("OdmaClass"))
+                    {
+                        getterName = "Class";
+                    }
+                    propertyName = new OdmaQName("opendma", getterName);
+                    GETTERS.put(name, propertyName);
+                }
+                if(properties.containsKey(propertyName))
+                {
+                    return getValue(propertyName);
+                }
+            }
+            return invokeObjectMethod(proxy, method, args, "synthetic object "+id);
+        }
+
+        protected Object getValue(OdmaQName name)
+        {
+            OdmaProperty prop = properties.get(name);
+            return prop != null ? prop.getValue() : null;
+        }
+
+    }
+
+    protected static OdmaProperty createProperty(final OdmaQName name, final OdmaType type, final boolean multiValue, final Object value)
+    {
+        return (OdmaProperty)Proxy.newProxyInstance(SyntheticObjects.class.getClassLoader(), new Class<?>[] { OdmaProperty.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                String methodName = method.getName();
+                if(methodName.equals("getName"))
+                {
+                    return name;
+                }
+                if(methodName.equals("getType"))
+                {
+                    return type;
+                }
+                if(methodName.equals("isMultiValue"))
+                {
+                    return Boolean.valueOf(multiValue);
+                }
+                if(methodName.startsWith("get") && args == null)
+                {
+                    // getValue() and all typed getters like getString() or getReferenceIterable()
+                    return value;
+                }
+                return invokeObjectMethod(proxy, method, args, "property "+name);
+            }
+        });
+    }
+
+}
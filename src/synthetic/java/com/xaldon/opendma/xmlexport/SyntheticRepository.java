@@ -0,0 +1,445 @@
+package com.xaldon.opendma.xmlexport;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opendma.api.OdmaAdaptor;
+import org.opendma.api.OdmaClass;
+import org.opendma.api.OdmaContent;
+import org.opendma.api.OdmaId;
+import org.opendma.api.OdmaObject;
+import org.opendma.api.OdmaPropertyInfo;
+import org.opendma.api.OdmaQName;
+import org.opendma.api.OdmaRepository;
+import org.opendma.api.OdmaSession;
+import org.opendma.api.OdmaType;
+
+/**
+ * Generated in-memory repository for load tests and unit tests of the exporter.
+ *
+ * <p>The class tree is created up front. Objects are not stored, but generated
+ * deterministically from their index whenever they are retrieved, so a repository with
+ * millions of objects costs no memory. Two retrievals of the same object return equal values.
+ * All objects are reachable from the repository object through a chain of <code>Next</code>
+ * references, in addition to <code>Related</code> references to random other objects.</p>
+ *
+ * <p>The repository is configured with these properties, all optional:</p>
+ * <pre>
+ * Synthetic.ClassTreeDepth        : Levels of classes below the base class of all objects. Default is 2
+ * Synthetic.SubClasses            : Sub classes of each class. Default is 3
+ * Synthetic.PropertiesPerClass    : Properties declared by each class. Default is 4
+ * Synthetic.ObjectsPerClass       : Objects of each class. Default is 1000
+ * Synthetic.ReferenceFanOut       : Maximum number of Related references of an object. Default is 3
+ * Synthetic.Cycles                : true/false Allow references to objects with a lower index. Default is true
+ * Synthetic.NonRetrievableShare   : Share of objects with a dependent non-retrievable object, between 0 and 1. Default is 0.25
+ * Synthetic.ContentSize           : Size in bytes of the content of each object. Default is 0 (no content)
+ * Synthetic.LatencyMicros         : Latency of each getObject call in microseconds. Default is 0
+ * Synthetic.Seed                  : Seed of all generated values. Default is 42
+ * </pre>
+ */
+public class SyntheticRepository
+{
+
+    public static final String NAMESPACE = "synthetic";
+
+    /** number of distinct content blobs shared by all objects */
+    private static final int CONTENT_BLOBS = 16;
+
+    protected int classTreeDepth = 2;
+
+    protected int subClasses = 3;
+
+    protected int propertiesPerClass = 4;
+
+    protected int objectsPerClass = 1000;
+
+    protected int referenceFanOut = 3;
+
+    protected boolean cycles = true;
+
+    protected double nonRetrievableShare = 0.25;
+
+    protected int contentSize = 0;
+
+    protected long latencyMicros = 0;
+
+    protected long seed = 42;
+
+    protected final SyntheticObjects factory = new SyntheticObjects();
+
+    protected final OdmaId repositoryId = new OdmaId("synthetic-repository");
+
+    protected OdmaClass rootClass;
+
+    /** the classes of the retrievable objects. Objects are assigned to them in blocks of objectsPerClass */
+    protected final List<OdmaClass> itemClasses = new ArrayList<OdmaClass>();
+
+    protected OdmaClass dependentClass;
+
+    protected OdmaPropertyInfo propertyNext;
+
+    protected OdmaPropertyInfo propertyRelated;
+
+    protected OdmaPropertyInfo propertyDependent;
+
+    protected OdmaPropertyInfo propertyContent;
+
+    protected OdmaPropertyInfo propertyNote;
+
+    protected byte[][] contentBlobs;
+
+    protected OdmaRepository repository;
+
+    protected final AtomicLong getObjectCalls = new AtomicLong();
+
+    /**
+     * Create a new SyntheticRepository.
+     *
+     * @param props the configuration. Properties not starting with <code>Synthetic.</code> are ignored
+     */
+    public SyntheticRepository(Properties props)
+    {
+        classTreeDepth = getInt(props, "ClassTreeDepth", classTreeDepth, 0);
+        subClasses = getInt(props, "SubClasses", subClasses, 1);
+        propertiesPerClass = getInt(props, "PropertiesPerClass", propertiesPerClass, 0);
+        objectsPerClass = getInt(props, "ObjectsPerClass", objectsPerClass, 1);
+        referenceFanOut = getInt(props, "ReferenceFanOut", referenceFanOut, 0);
+        contentSize = getInt(props, "ContentSize", contentSize, 0);
+        latencyMicros = getInt(props, "LatencyMicros", (int)latencyMicros, 0);
+        seed = Long.parseLong(props.getProperty("Synthetic.Seed", Long.toString(seed)));
+        cycles = Boolean.parseBoolean(props.getProperty("Synthetic.Cycles", Boolean.toString(cycles)));
+        String shareConfig = props.getProperty("Synthetic.NonRetrievableShare");
+        if(shareConfig != null)
+        {
+            nonRetrievableShare = Double.parseDouble(shareConfig);
+            if(nonRetrievableShare < 0 || nonRetrievableShare > 1)
+            {
+                throw new IllegalArgumentException("Invalid value for Synthetic.NonRetrievableShare. Must be between 0 and 1");
+            }
+        }
+        createClasses();
+        createContentBlobs();
+        createRepositoryObject();
+    }
+
+    private static int getInt(Properties props, String name, int defaultValue, int minimum)
+    {
+        String config = props.getProperty("Synthetic."+name);
+        if(config == null)
+        {
+            return defaultValue;
+        }
+        int value;
+        try
+        {
+            value = Integer.parseInt(config);
+        }
+        catch(NumberFormatException nfe)
+        {
+            value = minimum - 1;
+        }
+        if(value < minimum)
+        {
+            throw new IllegalArgumentException("Invalid value for Synthetic."+name+". Must be a number of at least "+minimum);
+        }
+        return value;
+    }
+
+    /**
+     * @return the total number of retrievable objects, not counting the dependent non-retrievable objects
+     */
+    public long getObjectCount()
+    {
+        return (long)itemClasses.size() * objectsPerClass;
+    }
+
+    /**
+     * @return the number of getObject calls on all sessions so far
+     */
+    public long getObjectCalls()
+    {
+        return getObjectCalls.get();
+    }
+
+    public OdmaRepository getRepository()
+    {
+        return repository;
+    }
+
+    /**
+     * Create a new session on this repository.
+     */
+    public OdmaSession createSession()
+    {
+        return (OdmaSession)Proxy.newProxyInstance(SyntheticRepository.class.getClassLoader(), new Class<?>[] { OdmaSession.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                String name = method.getName();
+                if(name.equals("getRepository"))
+                {
+                    return repository;
+                }
+                if(name.equals("getObject") && args != null && args.length >= 2)
+                {
+                    getObjectCalls.incrementAndGet();
+                    simulateLatency();
+                    return getObject(args[1].toString());
+                }
+                if(name.equals("close"))
+                {
+                    return null;
+                }
+                return SyntheticObjects.invokeObjectMethod(proxy, method, args, "synthetic session");
+            }
+        });
+    }
+
+    /**
+     * Create an adaptor connecting to this repository, independent of the connection properties.
+     */
+    public OdmaAdaptor createAdaptor()
+    {
+        return (OdmaAdaptor)Proxy.newProxyInstance(SyntheticRepository.class.getClassLoader(), new Class<?>[] { OdmaAdaptor.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if(method.getName().equals("connect"))
+                {
+                    return createSession();
+                }
+                return SyntheticObjects.invokeObjectMethod(proxy, method, args, "synthetic adaptor");
+            }
+        });
+    }
+
+    /**
+     * Generate the object with the given ID.
+     *
+     * @param id the ID of a retrievable object
+     *
+     * @return the complete object
+     */
+    public OdmaObject getObject(String id)
+    {
+        if(id.equals(repositoryId.toString()))
+        {
+            return repository;
+        }
+        long index = -1;
+        if(id.startsWith("obj-"))
+        {
+            try
+            {
+                index = Long.parseLong(id.substring(4));
+            }
+            catch(NumberFormatException nfe)
+            {
+                index = -1;
+            }
+        }
+        if(index < 0 || index >= getObjectCount())
+        {
+            throw new IllegalArgumentException("No object with ID "+id+" in synthetic repository");
+        }
+        return createObject(index);
+    }
+
+    protected void simulateLatency()
+    {
+        if(latencyMicros <= 0)
+        {
+            return;
+        }
+        long deadline = System.nanoTime() + latencyMicros * 1000;
+        long remaining;
+        while((remaining = deadline - System.nanoTime()) > 0)
+        {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    protected void createClasses()
+    {
+        OdmaPropertyInfo propertyId = factory.createPropertyInfo("opendma", "Id", OdmaType.ID, false);
+        rootClass = factory.createClass("opendma", "Object", null, true, Arrays.asList(propertyId));
+        propertyNote = factory.createPropertyInfo(NAMESPACE, "Note", OdmaType.STRING, false);
+        dependentClass = factory.createClass(NAMESPACE, "Dependent", rootClass, false, Arrays.asList(propertyNote));
+        propertyNext = factory.createPropertyInfo(NAMESPACE, "Next", OdmaType.REFERENCE, false);
+        propertyRelated = factory.createPropertyInfo(NAMESPACE, "Related", OdmaType.REFERENCE, true);
+        propertyDependent = factory.createPropertyInfo(NAMESPACE, "Dependent", OdmaType.REFERENCE, false);
+        List<OdmaPropertyInfo> itemProperties = new ArrayList<OdmaPropertyInfo>(Arrays.asList(propertyNext, propertyRelated, propertyDependent));
+        if(contentSize > 0)
+        {
+            propertyContent = factory.createPropertyInfo(NAMESPACE, "Content", OdmaType.CONTENT, false);
+            itemProperties.add(propertyContent);
+        }
+        itemProperties.addAll(createDeclaredProperties("Item"));
+        OdmaClass itemClass = factory.createClass(NAMESPACE, "Item", rootClass, true, itemProperties);
+        itemClasses.add(itemClass);
+        List<OdmaClass> level = Arrays.asList(itemClass);
+        for(int depth = 1; depth <= classTreeDepth; depth++)
+        {
+            List<OdmaClass> nextLevel = new ArrayList<OdmaClass>();
+            for(OdmaClass superClass : level)
+            {
+                for(int i = 0; i < subClasses; i++)
+                {
+                    String name = superClass.getName()+"_"+i;
+                    OdmaClass cls = factory.createClass(NAMESPACE, name, superClass, true, createDeclaredProperties(name));
+                    nextLevel.add(cls);
+                    itemClasses.add(cls);
+                }
+            }
+            level = nextLevel;
+        }
+    }
+
+    /** the data types of the generated scalar properties, in rotation */
+    private static final OdmaType[] SCALAR_TYPES = new OdmaType[] { OdmaType.STRING, OdmaType.INTEGER, OdmaType.DATETIME, OdmaType.LONG, OdmaType.BOOLEAN, OdmaType.DOUBLE, OdmaType.STRING, OdmaType.BINARY };
+
+    protected List<OdmaPropertyInfo> createDeclaredProperties(String className)
+    {
+        List<OdmaPropertyInfo> result = new ArrayList<OdmaPropertyInfo>();
+        for(int i = 0; i < propertiesPerClass; i++)
+        {
+            OdmaType type = SCALAR_TYPES[i % SCALAR_TYPES.length];
+            result.add(factory.createPropertyInfo(NAMESPACE, className+"_P"+i, type, false));
+        }
+        return result;
+    }
+
+    protected void createContentBlobs()
+    {
+        if(contentSize <= 0)
+        {
+            return;
+        }
+        Random random = new Random(seed);
+        contentBlobs = new byte[CONTENT_BLOBS][];
+        for(int i = 0; i < CONTENT_BLOBS; i++)
+        {
+            contentBlobs[i] = new byte[contentSize];
+            random.nextBytes(contentBlobs[i]);
+        }
+    }
+
+    protected void createRepositoryObject()
+    {
+        OdmaPropertyInfo propertyFirst = factory.createPropertyInfo(NAMESPACE, "First", OdmaType.REFERENCE, false);
+        OdmaClass repositoryClass = factory.createClass("opendma", "Repository", rootClass, true, Arrays.asList(propertyFirst));
+        repository = factory.createObject(repositoryId.toString(), repositoryClass, OdmaRepository.class);
+        SyntheticObjects.setValue(repository, propertyFirst, getObjectCount() > 0 ? createReference(0) : null);
+        SyntheticObjects.getSyntheticObject(repository).set(new OdmaQName("opendma", "RootClass"), OdmaType.REFERENCE, rootClass);
+    }
+
+    protected OdmaClass getItemClass(long index)
+    {
+        return itemClasses.get((int)(index / objectsPerClass));
+    }
+
+    /**
+     * Create a reference to a retrievable object. Like the references returned by many
+     * adaptors, it only knows its ID and class.
+     */
+    protected OdmaObject createReference(long index)
+    {
+        return factory.createObject("obj-"+index, getItemClass(index));
+    }
+
+    protected OdmaObject createObject(long index)
+    {
+        Random random = new Random(mix(seed + index * 0x9E3779B97F4A7C15L));
+        OdmaClass cls = getItemClass(index);
+        OdmaObject obj = factory.createObject("obj-"+index, cls);
+        long count = getObjectCount();
+        SyntheticObjects.setValue(obj, propertyNext, index + 1 < count ? createReference(index + 1) : null);
+        List<OdmaObject> related = new ArrayList<OdmaObject>();
+        int fanOut = referenceFanOut > 0 ? random.nextInt(referenceFanOut + 1) : 0;
+        for(int i = 0; i < fanOut; i++)
+        {
+            long target;
+            if(cycles)
+            {
+                target = (long)(random.nextDouble() * count);
+            }
+            else if(index + 1 < count)
+            {
+                target = index + 1 + (long)(random.nextDouble() * (count - index - 1));
+            }
+            else
+            {
+                break;
+            }
+            related.add(createReference(target));
+        }
+        SyntheticObjects.setValue(obj, propertyRelated, related);
+        OdmaObject dependent = null;
+        if(random.nextDouble() < nonRetrievableShare)
+        {
+            dependent = factory.createObject("dep-"+index, dependentClass);
+            SyntheticObjects.setValue(dependent, propertyNote, "Dependent object of "+index+" & <friends>");
+        }
+        SyntheticObjects.setValue(obj, propertyDependent, dependent);
+        if(propertyContent != null)
+        {
+            OdmaContent content = SyntheticObjects.createContent(contentBlobs[random.nextInt(CONTENT_BLOBS)]);
+            SyntheticObjects.setValue(obj, propertyContent, content);
+        }
+        for(OdmaPropertyInfo pi : cls.getProperties())
+        {
+            if(pi.getNamespace().equals(NAMESPACE) && pi.getName().indexOf("_P") > 0)
+            {
+                SyntheticObjects.setValue(obj, pi, createValue(SyntheticObjects.toType(pi.getDataType()), random));
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * The finalizer of SplitMix64. Seeds of neighbouring objects differ in few bits only, which
+     * would lead to similar first values of <code>java.util.Random</code>.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    protected Object createValue(OdmaType type, Random random)
+    {
+        switch(type)
+        {
+        case STRING:
+            return "Value "+Long.toString(random.nextLong() & Long.MAX_VALUE, 36)+" \"quoted\" <tag>";
+        case INTEGER:
+            return Integer.valueOf(random.nextInt());
+        case LONG:
+            return Long.valueOf(random.nextLong());
+        case DOUBLE:
+            return Double.valueOf(random.nextDouble() * 1000000);
+        case BOOLEAN:
+            return Boolean.valueOf(random.nextBoolean());
+        case DATETIME:
+            // 2000-01-01 plus up to 30 years
+            return new Date(946684800000L + (long)(random.nextDouble() * 30 * 365 * 86400000L));
+        case BINARY:
+            byte[] data = new byte[8 + random.nextInt(56)];
+            random.nextBytes(data);
+            return data;
+        default:
+            throw new IllegalArgumentException("Unsupported type "+type);
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Runs {@link AdaptiveLimiter} through complete windows of requests and checks the limit
+ * after each of them.
+ */
+public class AdaptiveLimiterTest
+{
+
+    private static final long LATENCY = 100000;
+
+    @Test
+    public void testWindowTransitions() throws InterruptedException
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(16, true, 2.0, 0);
+        assertEquals(1, limiter.getLimit());
+
+        // slow start doubles the limit after each saturated window, up to the maximum
+        int[] slowStart = { 2, 4, 8, 16, 16 };
+        for(int expected : slowStart)
+        {
+            runWindow(limiter, LATENCY, false, true);
+            assertEquals(expected, limiter.getLimit());
+        }
+        assertEquals(LATENCY, limiter.baselineNanos, 0);
+
+        // a window with high latency reduces the limit by a fifth and ends the slow start
+        runWindow(limiter, 3 * LATENCY, false, true);
+        assertEquals(12, limiter.getLimit());
+        assertFalse(limiter.slowStart);
+
+        // afterwards, the limit is raised by one
+        runWindow(limiter, LATENCY, false, true);
+        assertEquals(13, limiter.getLimit());
+
+        // a failed request halves it
+        runWindow(limiter, LATENCY, true, true);
+        assertEquals(6, limiter.getLimit());
+
+        // the limit is not raised if it has not been reached during the window
+        runWindow(limiter, LATENCY, false, false);
+        assertEquals(6, limiter.getLimit());
+
+        // latencies within the tolerance keep the limit
+        runWindow(limiter, (long)(1.9 * LATENCY), false, false);
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void testBaselineDrift() throws InterruptedException
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, true, 2.0, 0);
+        runWindow(limiter, LATENCY, false, false);
+        assertEquals(LATENCY, limiter.baselineNanos, 0);
+        // the baseline follows slower windows by 1% per window
+        double expected = LATENCY;
+        for(int i = 0; i < 10; i++)
+        {
+            runWindow(limiter, (long)(1.5 * LATENCY), false, false);
+            expected *= 1.01;
+            assertEquals(expected, limiter.baselineNanos, 0.001);
+        }
+        // and drops to a faster window at once
+        runWindow(limiter, LATENCY / 2, false, false);
+        assertEquals(LATENCY / 2, limiter.baselineNanos, 0);
+    }
+
+    @Test
+    public void testWindowSize() throws InterruptedException
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(64, true, 2.0, 0);
+        // the first 7 requests do not complete a window
+        for(int i = 0; i < 7; i++)
+        {
+            limiter.acquire();
+            limiter.release(LATENCY, false);
+        }
+        assertEquals(1, limiter.getLimit());
+        limiter.acquire();
+        limiter.release(LATENCY, false);
+        assertEquals(2, limiter.getLimit());
+        runWindow(limiter, LATENCY, false, true);
+        runWindow(limiter, LATENCY, false, true);
+        runWindow(limiter, LATENCY, false, true);
+        runWindow(limiter, LATENCY, false, true);
+        assertEquals(32, limiter.getLimit());
+        // with a limit of 32, a window takes 32 requests
+        for(int i = 0; i < 31; i++)
+        {
+            limiter.acquire();
+        }
+        for(int i = 0; i < 31; i++)
+        {
+            limiter.release(LATENCY, false);
+        }
+        assertEquals(32, limiter.getLimit());
+        assertEquals(31, limiter.windowCount);
+    }
+
+    @Test
+    public void testFixedLimit() throws InterruptedException
+    {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(2, false, 2.0, 0);
+        assertEquals(2, limiter.getLimit());
+        limiter.acquire();
+        limiter.acquire();
+        Thread waiting = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    limiter.acquire();
+                }
+                catch(InterruptedException ie)
+                {
+                    // ends the thread
+                }
+            }
+        };
+        waiting.start();
+        waiting.join(200);
+        assertTrue(waiting.isAlive());
+        limiter.release(LATENCY, true);
+        waiting.join(10000);
+        assertFalse(waiting.isAlive());
+        // errors do not change a fixed limit
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testRateLimit() throws InterruptedException
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, false, 2.0, 100);
+        long start = System.nanoTime();
+        for(int i = 0; i < 6; i++)
+        {
+            limiter.acquire();
+            limiter.release(LATENCY, false);
+        }
+        // the starts are spaced by 10 ms, the first one starts at once
+        assertTrue(System.nanoTime() - start >= 50000000L);
+    }
+
+    @Test
+    public void testArguments()
+    {
+        assertInvalid(0, 2.0, 0);
+        assertInvalid(1, 1.0, 0);
+        assertInvalid(1, 2.0, -1);
+    }
+
+    /**
+     * Complete exactly one window of requests with the given latency.
+     *
+     * @param failed let the first request of the window fail
+     * @param saturated start as many requests at once as the limit allows, otherwise one at a time
+     */
+    private static void runWindow(AdaptiveLimiter limiter, long latency, boolean failed, boolean saturated) throws InterruptedException
+    {
+        int size = Math.max(limiter.getLimit(), 8);
+        int done = 0;
+        while(done < size)
+        {
+            int batch = saturated ? Math.min(limiter.getLimit(), size - done) : 1;
+            for(int i = 0; i < batch; i++)
+            {
+                limiter.acquire();
+            }
+            for(int i = 0; i < batch; i++)
+            {
+                limiter.release(latency, failed && done == 0 && i == 0);
+            }
+            done += batch;
+        }
+        assertEquals(0, limiter.windowCount);
+    }
+
+    private static void assertInvalid(int maxLimit, double latencyTolerance, double maxRate)
+    {
+        try
+        {
+            new AdaptiveLimiter(maxLimit, true, latencyTolerance, maxRate);
+            fail("invalid arguments accepted");
+        }
+        catch(IllegalArgumentException iae)
+        {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the streaming Base64 encoders of {@link Base64Coder} and
+ * {@link XMLWriter#writeBase64(byte[], int, int)} with <code>java.util.Base64</code>.
+ */
+public class Base64CoderTest
+{
+
+    /** lengths around the padding cases and the chunk size of the streaming methods */
+    private static final int[] LENGTHS = { 0, 1, 2, 3, 4, 5, 6, 7, 100, 3071, 3072, 3073, 3074, 6144, 10000 };
+
+    private final Random random = new Random(5);
+
+    @Test
+    public void testEncoders() throws IOException
+    {
+        for(int length : LENGTHS)
+        {
+            // a part in the middle of a larger array
+            byte[] data = new byte[length + 7];
+            random.nextBytes(data);
+            String expected = Base64.getEncoder().encodeToString(slice(data, 3, length));
+
+            char[] chars = new char[(length + 2) / 3 * 4 + 2];
+            int n = Base64Coder.encode(data, 3, length, chars, 2);
+            assertEquals(expected, new String(chars, 2, n));
+
+            byte[] bytes = new byte[(length + 2) / 3 * 4 + 2];
+            n = Base64Coder.encode(data, 3, length, bytes, 2);
+            assertEquals(expected, new String(bytes, 2, n, StandardCharsets.US_ASCII));
+
+            CharArrayWriter writer = new CharArrayWriter();
+            Base64Coder.encode(data, 3, length, writer);
+            assertEquals(expected, writer.toString());
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            Base64Coder.encode(data, 3, length, stream);
+            assertEquals(expected, new String(stream.toByteArray(), StandardCharsets.US_ASCII));
+
+            assertArrayEquals(slice(data, 3, length), Base64Coder.decode(expected));
+        }
+    }
+
+    @Test
+    public void testChunks()
+    {
+        // chunks with a length divisible by 3 continue each other without padding
+        byte[] data = new byte[1000];
+        random.nextBytes(data);
+        char[] chars = new char[(data.length + 2) / 3 * 4];
+        int off = 0;
+        int op = 0;
+        int chunk = 3;
+        while(off < data.length)
+        {
+            int len = Math.min(chunk, data.length - off);
+            op += Base64Coder.encode(data, off, len, chars, op);
+            off += len;
+            chunk += 3;
+        }
+        assertEquals(Base64.getEncoder().encodeToString(data), new String(chars, 0, op));
+    }
+
+    @Test
+    public void testWriterBuffer() throws IOException
+    {
+        // buffer sizes from the minimum on, so the groups of 4 characters end at every
+        // possible position relative to the end of the buffer
+        for(int bufferSize = 32; bufferSize <= 47; bufferSize++)
+        {
+            for(int length : LENGTHS)
+            {
+                byte[] data = new byte[length + 5];
+                random.nextBytes(data);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                XMLWriter writer = new XMLWriter(bytes, bufferSize);
+                writer.write("<Value>");
+                writer.writeBase64(data, 5, length);
+                writer.write("</Value>");
+                writer.close();
+                String expected = "<Value>"+Base64.getEncoder().encodeToString(slice(data, 5, length))+"</Value>";
+                assertEquals("buffer "+bufferSize+", length "+length, expected, new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    @Test
+    public void testWriterAfterPendingSurrogate() throws IOException
+    {
+        // an unpaired high surrogate before the binary value is written as '?'
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        XMLWriter writer = new XMLWriter(bytes, 32);
+        writer.write("a\ud83d");
+        writer.writeBase64(new byte[] { 1, 2, 3 });
+        writer.close();
+        assertEquals("a?AQID", new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] slice(byte[] data, int off, int len)
+    {
+        byte[] result = new byte[len];
+        System.arraycopy(data, off, result, 0, len);
+        return result;
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.opendma.api.OdmaId;
+import org.opendma.api.OdmaPropertyInfo;
+import org.opendma.api.OdmaQName;
+import org.opendma.api.OdmaType;
+
+/**
+ * Writes documents with {@link BinaryExportSerializer} and reads them back with
+ * {@link BinaryExportReader}.
+ */
+public class BinaryExportRoundTripTest
+{
+
+    private static final OdmaQName CLASS_NAME = new OdmaQName("test", "AllTypes");
+
+    private static final String LONG_STRING = "a string longer than the strings kept in the dictionary of the binary format, \ud83d\ude00 \u00e4";
+
+    /** the properties of the plan, with the values written for each of them */
+    private static final Object[][] PROPERTIES = new Object[][] {
+        { "String", OdmaType.STRING, Boolean.FALSE, "short" },
+        { "LongString", OdmaType.STRING, Boolean.FALSE, LONG_STRING },
+        { "Integer", OdmaType.INTEGER, Boolean.FALSE, Integer.valueOf(Integer.MIN_VALUE) },
+        { "Short", OdmaType.SHORT, Boolean.FALSE, Short.valueOf(Short.MIN_VALUE) },
+        { "Long", OdmaType.LONG, Boolean.FALSE, Long.valueOf(Long.MAX_VALUE) },
+        { "Float", OdmaType.FLOAT, Boolean.FALSE, Float.valueOf(-0.0f) },
+        { "Double", OdmaType.DOUBLE, Boolean.FALSE, Double.valueOf(Double.NaN) },
+        { "Boolean", OdmaType.BOOLEAN, Boolean.FALSE, Boolean.TRUE },
+        { "DateTime", OdmaType.DATETIME, Boolean.FALSE, new Date(-12345678901L) },
+        { "Binary", OdmaType.BINARY, Boolean.FALSE, new byte[] { 0, 1, (byte)0x80, (byte)0xFF } },
+        { "Reference", OdmaType.REFERENCE, Boolean.FALSE, new OdmaId("ref-1") },
+        { "Content", OdmaType.CONTENT, Boolean.FALSE, "content/0/1.dat" },
+        { "Id", OdmaType.ID, Boolean.FALSE, new OdmaId("id-1") },
+        { "NullString", OdmaType.STRING, Boolean.FALSE },
+        { "NullReference", OdmaType.REFERENCE, Boolean.FALSE },
+        { "Strings", OdmaType.STRING, Boolean.TRUE, "short", "", LONG_STRING, "short" },
+        { "Integers", OdmaType.INTEGER, Boolean.TRUE, Integer.valueOf(0), Integer.valueOf(-1), Integer.valueOf(Integer.MAX_VALUE) },
+        { "Shorts", OdmaType.SHORT, Boolean.TRUE, Short.valueOf((short)1), Short.valueOf(Short.MAX_VALUE) },
+        { "Longs", OdmaType.LONG, Boolean.TRUE, Long.valueOf(Long.MIN_VALUE), Long.valueOf(64), Long.valueOf(-65) },
+        { "Floats", OdmaType.FLOAT, Boolean.TRUE, Float.valueOf(Float.MAX_VALUE), Float.valueOf(Float.NEGATIVE_INFINITY) },
+        { "Doubles", OdmaType.DOUBLE, Boolean.TRUE, Double.valueOf(Double.MIN_VALUE), Double.valueOf(1.5) },
+        { "Booleans", OdmaType.BOOLEAN, Boolean.TRUE, Boolean.FALSE, Boolean.TRUE },
+        { "DateTimes", OdmaType.DATETIME, Boolean.TRUE, new Date(0), new Date(253402300799999L) },
+        { "Binaries", OdmaType.BINARY, Boolean.TRUE, new byte[0], new byte[300] },
+        { "References", OdmaType.REFERENCE, Boolean.TRUE, new OdmaId("ref-1"), new OdmaId("ref-2") },
+        { "Contents", OdmaType.CONTENT, Boolean.TRUE, "content/0/2.dat", "content/0/3.dat" },
+        { "EmptyStrings", OdmaType.STRING, Boolean.TRUE },
+    };
+
+    @Test
+    public void testAllTypes() throws IOException
+    {
+        ClassSerializationPlan plan = createPlan();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryExportSerializer out = new BinaryExportSerializer(new XMLWriter(bytes, 64));
+        out.startDocument("repo-1");
+        writeObject(out, plan);
+        writeObject(out, plan);
+        out.endDocument();
+        out.close();
+
+        BinaryExportReader in = new BinaryExportReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("repo-1", in.getRepositoryObjectId());
+        // the second object refers to the names and strings defined by the first one
+        assertObject(in.readObject());
+        assertObject(in.readObject());
+        assertNull(in.readObject());
+        assertNull(in.readObject());
+        in.close();
+    }
+
+    @Test
+    public void testContinueFromState() throws IOException
+    {
+        // a resumed export continues the dictionaries of the interrupted one
+        ClassSerializationPlan plan = createPlan();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryExportSerializer out = new BinaryExportSerializer(new XMLWriter(bytes));
+        out.startDocument("repo-1");
+        writeObject(out, plan);
+        out.flush();
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        DataOutputStream stateStream = new DataOutputStream(state);
+        out.writeState(stateStream);
+        stateStream.flush();
+
+        BinaryExportSerializer resumed = new BinaryExportSerializer(new XMLWriter(bytes));
+        resumed.readState(new DataInputStream(new ByteArrayInputStream(state.toByteArray())));
+        writeObject(resumed, plan);
+        resumed.endDocument();
+        resumed.close();
+
+        BinaryExportReader in = new BinaryExportReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertObject(in.readObject());
+        assertObject(in.readObject());
+        assertNull(in.readObject());
+        in.close();
+    }
+
+    @Test
+    public void testStateWithLongNames() throws IOException
+    {
+        // names longer than the 64 KB writeUTF can handle
+        char[] chars = new char[70000];
+        Arrays.fill(chars, '\u00e4');
+        OdmaQName longName = new OdmaQName(new String(chars), "Long");
+        BinaryExportSerializer out = new BinaryExportSerializer(new XMLWriter(new ByteArrayOutputStream()));
+        out.startDocument("repo-1");
+        out.startObject(new ClassSerializationPlan(longName, new OdmaPropertyInfo[0], new OdmaQName[0], new OdmaType[0], new boolean[0]));
+        out.writeDictionaryString("short");
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        DataOutputStream stateStream = new DataOutputStream(state);
+        out.writeState(stateStream);
+        stateStream.flush();
+
+        BinaryExportSerializer resumed = new BinaryExportSerializer(new XMLWriter(new ByteArrayOutputStream()));
+        resumed.readState(new DataInputStream(new ByteArrayInputStream(state.toByteArray())));
+        assertEquals(out.qnameList, resumed.qnameList);
+        assertEquals(out.stringList, resumed.stringList);
+        assertEquals(Integer.valueOf(0), resumed.qnames.get(longName));
+    }
+
+    private static ClassSerializationPlan createPlan()
+    {
+        int size = PROPERTIES.length;
+        OdmaQName[] propertyNames = new OdmaQName[size];
+        OdmaType[] propertyTypes = new OdmaType[size];
+        boolean[] multiValue = new boolean[size];
+        for(int i = 0; i < size; i++)
+        {
+            propertyNames[i] = new OdmaQName("test", (String)PROPERTIES[i][0]);
+            propertyTypes[i] = (OdmaType)PROPERTIES[i][1];
+            multiValue[i] = ((Boolean)PROPERTIES[i][2]).booleanValue();
+        }
+        // serializers only use the names, types and cardinality of the plan
+        return new ClassSerializationPlan(CLASS_NAME, new OdmaPropertyInfo[size], propertyNames, propertyTypes, multiValue);
+    }
+
+    private static void writeObject(ExportSerializer out, ClassSerializationPlan plan) throws IOException
+    {
+        out.startObject(plan);
+        for(int i = 0; i < plan.size(); i++)
+        {
+            out.startProperty(plan, i);
+            for(int v = 3; v < PROPERTIES[i].length; v++)
+            {
+                writeValue(out, plan.getPropertyType(i), PROPERTIES[i][v]);
+            }
+            out.endProperty();
+        }
+        out.endObject();
+    }
+
+    private static void writeValue(ExportSerializer out, OdmaType type, Object value) throws IOException
+    {
+        switch(type)
+        {
+        case STRING:
+            out.writeString((String)value);
+            break;
+        case INTEGER:
+            out.writeInteger(((Integer)value).intValue());
+            break;
+        case SHORT:
+            out.writeShort(((Short)value).shortValue());
+            break;
+        case LONG:
+            out.writeLong(((Long)value).longValue());
+            break;
+        case FLOAT:
+            out.writeFloat(((Float)value).floatValue());
+            break;
+        case DOUBLE:
+            out.writeDouble(((Double)value).doubleValue());
+            break;
+        case BOOLEAN:
+            out.writeBoolean(((Boolean)value).booleanValue());
+            break;
+        case DATETIME:
+            out.writeDateTime((Date)value);
+            break;
+        case BINARY:
+            out.writeBinary((byte[])value);
+            break;
+        case REFERENCE:
+            out.writeReference(value.toString());
+            break;
+        case CONTENT:
+            out.writeContent((String)value);
+            break;
+        case ID:
+            out.writeId((OdmaId)value);
+            break;
+        default:
+            throw new IllegalArgumentException("Unexpected type "+type);
+        }
+    }
+
+    private static void assertObject(BinaryExportReader.ExportedObject obj)
+    {
+        assertEquals(CLASS_NAME, obj.getClassQName());
+        List<BinaryExportReader.ExportedProperty> properties = obj.getProperties();
+        assertEquals(PROPERTIES.length, properties.size());
+        for(int i = 0; i < PROPERTIES.length; i++)
+        {
+            BinaryExportReader.ExportedProperty prop = properties.get(i);
+            String name = (String)PROPERTIES[i][0];
+            assertEquals(new OdmaQName("test", name), prop.getName());
+            assertEquals(name, PROPERTIES[i][1], prop.getType());
+            assertEquals(name, ((Boolean)PROPERTIES[i][2]).booleanValue(), prop.isMultiValue());
+            List<Object> values = prop.getValues();
+            assertEquals(name, PROPERTIES[i].length - 3, values.size());
+            for(int v = 0; v < values.size(); v++)
+            {
+                assertValue(name+"["+v+"]", PROPERTIES[i][v + 3], values.get(v));
+            }
+        }
+    }
+
+    private static void assertValue(String message, Object expected, Object actual)
+    {
+        if(expected instanceof byte[])
+        {
+            assertTrue(message, actual instanceof byte[]);
+            assertArrayEquals(message, (byte[])expected, (byte[])actual);
+        }
+        else if(expected instanceof OdmaId)
+        {
+            assertTrue(message, actual instanceof OdmaId);
+            assertEquals(message, expected.toString(), actual.toString());
+        }
+        else
+        {
+            // Float and Double compare the bits, so -0.0 and NaN are checked as well
+            assertEquals(message, expected, actual);
+        }
+    }
+
+}
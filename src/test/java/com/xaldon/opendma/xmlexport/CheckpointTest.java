@@ -0,0 +1,142 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Interrupts exports of a synthetic repository after a checkpoint, resumes them and
+ * compares the result with an uninterrupted export.
+ */
+public class CheckpointTest
+{
+
+    @Test
+    public void testXml() throws Exception
+    {
+        assertResumedExport(new String[] {});
+    }
+
+    @Test
+    public void testBinaryWithFetchThreadsAndSpillFiles() throws Exception
+    {
+        assertResumedExport(new String[] { "Format=binary", "FetchThreads=4", "FetchBatchSize=3", "QueueMemoryLimit=20" });
+    }
+
+    @Test
+    public void testCompressedParts() throws Exception
+    {
+        assertResumedExport(new String[] { "Compression=gzip", "PartMaxObjects=150" });
+    }
+
+    private void assertResumedExport(String[] config) throws Exception
+    {
+        File directory = Files.createTempDirectory("checkpoint").toFile();
+        try
+        {
+            Properties props = new Properties();
+            props.setProperty("Synthetic.ObjectsPerClass", "40");
+            props.setProperty("AdaptorSystemId", "synthetic");
+            props.setProperty("Outfile", new File(directory, "export.xml").getPath());
+            props.setProperty("Verbose", "0");
+            props.setProperty("CheckpointInterval", "50");
+            for(String setting : config)
+            {
+                String[] keyValue = setting.split("=", 2);
+                props.setProperty(keyValue[0], keyValue[1]);
+            }
+            SyntheticRepository repository = new SyntheticRepository(props);
+            props.setProperty("Repository", repository.getRepository().getId().toString());
+
+            new XMLExporter(props).runExport(repository.createSession());
+            File checkpoint = new File(directory, "export.xml.checkpoint");
+            assertFalse(checkpoint.exists());
+            TreeMap<String,byte[]> expected = readFiles(directory);
+            deleteFiles(directory);
+
+            CrashingExporter crashing = new CrashingExporter(props, 3);
+            try
+            {
+                crashing.runExport(repository.createSession());
+                fail("export has not been interrupted");
+            }
+            catch(IllegalStateException ise)
+            {
+                assertEquals("interrupted", ise.getMessage());
+            }
+            assertTrue(checkpoint.exists());
+            new XMLExporter(props).runExport(repository.createSession());
+            assertFalse(checkpoint.exists());
+            TreeMap<String,byte[]> resumed = readFiles(directory);
+
+            assertEquals(expected.keySet(), resumed.keySet());
+            for(String name : expected.keySet())
+            {
+                assertArrayEquals(name, expected.get(name), resumed.get(name));
+            }
+        }
+        finally
+        {
+            deleteFiles(directory);
+            directory.delete();
+        }
+    }
+
+    /**
+     * Fails right after the given number of checkpoints has been written.
+     */
+    private static class CrashingExporter extends XMLExporter
+    {
+
+        private int remainingCheckpoints;
+
+        CrashingExporter(Properties props, int checkpoints) throws Exception
+        {
+            super(props);
+            remainingCheckpoints = checkpoints;
+        }
+
+        @Override
+        protected void writeCheckpoint(ExportSerializer out) throws Exception
+        {
+            super.writeCheckpoint(out);
+            if(--remainingCheckpoints == 0)
+            {
+                // output written after the checkpoint is discarded by the resumed export
+                out.writeString("written after the checkpoint");
+                out.flush();
+                throw new IllegalStateException("interrupted");
+            }
+        }
+
+    }
+
+    private static TreeMap<String,byte[]> readFiles(File directory) throws IOException
+    {
+        TreeMap<String,byte[]> result = new TreeMap<String,byte[]>();
+        for(File file : directory.listFiles())
+        {
+            result.put(file.getName(), Files.readAllBytes(file.toPath()));
+        }
+        return result;
+    }
+
+    private static void deleteFiles(File directory)
+    {
+        for(File file : directory.listFiles())
+        {
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/**
+ * Cuts files written by {@link CompressingOutputStream} back to a {@link CompressingOutputStream#sync()}
+ * point, continues them and decompresses the result.
+ */
+public class CompressingOutputStreamTest
+{
+
+    @Test
+    public void testResumeAtSyncPoint() throws IOException
+    {
+        File file = File.createTempFile("compressing", ".gz");
+        try
+        {
+            byte[] first = createData(1, 300000);
+            byte[] discarded = createData(2, 100000);
+            byte[] second = createData(3, 200000);
+
+            CompressingOutputStream out = new CompressingOutputStream(file, false);
+            writeInChunks(out, first);
+            long syncPoint = out.sync();
+            assertEquals(file.length(), syncPoint);
+            // written after the sync point, then lost with the interrupted export
+            writeInChunks(out, discarded);
+            out.sync();
+            writeInChunks(out, discarded);
+            out.close();
+            assertTrue(file.length() > syncPoint);
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try
+            {
+                raf.setLength(syncPoint);
+            }
+            finally
+            {
+                raf.close();
+            }
+            // the cut file is a complete gzip file
+            assertArrayEquals(first, decompress(file));
+
+            out = new CompressingOutputStream(file, true);
+            writeInChunks(out, second);
+            out.close();
+            assertArrayEquals(concat(first, second), decompress(file));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEmptySync() throws IOException
+    {
+        File file = File.createTempFile("compressing", ".gz");
+        try
+        {
+            CompressingOutputStream out = new CompressingOutputStream(file, false);
+            // no member is started without data
+            assertEquals(0, out.sync());
+            out.write(new byte[] { 'a' });
+            long syncPoint = out.sync();
+            assertTrue(syncPoint > 0);
+            assertEquals(syncPoint, out.sync());
+            out.close();
+            assertArrayEquals(new byte[] { 'a' }, decompress(file));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStreamTarget() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompressingOutputStream out = new CompressingOutputStream(bytes);
+        byte[] data = createData(4, 100000);
+        writeInChunks(out, data);
+        assertEquals(-1, out.sync());
+        writeInChunks(out, data);
+        out.close();
+        assertArrayEquals(concat(data, data), readAll(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    @Test
+    public void testErrorReported() throws IOException
+    {
+        CompressingOutputStream out = new CompressingOutputStream(new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                throw new IOException("disk full");
+            }
+        });
+        out.write(createData(5, 1000));
+        try
+        {
+            out.sync();
+            fail("error of the compression thread not reported");
+        }
+        catch(IOException ioe)
+        {
+            assertEquals("disk full", ioe.getMessage());
+        }
+        try
+        {
+            out.write(1);
+            fail("error of the compression thread not reported");
+        }
+        catch(IOException ioe)
+        {
+            assertEquals("disk full", ioe.getMessage());
+        }
+    }
+
+    /**
+     * Create compressible data: random words from a small alphabet.
+     */
+    private static byte[] createData(long seed, int length)
+    {
+        Random random = new Random(seed);
+        byte[] data = new byte[length];
+        for(int i = 0; i < length; i++)
+        {
+            data[i] = (byte)('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static void writeInChunks(OutputStream out, byte[] data) throws IOException
+    {
+        int off = 0;
+        int chunk = 1;
+        while(off < data.length)
+        {
+            int len = Math.min(chunk, data.length - off);
+            out.write(data, off, len);
+            off += len;
+            chunk = chunk * 3 + 1;
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b)
+    {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static byte[] decompress(File file) throws IOException
+    {
+        return readAll(new GZIPInputStream(new FileInputStream(file)));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        try
+        {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int num;
+            while((num = in.read(buffer)) > 0)
+            {
+                result.write(buffer, 0, num);
+            }
+            return result.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.opendma.api.OdmaContent;
+
+/**
+ * Checks the data files written by {@link ContentExporter}.
+ */
+public class ContentExporterTest
+{
+
+    @Test
+    public void testDeduplicatedLayout() throws IOException
+    {
+        File directory = Files.createTempDirectory("content").toFile();
+        try
+        {
+            String root = directory.getPath();
+            ContentExporter exporter = new ContentExporter(root, 1000, 0, true, false, null, null, null, null);
+            String first = exporter.exportContent(SyntheticObjects.createContent(new byte[] { 1, 2, 3 }), 1);
+            String second = exporter.exportContent(SyntheticObjects.createContent(new byte[] { 1, 2, 3 }), 2);
+            String other = exporter.exportContent(SyntheticObjects.createContent(new byte[] { 4 }), 3);
+            assertEquals(first, second);
+            assertFalse(first.equals(other));
+            assertEquals(1, exporter.getDuplicateCount());
+            assertEquals(3, exporter.getDuplicateBytes());
+            // 256 sub directories per level, and 3 levels keep 2^31 files below 1000 per directory
+            String digest = new File(first).getName().substring(0, 64);
+            assertEquals(root+"/"+digest.substring(0, 2)+"/"+digest.substring(2, 4)+"/"+digest.substring(4, 6)+"/"+digest+".dat", first);
+            assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(new File(first).toPath()));
+            assertArrayEquals(new byte[] { 4 }, Files.readAllBytes(new File(other).toPath()));
+        }
+        finally
+        {
+            deleteTree(directory);
+        }
+    }
+
+    @Test
+    public void testDigestDirectoryLevels()
+    {
+        String digest = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+        assertEquals("data", new ContentExporter("data", 0, 0, true, false, null, null, null, null).getDigestDirectory(digest));
+        assertEquals("data/0/1/2/3/4/5/6", new ContentExporter("data", 16, 0, true, false, null, null, null, null).getDigestDirectory(digest));
+        assertEquals("data/0/1/2/3/4/5/6", new ContentExporter("data", 100, 0, true, false, null, null, null, null).getDigestDirectory(digest));
+        assertEquals("data/01/23/45", new ContentExporter("data", 1000, 0, true, false, null, null, null, null).getDigestDirectory(digest));
+        assertEquals("data/012/345", new ContentExporter("data", 10000, 0, true, false, null, null, null, null).getDigestDirectory(digest));
+        assertEquals("data/0123", new ContentExporter("data", 1000000, 0, true, false, null, null, null, null).getDigestDirectory(digest));
+        try
+        {
+            new ContentExporter("data", 15, 0, true, false, null, null, null, null);
+            assertTrue("15 files per directory accepted", false);
+        }
+        catch(IllegalArgumentException iae)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCopyBacklogAndShutdown() throws Exception
+    {
+        File directory = Files.createTempDirectory("content").toFile();
+        try
+        {
+            final AtomicInteger reportedErrors = new AtomicInteger();
+            ExportListener listener = new ExportListener()
+            {
+                public void progress(ExportMetrics metrics)
+                {
+                }
+
+                public void message(String message)
+                {
+                }
+
+                public void error(Throwable error)
+                {
+                    reportedErrors.incrementAndGet();
+                }
+            };
+            final ContentExporter exporter = new ContentExporter(directory.getPath(), 0, 1, false, false, null, null, null, listener);
+            final CountDownLatch started = new CountDownLatch(1);
+            final OdmaContent blocking = createBlockingContent(started);
+            // one copy running and a full backlog
+            for(int i = 0; i < 1 + ContentExporter.COPY_BACKLOG_PER_THREAD; i++)
+            {
+                exporter.exportContent(blocking, i);
+            }
+            started.await();
+            final AtomicReference<Throwable> waitingResult = new AtomicReference<Throwable>();
+            Thread waiting = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        exporter.exportContent(blocking, 99);
+                    }
+                    catch(Throwable t)
+                    {
+                        waitingResult.set(t);
+                    }
+                }
+            };
+            waiting.start();
+            waiting.join(200);
+            // the next copy waits for a free slot instead of running on the calling thread
+            assertTrue(waiting.isAlive());
+            assertEquals(1 + ContentExporter.COPY_BACKLOG_PER_THREAD, exporter.pendingCopies.get());
+
+            exporter.shutdown();
+            waiting.join(10000);
+            assertFalse(waiting.isAlive());
+            assertTrue(waitingResult.get() instanceof IllegalStateException);
+            // the interrupted copy and the abandoned backlog are failed, nothing is left pending
+            exporter.awaitPending();
+            assertEquals(0, exporter.pendingCopies.get());
+            assertEquals(1 + ContentExporter.COPY_BACKLOG_PER_THREAD, exporter.takeFailedFiles().size());
+            // only the copy that has been started reports an error
+            assertEquals(1, reportedErrors.get());
+            assertEquals(1 + ContentExporter.COPY_BACKLOG_PER_THREAD, exporter.finish());
+            assertEquals(0, directory.list().length);
+            try
+            {
+                exporter.exportContent(blocking, 100);
+                assertTrue("content exported after shutdown", false);
+            }
+            catch(IllegalStateException ise)
+            {
+                // expected
+            }
+        }
+        finally
+        {
+            deleteTree(directory);
+        }
+    }
+
+    /**
+     * Create a content with a stream blocking until the reading thread is interrupted.
+     */
+    private static OdmaContent createBlockingContent(final CountDownLatch started)
+    {
+        return (OdmaContent)Proxy.newProxyInstance(ContentExporterTest.class.getClassLoader(), new Class<?>[] { OdmaContent.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if(!method.getName().equals("getStream"))
+                {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                return new InputStream()
+                {
+                    @Override
+                    public int read() throws IOException
+                    {
+                        started.countDown();
+                        try
+                        {
+                            new CountDownLatch(1).await();
+                        }
+                        catch(InterruptedException ie)
+                        {
+                            throw new InterruptedIOException();
+                        }
+                        return -1;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException
+                    {
+                        return read();
+                    }
+                };
+            }
+        });
+    }
+
+    private static void deleteTree(File file)
+    {
+        File[] children = file.listFiles();
+        if(children != null)
+        {
+            for(File child : children)
+            {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+}
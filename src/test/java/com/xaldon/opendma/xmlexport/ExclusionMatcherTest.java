@@ -0,0 +1,118 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.opendma.api.OdmaClass;
+import org.opendma.api.OdmaPropertyInfo;
+
+/**
+ * Checks which class name patterns {@link ExclusionMatcher} combines into one alternation
+ * and that the combined patterns match like the separate ones.
+ */
+public class ExclusionMatcherTest
+{
+
+    private final SyntheticObjects factory = new SyntheticObjects();
+
+    @Test
+    public void testCanCombine()
+    {
+        assertTrue(ExclusionMatcher.canCombine("test:Item.*"));
+        assertTrue(ExclusionMatcher.canCombine("test:(Item|Folder)_\\d+"));
+        // an escaped backslash followed by a digit is no back reference
+        assertTrue(ExclusionMatcher.canCombine("test:a\\\\1"));
+        // lookbehind is no named group
+        assertTrue(ExclusionMatcher.canCombine("test:.*(?<=x)"));
+        assertTrue(ExclusionMatcher.canCombine("test:.*(?<!x)"));
+
+        // back references by number and name
+        assertFalse(ExclusionMatcher.canCombine("test:(a)\\1"));
+        assertFalse(ExclusionMatcher.canCombine("test:(?<x>a)\\k<x>"));
+        // group names must be unique in the alternation
+        assertFalse(ExclusionMatcher.canCombine("test:(?<x>a)"));
+        // a quotation without end would also quote the closing parenthesis
+        assertFalse(ExclusionMatcher.canCombine("test:\\Qa.b"));
+        assertFalse(ExclusionMatcher.canCombine("test:\\Qa.b\\E"));
+    }
+
+    @Test
+    public void testSeparatePatterns()
+    {
+        // combined, the second back reference would refer to the group of the first pattern
+        // and the named groups would collide
+        ExclusionMatcher matcher = createMatcher("test:Plain.*", "test:(a)\\1", "test:(b)\\1", "test:(?<n>c)\\k<n>", "test:(?<n>d)\\k<n>", "test:\\Qe.f", "test:Last");
+        assertEquals("(?:test:Plain.*)|(?:test:Last)", matcher.excludedClasses.pattern());
+        assertEquals(5, matcher.separateClassPatterns.size());
+        assertExcluded(matcher, "PlainItem", "aa", "bb", "cc", "dd", "e.f", "Last");
+        assertNotExcluded(matcher, "Plai", "ab", "ba", "cd", "exf", "e.f)", "last");
+    }
+
+    @Test
+    public void testFlags()
+    {
+        // patterns with flags keep them
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        patterns.add(Pattern.compile("test:item", Pattern.CASE_INSENSITIVE));
+        ExclusionMatcher matcher = new ExclusionMatcher(Collections.<String>emptyList(), patterns);
+        assertNull(matcher.excludedClasses);
+        assertExcluded(matcher, "ITEM", "Item");
+        assertNotExcluded(matcher, "Items");
+    }
+
+    @Test
+    public void testIdsAndVerdictCache()
+    {
+        ExclusionMatcher matcher = new ExclusionMatcher(Arrays.asList("id-1"), Collections.<Pattern>emptyList());
+        OdmaClass cls = createClass("Item");
+        assertTrue(matcher.isExcluded("id-1", cls));
+        assertFalse(matcher.isExcluded("id-2", cls));
+
+        matcher = createMatcher("test:Item");
+        assertTrue(matcher.isExcluded("id-2", cls));
+        assertEquals(Boolean.TRUE, matcher.classVerdicts.get(cls.getId().toString()));
+        assertFalse(matcher.isExcluded("id-3", createClass("Other")));
+        assertEquals(2, matcher.classVerdicts.size());
+    }
+
+    private ExclusionMatcher createMatcher(String... regexes)
+    {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for(String regex : regexes)
+        {
+            patterns.add(Pattern.compile(regex));
+        }
+        return new ExclusionMatcher(Collections.<String>emptyList(), patterns);
+    }
+
+    private void assertExcluded(ExclusionMatcher matcher, String... classNames)
+    {
+        for(String name : classNames)
+        {
+            assertTrue(name, matcher.isClassExcluded(createClass(name)));
+        }
+    }
+
+    private void assertNotExcluded(ExclusionMatcher matcher, String... classNames)
+    {
+        for(String name : classNames)
+        {
+            assertFalse(name, matcher.isClassExcluded(createClass(name)));
+        }
+    }
+
+    private OdmaClass createClass(String name)
+    {
+        return factory.createClass("test", name, null, true, Collections.<OdmaPropertyInfo>emptyList());
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.opendma.api.OdmaQName;
+
+/**
+ * Checks the order of {@link ExportQueue} across spill files and the handling of repeated IDs.
+ */
+public class ExportQueueTest
+{
+
+    private static final OdmaQName CLASS_NAME = new OdmaQName("test", "Item");
+
+    @Test
+    public void testOrderAcrossSpillFiles() throws IOException
+    {
+        File spillDirectory = createSpillDirectory();
+        try
+        {
+            // 5 entries per spill file
+            ExportQueue queue = new ExportQueue(spillDirectory, 10, new IdSet());
+            int added = 0;
+            int taken = 0;
+            // alternate between adding and taking, so entries are taken from the head, the spill files and the tail
+            for(int round = 1; round <= 20; round++)
+            {
+                for(int i = 0; i < round * 3; i++)
+                {
+                    assertTrue(queue.add("id-"+added, (added % 2) == 0 ? CLASS_NAME : null));
+                    added++;
+                }
+                assertEquals(added - taken, queue.size());
+                for(int i = 0; i < round * 2; i++)
+                {
+                    assertEntry(taken, queue.poll());
+                    taken++;
+                }
+            }
+            assertTrue(spillDirectory.list().length > 0);
+            while(!queue.isEmpty())
+            {
+                assertEntry(taken, queue.poll());
+                taken++;
+            }
+            assertEquals(added, taken);
+            assertNull(queue.poll());
+            // each spill file has been deleted when it was read back
+            assertEquals(0, spillDirectory.list().length);
+        }
+        finally
+        {
+            deleteDirectory(spillDirectory);
+        }
+    }
+
+    @Test
+    public void testDuplicates() throws IOException
+    {
+        ExportQueue queue = new ExportQueue(null, 10, new IdSet());
+        assertTrue(queue.add("a", CLASS_NAME));
+        assertTrue(queue.add("b", CLASS_NAME));
+        assertFalse(queue.add("a", CLASS_NAME));
+        assertEquals(2, queue.size());
+        assertEquals("a", queue.poll().getId());
+        // an ID taken from the queue is not queued again
+        assertFalse(queue.add("a", CLASS_NAME));
+        assertTrue(queue.contains("a"));
+        assertEquals("b", queue.poll().getId());
+        assertTrue(queue.isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void testRetryFailed() throws IOException
+    {
+        ExportQueue queue = new ExportQueue(null, 10, new IdSet());
+        assertTrue(queue.add("a", CLASS_NAME));
+        assertEquals("a", queue.poll().getId());
+        queue.markFailed("a");
+        assertFalse(queue.contains("a"));
+        // the next reference queues it again, but only once
+        assertTrue(queue.add("a", CLASS_NAME));
+        assertFalse(queue.add("a", CLASS_NAME));
+        assertTrue(queue.contains("a"));
+        assertEquals("a", queue.poll().getId());
+        assertTrue(queue.isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        File spillDirectory = createSpillDirectory();
+        try
+        {
+            ExportQueue queue = new ExportQueue(spillDirectory, 10, new IdSet());
+            for(int i = 0; i < 37; i++)
+            {
+                queue.add("id-"+i, (i % 2) == 0 ? CLASS_NAME : null);
+            }
+            for(int i = 0; i < 7; i++)
+            {
+                assertEntry(i, queue.poll());
+            }
+            queue.markFailed("id-3");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            queue.writeTo(out);
+            out.close();
+            // the queue is not modified by writing it
+            assertEquals(30, queue.size());
+            assertEntry(7, queue.poll());
+            queue.close();
+            assertEquals(0, spillDirectory.list().length);
+
+            ExportQueue restored = ExportQueue.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), spillDirectory, 10, 0);
+            assertEquals(30, restored.size());
+            assertFalse(restored.add("id-0", CLASS_NAME));
+            assertFalse(restored.add("id-20", CLASS_NAME));
+            assertTrue(restored.add("id-3", CLASS_NAME));
+            for(int i = 7; i < 37; i++)
+            {
+                assertEntry(i, restored.poll());
+            }
+            assertEquals("id-3", restored.poll().getId());
+            assertTrue(restored.isEmpty());
+            restored.close();
+            assertEquals(0, spillDirectory.list().length);
+        }
+        finally
+        {
+            deleteDirectory(spillDirectory);
+        }
+    }
+
+    private static void assertEntry(int expected, ExportQueue.Entry entry)
+    {
+        assertEquals("id-"+expected, entry.getId());
+        assertEquals((expected % 2) == 0 ? CLASS_NAME : null, entry.getClassQName());
+    }
+
+    private static File createSpillDirectory() throws IOException
+    {
+        File directory = File.createTempFile("exportqueue", ".dir");
+        directory.delete();
+        assertTrue(directory.mkdir());
+        return directory;
+    }
+
+    private static void deleteDirectory(File directory)
+    {
+        File[] files = directory.listFiles();
+        if(files != null)
+        {
+            for(File file : files)
+            {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+}
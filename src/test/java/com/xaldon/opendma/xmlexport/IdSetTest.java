@@ -0,0 +1,122 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link IdSet} against a <code>HashSet</code> of the same IDs.
+ */
+public class IdSetTest
+{
+
+    @Test
+    public void testGrowth()
+    {
+        IdSet set = new IdSet();
+        int initialSlots = set.table.length / 2;
+        for(int i = 0; i < 100000; i++)
+        {
+            assertTrue(set.add("id-"+i));
+            assertFalse(set.add("id-"+i));
+            assertEquals(i + 1, set.size());
+        }
+        assertTrue(set.table.length / 2 > initialSlots);
+        assertTrue(set.size() <= set.threshold);
+        for(int i = 0; i < 100000; i++)
+        {
+            assertTrue(set.contains("id-"+i));
+            assertFalse(set.contains("other-"+i));
+        }
+    }
+
+    @Test
+    public void testExpectedSize()
+    {
+        IdSet set = new IdSet(10000);
+        long[] table = set.table;
+        for(int i = 0; i < 10000; i++)
+        {
+            set.add(Integer.toString(i));
+        }
+        // sized up front, the table is never replaced
+        assertSame(table, set.table);
+    }
+
+    @Test
+    public void testCollisionProbing()
+    {
+        IdSet set = new IdSet();
+        int slots = set.table.length / 2;
+        // fingerprints starting in the same slot, the last one, so probing wraps around
+        long[] h1 = new long[20];
+        for(int i = 0; i < h1.length; i++)
+        {
+            h1[i] = (long)(i + 1) * slots + slots - 1;
+            assertTrue(set.insert(h1[i], i));
+            assertFalse(set.insert(h1[i], i));
+        }
+        HashSet<Integer> used = new HashSet<Integer>();
+        for(int i = 0; i < h1.length; i++)
+        {
+            int slot = set.find(h1[i], i);
+            assertFalse(set.isFree(slot));
+            assertEquals(h1[i], set.table[2*slot]);
+            assertEquals(i, set.table[2*slot+1]);
+            assertEquals((slots - 1 + i) % slots, slot);
+            used.add(Integer.valueOf(slot));
+        }
+        assertEquals(h1.length, used.size());
+        // a fingerprint differing only in the second half is not confused with the others
+        assertTrue(set.isFree(set.find(h1[0], 99)));
+        assertEquals(h1.length - 1, set.find(h1[0], 99));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        Random random = new Random(6);
+        IdSet set = new IdSet();
+        HashSet<String> ids = new HashSet<String>();
+        for(int i = 0; i < 5000; i++)
+        {
+            String id = Long.toHexString(random.nextLong());
+            assertEquals(ids.add(id), set.add(id));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        set.writeTo(out);
+        out.writeInt(42);
+        out.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        IdSet restored = IdSet.readFrom(in, 0);
+        // the stream is positioned right after the set
+        assertEquals(42, in.readInt());
+        assertEquals(ids.size(), restored.size());
+        for(String id : ids)
+        {
+            assertTrue(restored.contains(id));
+        }
+        assertFalse(restored.contains("not contained"));
+        assertTrue(restored.add("added after restore"));
+        assertEquals(ids.size() + 1, restored.size());
+
+        // a larger expected size avoids growing after the restore
+        restored = IdSet.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 100000);
+        assertTrue(restored.table.length / 2 >= 100000 / 0.75);
+        assertEquals(ids.size(), restored.size());
+    }
+
+}
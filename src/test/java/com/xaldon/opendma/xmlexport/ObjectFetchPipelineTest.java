@@ -0,0 +1,165 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+import org.opendma.api.OdmaClass;
+import org.opendma.api.OdmaId;
+import org.opendma.api.OdmaObject;
+import org.opendma.api.OdmaPropertyInfo;
+import org.opendma.api.OdmaQName;
+import org.opendma.api.OdmaSession;
+import org.opendma.api.OdmaType;
+
+/**
+ * Checks that the fetch threads only materialize the properties of the serialization plan.
+ */
+public class ObjectFetchPipelineTest
+{
+
+    private static final String NAMESPACE = SyntheticRepository.NAMESPACE;
+
+    private final Thread testThread = Thread.currentThread();
+
+    /** qualified names of the properties read by a thread other than the test thread */
+    private final Set<String> fetchThreadReads = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+    /** qualified names of all properties read */
+    private final Set<String> reads = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+    @Test
+    public void testMaterializePlannedProperties() throws InterruptedException
+    {
+        SyntheticObjects factory = new SyntheticObjects();
+        OdmaPropertyInfo kept = factory.createPropertyInfo(NAMESPACE, "Kept", OdmaType.STRING, false);
+        OdmaPropertyInfo excluded = factory.createPropertyInfo(NAMESPACE, "Excluded", OdmaType.STRING, false);
+        OdmaClass cls = factory.createClass(NAMESPACE, "Item", null, true, Arrays.asList(kept, excluded));
+        final OdmaObject obj = factory.createObject("obj-0", cls);
+        SyntheticObjects.setValue(obj, kept, "kept");
+        SyntheticObjects.setValue(obj, excluded, "excluded");
+        final ClassSerializationPlan plan = new ClassSerializationPlan(cls.getQName(), new OdmaPropertyInfo[] { kept }, new OdmaQName[] { kept.getQName() }, new OdmaType[] { OdmaType.STRING }, new boolean[1]);
+        ObjectFetcher fetcher = new ObjectFetcher()
+        {
+            public void fetch(OdmaSession session, OdmaId repositoryId, ObjectFetchPipeline.FetchResult[] batch)
+            {
+                for(ObjectFetchPipeline.FetchResult result : batch)
+                {
+                    result.setObject(record(obj));
+                }
+            }
+        };
+        ObjectFetchPipeline.PlanSource planSource = new ObjectFetchPipeline.PlanSource()
+        {
+            public ClassSerializationPlan getClassPlan(OdmaClass cls)
+            {
+                return plan;
+            }
+        };
+        ObjectFetchPipeline pipeline = new ObjectFetchPipeline(null, new OdmaId("repo"), 1, false, fetcher, 1, null, null, planSource);
+        try
+        {
+            pipeline.submit("obj-0", null, null);
+            assertNotNull(pipeline.next().getObject());
+        }
+        finally
+        {
+            pipeline.shutdown();
+        }
+        assertEquals(Collections.singleton(kept.getQName().toString()), fetchThreadReads);
+
+        // without a plan, nothing is materialized
+        fetchThreadReads.clear();
+        pipeline = new ObjectFetchPipeline(null, new OdmaId("repo"), 1, false, fetcher, 1, null, null, null);
+        try
+        {
+            pipeline.submit("obj-0", null, null);
+            assertNotNull(pipeline.next().getObject());
+        }
+        finally
+        {
+            pipeline.shutdown();
+        }
+        assertTrue(fetchThreadReads.isEmpty());
+    }
+
+    @Test
+    public void testExcludedPropertiesNeverRead() throws Exception
+    {
+        // without prefetched property names, the fetch threads fall back to the class plans
+        SyntheticRepository repository = new SyntheticRepository(new Properties())
+        {
+            @Override
+            public OdmaObject getObject(String id)
+            {
+                OdmaObject obj = super.getObject(id);
+                return id.startsWith("obj-") ? record(obj) : obj;
+            }
+        };
+        File outfile = File.createTempFile("fetch", ".xml");
+        try
+        {
+            Properties props = new Properties();
+            props.setProperty("AdaptorSystemId", "synthetic");
+            props.setProperty("Repository", repository.getRepository().getId().toString());
+            props.setProperty("Outfile", outfile.getPath());
+            props.setProperty("Verbose", "0");
+            props.setProperty("ExcludeProperties", ".*:Item_P1 .*:Item_0_P.*");
+            props.setProperty("PrefetchProperties", "false");
+            props.setProperty("FetchThreads", "4");
+            new XMLExporter(props).runExport(repository.createSession());
+        }
+        finally
+        {
+            outfile.delete();
+        }
+        assertTrue(reads.contains(NAMESPACE+":Item_P0"));
+        assertTrue(fetchThreadReads.contains(NAMESPACE+":Item_P0"));
+        assertFalse(reads.contains(NAMESPACE+":Item_P1"));
+        assertFalse(reads.contains(NAMESPACE+":Item_0_P0"));
+        assertTrue(reads.contains(NAMESPACE+":Item_1_P0"));
+    }
+
+    /**
+     * Wrap the given object, recording the names of the properties read.
+     */
+    private OdmaObject record(final OdmaObject obj)
+    {
+        return (OdmaObject)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { OdmaObject.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if(method.getName().equals("getProperty") && args != null && args.length == 1)
+                {
+                    reads.add(args[0].toString());
+                    if(Thread.currentThread() != testThread)
+                    {
+                        fetchThreadReads.add(args[0].toString());
+                    }
+                }
+                try
+                {
+                    return method.invoke(obj, args);
+                }
+                catch(InvocationTargetException ite)
+                {
+                    throw ite.getCause();
+                }
+            }
+        });
+    }
+
+}
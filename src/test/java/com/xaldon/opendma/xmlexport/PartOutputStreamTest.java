@@ -0,0 +1,213 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/**
+ * Checks the rollover of {@link PartOutputStream} from part to part, resuming a part from
+ * a checkpoint and the parts of a complete export.
+ */
+public class PartOutputStreamTest
+{
+
+    @Test
+    public void testRollover() throws IOException
+    {
+        assertRollover(false);
+    }
+
+    @Test
+    public void testCompressedRollover() throws IOException
+    {
+        assertRollover(true);
+    }
+
+    private void assertRollover(boolean compress) throws IOException
+    {
+        File directory = Files.createTempDirectory("parts").toFile();
+        try
+        {
+            String outfile = new File(directory, "export.xml").getPath();
+            PartOutputStream out = new PartOutputStream(outfile, compress);
+            write(out, "first part");
+            out.countObject();
+            out.countObject();
+            assertEquals(2, out.getObjectCount());
+            assertEquals(10, out.getByteCount());
+            out.nextPart(10);
+            assertEquals(0, out.getObjectCount());
+            assertEquals(0, out.getByteCount());
+            assertEquals(10, out.getStartPosition());
+            write(out, "second");
+            out.countObject();
+
+            // a checkpoint in the middle of the second part
+            ByteArrayOutputStream state = new ByteArrayOutputStream();
+            DataOutputStream stateStream = new DataOutputStream(state);
+            out.writeTo(stateStream);
+            stateStream.flush();
+            write(out, " lost after the checkpoint");
+            out.countObject();
+            out.close();
+
+            out = PartOutputStream.readFrom(new DataInputStream(new ByteArrayInputStream(state.toByteArray())), outfile, compress);
+            assertEquals(1, out.getObjectCount());
+            assertEquals(6, out.getByteCount());
+            assertEquals(10, out.getStartPosition());
+            write(out, " part");
+            out.nextPart(21);
+            write(out, "third part");
+            out.countObject();
+            out.close();
+
+            String suffix = compress ? ".xml.gz" : ".xml";
+            List<PartOutputStream.Part> parts = out.getParts();
+            assertEquals(3, parts.size());
+            assertPart(parts.get(0), "export.part00001"+suffix, 2, 10);
+            assertPart(parts.get(1), "export.part00002"+suffix, 1, 11);
+            assertPart(parts.get(2), "export.part00003"+suffix, 1, 10);
+            assertEquals("first part", read(new File(directory, parts.get(0).getFileName()), compress));
+            assertEquals("second part", read(new File(directory, parts.get(1).getFileName()), compress));
+            assertEquals("third part", read(new File(directory, parts.get(2).getFileName()), compress));
+            // the output file itself is left to the manifest
+            assertFalse(new File(outfile).exists());
+            assertEquals(3, directory.list().length);
+        }
+        finally
+        {
+            deleteFiles(directory);
+        }
+    }
+
+    @Test
+    public void testExportParts() throws Exception
+    {
+        File directory = Files.createTempDirectory("parts").toFile();
+        try
+        {
+            Properties props = new Properties();
+            props.setProperty("Synthetic.ObjectsPerClass", "40");
+            props.setProperty("AdaptorSystemId", "synthetic");
+            props.setProperty("Outfile", new File(directory, "export.xml").getPath());
+            props.setProperty("Verbose", "0");
+            props.setProperty("PartMaxObjects", "50");
+            SyntheticRepository repository = new SyntheticRepository(props);
+            props.setProperty("Repository", repository.getRepository().getId().toString());
+            new XMLExporter(props).runExport(repository.createSession());
+
+            String manifest = read(new File(directory, "export.xml"), false);
+            assertTrue(manifest.startsWith("<?xml"));
+            String header = null;
+            int part = 1;
+            int lastPartObjects = -1;
+            File file;
+            while((file = new File(directory, String.format("export.part%05d.xml", part))).exists())
+            {
+                String document = read(file, false);
+                assertTrue(document.startsWith("<?xml"));
+                assertTrue(document.trim().endsWith("</OdmaXmlRepository>"));
+                // the repository object and the class tree come before the first exported object
+                int firstObject = document.indexOf("classNamespace=\"synthetic\"");
+                assertTrue(firstObject > 0);
+                String partHeader = document.substring(0, firstObject);
+                if(header == null)
+                {
+                    header = partHeader;
+                }
+                assertEquals(header, partHeader);
+                // the header is not counted
+                int partObjects = count(document, "<OdmaObject classNamespace=\"synthetic\"");
+                assertTrue(manifest.contains("<Part file=\""+file.getName()+"\" objects=\""+partObjects+"\""));
+                if(lastPartObjects >= 0)
+                {
+                    // a part is only completed after reaching the limit
+                    assertTrue(lastPartObjects >= 50);
+                }
+                lastPartObjects = partObjects;
+                part++;
+            }
+            assertTrue(part > 3);
+            assertEquals(count(manifest, "<Part "), part - 1);
+        }
+        finally
+        {
+            deleteFiles(directory);
+        }
+    }
+
+    private static void assertPart(PartOutputStream.Part part, String fileName, long objectCount, long byteCount)
+    {
+        assertEquals(fileName, part.getFileName());
+        assertEquals(objectCount, part.getObjectCount());
+        assertEquals(byteCount, part.getByteCount());
+    }
+
+    private static void write(PartOutputStream out, String s) throws IOException
+    {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static String read(File file, boolean compressed) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        if(compressed)
+        {
+            in = new GZIPInputStream(in);
+        }
+        try
+        {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int num;
+            while((num = in.read(buffer)) > 0)
+            {
+                result.write(buffer, 0, num);
+            }
+            return new String(result.toByteArray(), StandardCharsets.UTF_8);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static int count(String s, String part)
+    {
+        int result = 0;
+        int index = 0;
+        while((index = s.indexOf(part, index)) >= 0)
+        {
+            result++;
+            index += part.length();
+        }
+        return result;
+    }
+
+    private static void deleteFiles(File directory)
+    {
+        for(File file : directory.listFiles())
+        {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+}
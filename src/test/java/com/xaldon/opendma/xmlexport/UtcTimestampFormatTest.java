@@ -0,0 +1,160 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Compares {@link UtcTimestampFormat} and {@link XMLWriter#writeTimestamp(long)} with the
+ * <code>SimpleDateFormat</code> the export used before.
+ */
+public class UtcTimestampFormatTest
+{
+
+    private final SimpleDateFormat reference;
+
+    public UtcTimestampFormatTest()
+    {
+        reference = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        reference.setTimeZone(TimeZone.getTimeZone("UTC"));
+        reference.setLenient(false);
+    }
+
+    @Test
+    public void testEpoch() throws ParseException
+    {
+        assertFormat(0);
+        assertFormat(1);
+        assertFormat(999);
+        assertFormat(1000);
+        assertFormat(parse("1970-01-01T23:59:59.999Z"));
+    }
+
+    @Test
+    public void testNegativeMillis() throws ParseException
+    {
+        assertFormat(-1);
+        assertFormat(-999);
+        assertFormat(-1000);
+        assertFormat(-1001);
+        assertFormat(-86400000L);
+        assertFormat(-86400001L);
+        assertFormat(parse("1969-12-31T00:00:00.000Z"));
+        assertFormat(parse("1900-06-15T12:34:56.789Z"));
+    }
+
+    @Test
+    public void testYearBoundaries() throws ParseException
+    {
+        int[] years = new int[] { 1583, 1599, 1600, 1699, 1700, 1899, 1900, 1969, 1970, 1999, 2000, 2037, 2038, 2099, 2100, 2399, 2400, 9998 };
+        for(int year : years)
+        {
+            long newYear = parse((year + 1)+"-01-01T00:00:00.000Z");
+            assertFormat(newYear - 1);
+            assertFormat(newYear);
+            assertFormat(parse(year+"-01-01T00:00:00.000Z"));
+            assertFormat(parse(year+"-12-31T12:00:00.000Z"));
+        }
+    }
+
+    @Test
+    public void testLeapDays() throws ParseException
+    {
+        int[] years = new int[] { 1600, 1700, 1800, 1900, 1996, 2000, 2001, 2004, 2024, 2100, 2400, 9996 };
+        for(int year : years)
+        {
+            long march = parse(year+"-03-01T00:00:00.000Z");
+            assertFormat(march - 1);
+            assertFormat(march);
+            assertFormat(march - 86400000L);
+            assertFormat(march - 2 * 86400000L);
+            assertFormat(parse(year+"-02-28T00:00:00.000Z"));
+        }
+    }
+
+    @Test
+    public void testSupportedRange() throws ParseException
+    {
+        assertEquals(parse("1583-01-01T00:00:00.000Z"), UtcTimestampFormat.MIN_MILLIS);
+        assertFormat(UtcTimestampFormat.MIN_MILLIS);
+        assertFormat(parse("9999-12-31T23:59:59.999Z"));
+        assertEquals(parse("9999-12-31T23:59:59.999Z") + 1, UtcTimestampFormat.MAX_MILLIS);
+        assertTrue(UtcTimestampFormat.isSupported(UtcTimestampFormat.MIN_MILLIS));
+        assertFalse(UtcTimestampFormat.isSupported(UtcTimestampFormat.MIN_MILLIS - 1));
+        assertTrue(UtcTimestampFormat.isSupported(UtcTimestampFormat.MAX_MILLIS - 1));
+        assertFalse(UtcTimestampFormat.isSupported(UtcTimestampFormat.MAX_MILLIS));
+    }
+
+    @Test
+    public void testRandomMillis()
+    {
+        Random random = new Random(22);
+        long range = UtcTimestampFormat.MAX_MILLIS - UtcTimestampFormat.MIN_MILLIS;
+        for(int i = 0; i < 100000; i++)
+        {
+            long millis = UtcTimestampFormat.MIN_MILLIS + (long)(random.nextDouble() * range);
+            assertFormat(millis);
+            // same day, exercises the cached date
+            assertFormat(millis - millis % 1000);
+        }
+    }
+
+    @Test
+    public void testCachedDay() throws ParseException
+    {
+        UtcTimestampFormat format = new UtcTimestampFormat();
+        long[] millis = new long[] { parse("2020-05-05T10:00:00.000Z"), parse("2020-05-05T11:00:00.000Z"), parse("2020-05-06T00:00:00.000Z"), parse("2020-05-05T23:59:59.999Z"), -1, 0, -1 };
+        for(long m : millis)
+        {
+            byte[] buffer = new byte[UtcTimestampFormat.LENGTH];
+            assertEquals(UtcTimestampFormat.LENGTH, format.format(m, buffer, 0));
+            assertEquals(reference.format(new Date(m)), new String(buffer, 0, buffer.length));
+        }
+    }
+
+    @Test
+    public void testWriteTimestamp() throws IOException, ParseException
+    {
+        long[] millis = new long[] { 0, -1, parse("2000-02-29T23:59:59.999Z"), UtcTimestampFormat.MIN_MILLIS, UtcTimestampFormat.MAX_MILLIS - 1 };
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // the smallest buffer, so that timestamps are written across flushes
+        XMLWriter writer = new XMLWriter(bytes, 32);
+        StringBuilder expected = new StringBuilder();
+        for(long m : millis)
+        {
+            writer.write("<v>");
+            assertTrue(writer.writeTimestamp(m));
+            writer.write("</v>");
+            expected.append("<v>").append(reference.format(new Date(m))).append("</v>");
+        }
+        assertFalse(writer.writeTimestamp(UtcTimestampFormat.MIN_MILLIS - 1));
+        assertFalse(writer.writeTimestamp(UtcTimestampFormat.MAX_MILLIS));
+        writer.close();
+        assertArrayEquals(expected.toString().getBytes("UTF-8"), bytes.toByteArray());
+    }
+
+    private void assertFormat(long millis)
+    {
+        byte[] buffer = new byte[UtcTimestampFormat.LENGTH + 2];
+        int end = new UtcTimestampFormat().format(millis, buffer, 1);
+        assertEquals(UtcTimestampFormat.LENGTH + 1, end);
+        assertEquals("millis "+millis, reference.format(new Date(millis)), new String(buffer, 1, UtcTimestampFormat.LENGTH));
+    }
+
+    private long parse(String timestamp) throws ParseException
+    {
+        return reference.parse(timestamp).getTime();
+    }
+
+}
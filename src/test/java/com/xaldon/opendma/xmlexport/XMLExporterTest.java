@@ -0,0 +1,83 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.opendma.api.OdmaQName;
+import org.opendma.api.OdmaType;
+
+/**
+ * Checks the conversion of property values not returned as the boxed type of their data type.
+ */
+public class XMLExporterTest
+{
+
+    private static final OdmaQName PROPERTY_NAME = new OdmaQName("test", "Value");
+
+    @Test
+    public void testToNumber()
+    {
+        assertEquals(5, XMLExporter.toNumber(Long.valueOf(5)).intValue());
+        assertEquals(7, XMLExporter.toNumber(new BigDecimal("7.9")).intValue());
+        assertEquals(Long.MAX_VALUE, XMLExporter.toNumber(Long.toString(Long.MAX_VALUE)).longValue());
+        assertEquals(-42, XMLExporter.toNumber(" -42 ").shortValue());
+        assertEquals(1.5, XMLExporter.toNumber("1.5").doubleValue(), 0);
+        assertTrue(Double.isNaN(XMLExporter.toNumber("NaN").doubleValue()));
+        try
+        {
+            XMLExporter.toNumber("not a number");
+            fail("string converted to a number");
+        }
+        catch(NumberFormatException nfe)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testToBoolean()
+    {
+        assertTrue(XMLExporter.toBoolean(Boolean.TRUE));
+        assertTrue(XMLExporter.toBoolean(Integer.valueOf(1)));
+        assertFalse(XMLExporter.toBoolean(Long.valueOf(0)));
+        assertTrue(XMLExporter.toBoolean("TRUE"));
+        assertFalse(XMLExporter.toBoolean(" false"));
+        try
+        {
+            XMLExporter.toBoolean("yes");
+            fail("string converted to a boolean");
+        }
+        catch(IllegalArgumentException iae)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDumpLenientValues() throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("AdaptorSystemId", "synthetic");
+        props.setProperty("Repository", "repo");
+        props.setProperty("Outfile", "unused.xml");
+        XMLExporter exporter = new XMLExporter(props);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        XmlExportSerializer out = new XmlExportSerializer(new XMLWriter(bytes));
+        exporter.dumpPropertyValueObject(out, Long.valueOf(12), OdmaType.INTEGER, PROPERTY_NAME, null);
+        exporter.dumpPropertyValueObject(out, Integer.valueOf(3), OdmaType.SHORT, PROPERTY_NAME, null);
+        exporter.dumpPropertyValueObject(out, "123456789012", OdmaType.LONG, PROPERTY_NAME, null);
+        exporter.dumpPropertyValueObject(out, Double.valueOf(0.5), OdmaType.FLOAT, PROPERTY_NAME, null);
+        exporter.dumpPropertyValueObject(out, new BigDecimal("2.25"), OdmaType.DOUBLE, PROPERTY_NAME, null);
+        exporter.dumpPropertyValueObject(out, Integer.valueOf(1), OdmaType.BOOLEAN, PROPERTY_NAME, null);
+        out.flush();
+        assertEquals("<Value>12</Value><Value>3</Value><Value>123456789012</Value><Value>0.5</Value><Value>2.25</Value><Value>true</Value>", bytes.toString("UTF-8"));
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.xaldon.opendma.xmlexport;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares {@link XMLWriter#writeEscaped(String)} byte for byte with the escaping of
+ * character data before the XMLWriter, a <code>PrintStream</code> writing one character
+ * after the other. Characters not allowed in XML 1.0 are replaced by U+FFFD before they are
+ * handed to the reference.
+ */
+public class XMLWriterTest
+{
+
+    private static final String[] SAMPLES = new String[] {
+        "",
+        "plain ascii text",
+        "\"quoted\" & 'apostrophes' <tag> a>b",
+        "&&&<<<>>>\"\"\"'''",
+        "tab\tline feed\ncarriage return\r",
+        "\u0000\u0001\u0008\u000B\u000C\u000E\u001F\u007F",
+        "umlauts \u00e4\u00f6\u00fc\u00df, greek \u03b1\u03b2\u03b3, euro \u20ac, cjk \u4e2d\u6587",
+        "emoji \ud83d\ude00 and \ud834\udd1e clef",
+        "lone high \ud83d at the end \ud83d",
+        "lone low \ude00 and reversed \ude00\ud83d pair",
+        "\ud800\ud800\udc00\udc00",
+        "noncharacters \ufffe and \uffff, but \ufffd and \ufffc",
+        "\u07ff\u0800\ud7ff\ue000\uffef",
+    };
+
+    @Test
+    public void testSamples() throws IOException
+    {
+        for(String s : SAMPLES)
+        {
+            assertArrayEquals(s, reference(s), escaped(s, XMLWriter.DEFAULT_BUFFER_SIZE));
+        }
+    }
+
+    @Test
+    public void testRunsAcrossBufferBoundary() throws IOException
+    {
+        String[] tails = new String[] { "&", "\"", "\u0001", "\u00e4", "\u20ac", "\ud83d\ude00", "\ud83d", "\ude00", "\uffff", "x" };
+        for(int bufferSize = 32; bufferSize <= 48; bufferSize++)
+        {
+            for(int prefix = 0; prefix <= 3 * bufferSize; prefix++)
+            {
+                for(String tail : tails)
+                {
+                    String s = repeat('a', prefix) + tail + repeat('b', prefix % 7) + tail;
+                    assertArrayEquals(bufferSize+"/"+prefix+"/"+s, reference(s), escaped(s, bufferSize));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRandomStrings() throws IOException
+    {
+        Random random = new Random(20);
+        char[] interesting = new char[] { '"', '&', '\'', '<', '>', '\t', '\n', '\r', '\u0000', '\u001f', '\u0080', '\u07ff', '\u0800', '\ud800', '\udbff', '\udc00', '\udfff', '\ufffd', '\ufffe', '\uffff' };
+        for(int n = 0; n < 2000; n++)
+        {
+            char[] chars = new char[random.nextInt(200)];
+            for(int i = 0; i < chars.length; i++)
+            {
+                switch(random.nextInt(4))
+                {
+                case 0:
+                    chars[i] = interesting[random.nextInt(interesting.length)];
+                    break;
+                case 1:
+                    chars[i] = (char)random.nextInt(0x10000);
+                    break;
+                default:
+                    chars[i] = (char)(' ' + random.nextInt(0x60));
+                    break;
+                }
+            }
+            String s = new String(chars);
+            assertArrayEquals("random string "+n, reference(s), escaped(s, 32 + random.nextInt(64)));
+        }
+    }
+
+    @Test
+    public void testAfterPlainText() throws IOException
+    {
+        // a pending high surrogate of write() is completed before the escaped text
+        String s = "<\ud83d\ude00>";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        XMLWriter writer = new XMLWriter(bytes, 32);
+        writer.write("text\ud83d");
+        writer.writeEscaped(s);
+        writer.close();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write("text?".getBytes("UTF-8"));
+        expected.write(reference(s));
+        assertArrayEquals(expected.toByteArray(), bytes.toByteArray());
+    }
+
+    private static byte[] escaped(String s, int bufferSize) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        XMLWriter writer = new XMLWriter(bytes, bufferSize);
+        writer.writeEscaped(s);
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] reference(String s) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, false, "UTF-8");
+        dumpXMLString(out, replaceInvalidCharacters(s));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The escaping of character data before the XMLWriter.
+     */
+    private static void dumpXMLString(PrintStream out, String s)
+    {
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            switch(c)
+            {
+            case '"':
+                out.print("&#x0022;");
+                break;
+            case '&':
+                out.print("&#x0026;");
+                break;
+            case '\'':
+                out.print("&#x0027;");
+                break;
+            case '<':
+                out.print("&#x003C;");
+                break;
+            case '>':
+                out.print("&#x003E;");
+                break;
+            default:
+                out.print(c);
+                break;
+            }
+        }
+    }
+
+    private static String replaceInvalidCharacters(String s)
+    {
+        StringBuilder result = new StringBuilder(s.length());
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)))
+            {
+                result.append(c).append(s.charAt(++i));
+            }
+            else if((c < 0x20 && c != '\t' && c != '\n' && c != '\r') || Character.isSurrogate(c) || c == '\ufffe' || c == '\uffff')
+            {
+                result.append('\ufffd');
+            }
+            else
+            {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String repeat(char c, int count)
+    {
+        StringBuilder result = new StringBuilder(count);
+        for(int i = 0; i < count; i++)
+        {
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+}